@@ -188,8 +188,8 @@ export default function Chat() {
               }
               return prev
             })
-          } else if (msg.event === 'sources') {
-            // 处理引用来源
+          } else if (msg.event === 'sources' || msg.event === 'sources-final') {
+            // 处理引用来源 (sources-final 为重排序后的最终来源，替换先行推送的临时来源)
             try {
               const sourcesData = JSON.parse(msg.data) as SourceInfo[]
               const displaySources: DisplaySource[] = sourcesData.map(s => ({
@@ -7,6 +7,7 @@ import com.twocold.jrag.api.dto.UploadResponse;
 import com.twocold.jrag.config.CurrentUser;
 import com.twocold.jrag.domain.Chunk;
 import com.twocold.jrag.domain.Document;
+import com.twocold.jrag.domain.DocumentStatus;
 import com.twocold.jrag.ingestion.IngestionService;
 import com.twocold.jrag.qa.DeepThinkingAgent;
 import com.twocold.jrag.service.DocumentService;
@@ -136,6 +137,42 @@ public class RAGController {
         }
     }
 
+    @PutMapping("/documents/{id}/file")
+    public ResponseEntity<UploadResponse> updateDocumentFile(
+            @PathVariable UUID id,
+            @RequestParam("file") MultipartFile file,
+            @CurrentUser Long userId) {
+        if (file.isEmpty()) {
+            return ResponseEntity.badRequest().body(new UploadResponse(id, "文件为空", false));
+        }
+
+        try {
+            // 1. 校验权限并标记为 PENDING (正在处理的文档不允许更新)
+            Document document = documentService.beginDocumentUpdate(id, userId);
+
+            // 2. 将 MultipartFile 保存到临时文件
+            Path tempFilePath = Files.createTempFile("upload-", file.getOriginalFilename());
+            file.transferTo(tempFilePath.toFile());
+            log.info("已为文档 {} 的更新保存临时文件: {}", id, tempFilePath);
+
+            // 3. 触发异步增量更新
+            ingestionService.startReingestion(id, tempFilePath, userId, file.getOriginalFilename(), file.getSize());
+
+            return ResponseEntity.ok(new UploadResponse(id, "文档更新已启动。后台处理中。", document.isPublic()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.notFound().build();
+        } catch (SecurityException e) {
+            return ResponseEntity.status(403).body(new UploadResponse(id, e.getMessage(), false));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(409).body(new UploadResponse(id, e.getMessage(), false));
+        } catch (Exception e) {
+            log.error("启动文档 {} 更新出错: {}", id, e.getMessage(), e);
+            documentService.updateDocumentStatusAndProgress(id, DocumentStatus.COMPLETED, 100,
+                    "启动更新失败，已保留原有内容");
+            return ResponseEntity.internalServerError().body(new UploadResponse(id, "启动文档更新出错: " + e.getMessage(), false));
+        }
+    }
+
     @GetMapping("/documents")
     public ResponseEntity<List<DocumentDto>> listDocuments(@CurrentUser Long userId) {
         List<Document> documents = documentService.getDocumentsForUser(userId);
@@ -2,6 +2,7 @@ package com.twocold.jrag.config;
 
 import com.twocold.jrag.qa.DeepThinkingAgent;
 import com.twocold.jrag.qa.RagAgentTools;
+import com.twocold.jrag.service.CoalescingScoringModel;
 import com.twocold.jrag.service.GenericScoringModel;
 import dev.langchain4j.model.chat.ChatModel;
 import dev.langchain4j.model.scoring.ScoringModel;
@@ -15,6 +16,7 @@ public class AiConfig {
 
     /**
      * 重排序模型需要手动定义，以便支持多种 API 风格（标准/阿里）
+     * 启用 batching 时外层包装跨请求合并层
      */
     @Bean
     public ScoringModel scoringModel(RagProperties props, RestClient.Builder builder) {
@@ -22,7 +24,11 @@ public class AiConfig {
         if (config == null || !config.enabled()) {
             return null;
         }
-        return new GenericScoringModel(config, builder);
+        ScoringModel scoringModel = new GenericScoringModel(config, builder);
+        if (config.batching() != null && config.batching().enabled()) {
+            return new CoalescingScoringModel(scoringModel, config.batching());
+        }
+        return scoringModel;
     }
 
     @Bean
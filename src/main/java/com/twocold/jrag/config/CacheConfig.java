@@ -12,14 +12,36 @@ import java.util.concurrent.TimeUnit;
 public class CacheConfig {
 
     public static final String USER_ADMIN_CACHE = "userAdminCache";
+    public static final String QUERY_EMBEDDING_CACHE = "queryEmbeddingCache";
+    public static final String RERANK_SCORE_CACHE = "rerankScoreCache";
 
     @Bean
-    public CacheManager cacheManager() {
+    public CacheManager cacheManager(RagProperties ragProperties) {
         CaffeineCacheManager cacheManager = new CaffeineCacheManager();
         cacheManager.setCaffeine(Caffeine.newBuilder()
                 .maximumSize(1000)
                 .expireAfterWrite(10, TimeUnit.MINUTES)
                 .recordStats());
+
+        // 查询向量缓存：容量与过期时间独立配置，统计信息通过 Actuator 的 cache.gets 指标导出
+        RagProperties.Retrieval.EmbeddingCache embeddingCache = ragProperties.retrieval().embeddingCache();
+        if (embeddingCache != null && embeddingCache.enabled()) {
+            cacheManager.registerCustomCache(QUERY_EMBEDDING_CACHE, Caffeine.newBuilder()
+                    .maximumSize(embeddingCache.maximumSize())
+                    .expireAfterWrite(embeddingCache.ttlMinutes(), TimeUnit.MINUTES)
+                    .recordStats()
+                    .build());
+        }
+
+        // 重排序分数缓存
+        RagProperties.Retrieval.Rerank rerank = ragProperties.retrieval().rerank();
+        if (rerank != null && rerank.enabled() && rerank.scoreCache() != null && rerank.scoreCache().enabled()) {
+            cacheManager.registerCustomCache(RERANK_SCORE_CACHE, Caffeine.newBuilder()
+                    .maximumSize(rerank.scoreCache().maximumSize())
+                    .expireAfterWrite(rerank.scoreCache().ttlMinutes(), TimeUnit.MINUTES)
+                    .recordStats()
+                    .build());
+        }
         return cacheManager;
     }
 }
@@ -11,7 +11,18 @@ public record RagProperties(
                 Retrieval retrieval,
                 Chunking chunking,
                 Vision vision,
-                LangFuse langfuse) {
+                LangFuse langfuse,
+                Tokenizer tokenizer,
+                Ingestion ingestion) {
+
+        public RagProperties {
+                if (tokenizer == null) {
+                        tokenizer = new Tokenizer(null, 0);
+                }
+                if (ingestion == null) {
+                        ingestion = new Ingestion(0, 0, null, true, null);
+                }
+        }
 
         public record LangFuse(
                 boolean enabled,
@@ -22,7 +33,40 @@ public record RagProperties(
         public record Retrieval(
                         @Min(1) @Max(50) int topK,
                         Rewrite rewrite,
-                        Rerank rerank) {
+                        Rerank rerank,
+                        EmbeddingCache embeddingCache,
+                        Hnsw hnsw,
+                        /* 两阶段检索：先按 id/向量排序，再仅为最终片段回表读取正文 */
+                        boolean twoPhase,
+                        SemanticCache semanticCache,
+                        VectorBackend vectorBackend,
+                        VectorStorage vectorStorage,
+                        KeywordBackend keywordBackend,
+                        ProgressiveSources progressiveSources,
+                        DocumentSetCache documentSetCache) {
+                public Retrieval {
+                        if (semanticCache == null) {
+                                // 相近但关键词不同的问题 (年份、产品名、否定) 会复用彼此的结果，必须显式开启
+                                semanticCache = new SemanticCache(false, 0, 0, 0, 0);
+                        }
+                        if (vectorBackend == null) {
+                                vectorBackend = new VectorBackend(null, 0, 0, 0, 0, 0, 0);
+                        }
+                        if (vectorStorage == null) {
+                                vectorStorage = new VectorStorage(null, false, 0, 0);
+                        }
+                        if (keywordBackend == null) {
+                                keywordBackend = new KeywordBackend(null, 0, -1, 0);
+                        }
+                        if (progressiveSources == null) {
+                                progressiveSources = new ProgressiveSources(false, false, 0);
+                        }
+                        if (documentSetCache == null) {
+                                documentSetCache = new DocumentSetCache(true, 0, 0);
+                        }
+                }
+
+
                 public record Rewrite(
                                 boolean enabled,
                                 @Min(1) int maxContextMessages) {
@@ -38,11 +82,279 @@ public record RagProperties(
                                 String baseUrl,
                                 String apiKey,
                                 String modelName,
-                                @Min(1) int initialTopK) {
+                                @Min(1) int initialTopK,
+                                ScoreCache scoreCache,
+                                Batching batching,
+                                /* 单次重排序的时延预算 (毫秒)，超时后回退为 RRF 融合结果；0 表示不限制 */
+                                @Min(0) int latencyBudgetMillis) {
                         public Rerank {
                                 if (initialTopK <= 0) {
                                         initialTopK = 20;
                                 }
+                                if (latencyBudgetMillis < 0) {
+                                        latencyBudgetMillis = 0;
+                                }
+                        }
+
+                        /**
+                         * 重排序分数缓存配置 (键为 查询哈希 + 片段 ID + 重排模型名称)
+                         */
+                        public record ScoreCache(
+                                        /* 是否启用重排序分数缓存 */
+                                        boolean enabled,
+                                        /* 最大缓存条目数 (每个 查询-片段 对占一条) */
+                                        @Min(1) long maximumSize,
+                                        /* 写入后过期时间 (分钟) */
+                                        @Min(1) int ttlMinutes) {
+                                public ScoreCache {
+                                        if (maximumSize <= 0) {
+                                                maximumSize = 100000;
+                                        }
+                                        if (ttlMinutes <= 0) {
+                                                ttlMinutes = 60;
+                                        }
+                                }
+                        }
+
+                        /**
+                         * 跨请求合并重排序调用 (短时间窗口内的请求合并后再发送)
+                         */
+                        public record Batching(
+                                        /* 是否启用请求合并 */
+                                        boolean enabled,
+                                        /* 单个请求在合并窗口中最多等待的时间 (毫秒) */
+                                        @Min(1) int maxWaitMillis,
+                                        /* 单次发送到重排 API 的最大文档数 */
+                                        @Min(1) int maxBatchSize) {
+                                public Batching {
+                                        if (maxWaitMillis <= 0) {
+                                                maxWaitMillis = 5;
+                                        }
+                                        if (maxBatchSize <= 0) {
+                                                maxBatchSize = 64;
+                                        }
+                                }
+                        }
+                }
+
+                /**
+                 * 查询向量缓存配置 (相同问题/子查询复用 Embedding 结果)
+                 */
+                public record EmbeddingCache(
+                                /* 是否启用查询向量缓存 */
+                                boolean enabled,
+                                /* 最大缓存条目数 */
+                                @Min(1) long maximumSize,
+                                /* 写入后过期时间 (分钟) */
+                                @Min(1) int ttlMinutes) {
+                        public EmbeddingCache {
+                                if (maximumSize <= 0) {
+                                        maximumSize = 10000;
+                                }
+                                if (ttlMinutes <= 0) {
+                                        ttlMinutes = 30;
+                                }
+                        }
+                }
+
+                /**
+                 * 语义检索缓存配置 (同一文档集合下，向量足够相近的问题复用已有检索结果)
+                 */
+                public record SemanticCache(
+                                /* 是否启用语义检索缓存 */
+                                boolean enabled,
+                                /* 命中所需的最小余弦相似度 */
+                                double similarityThreshold,
+                                /* 最多缓存的文档集合数量 */
+                                @Min(1) long maximumDocumentSets,
+                                /* 每个文档集合最多保留的查询条目数 */
+                                @Min(1) int maxEntriesPerDocumentSet,
+                                /* 写入后过期时间 (分钟) */
+                                @Min(1) int ttlMinutes) {
+                        public SemanticCache {
+                                if (similarityThreshold <= 0 || similarityThreshold > 1) {
+                                        similarityThreshold = 0.95;
+                                }
+                                if (maximumDocumentSets <= 0) {
+                                        maximumDocumentSets = 1000;
+                                }
+                                if (maxEntriesPerDocumentSet <= 0) {
+                                        maxEntriesPerDocumentSet = 200;
+                                }
+                                if (ttlMinutes <= 0) {
+                                        ttlMinutes = 30;
+                                }
+                        }
+                }
+
+                /**
+                 * HNSW 向量索引的查询参数 (按查询设置 hnsw.ef_search 与 pgvector 迭代扫描)
+                 */
+                public record Hnsw(
+                                /* 是否按查询设置 HNSW 参数 */
+                                boolean enabled,
+                                /* ef_search = 候选数量 (fetchK) * 该系数 */
+                                @Min(1) int efSearchFactor,
+                                /* ef_search 下限 */
+                                @Min(1) int minEfSearch,
+                                /* ef_search 上限 (pgvector 最大支持 1000) */
+                                @Max(1000) int maxEfSearch,
+                                /* 迭代扫描模式：off / relaxed_order / strict_order (需要 pgvector 0.8+) */
+                                String iterativeScan,
+                                /* 文档集合不超过该数量时视为高选择性过滤，开启迭代扫描 */
+                                @Min(0) int iterativeScanMaxDocuments,
+                                /* 迭代扫描最多访问的元组数 */
+                                @Min(1) int maxScanTuples) {
+                        public Hnsw {
+                                if (efSearchFactor <= 0) {
+                                        efSearchFactor = 2;
+                                }
+                                if (minEfSearch <= 0) {
+                                        minEfSearch = 40;
+                                }
+                                if (maxEfSearch <= 0 || maxEfSearch > 1000) {
+                                        maxEfSearch = 400;
+                                }
+                                if (iterativeScan == null || iterativeScan.isBlank()) {
+                                        iterativeScan = "relaxed_order";
+                                }
+                                if (maxScanTuples <= 0) {
+                                        maxScanTuples = 20000;
+                                }
+                        }
+                }
+
+                /**
+                 * 向量检索后端配置。
+                 */
+                public record VectorBackend(
+                                /* pgvector (默认，数据库内检索) / memory (进程内 HNSW 索引) */
+                                String type,
+                                /* 进程内索引：每个节点的邻居数 (第 0 层为 2 倍) */
+                                @Min(2) int m,
+                                /* 进程内索引：构建时的候选队列长度 */
+                                @Min(1) int efConstruction,
+                                /* 进程内索引：查询时 ef 下限，文档过滤选择性高时按比例放大 */
+                                @Min(1) int minEfSearch,
+                                /* 进程内索引：查询时 ef 上限 */
+                                @Min(1) int maxEfSearch,
+                                /* 过滤后候选片段数不超过该值时直接精确扫描 */
+                                @Min(0) int exactSearchThreshold,
+                                /* 已删除节点数超过存活节点数的该比例时重建索引 */
+                                double rebuildDeletedRatio) {
+                        public VectorBackend {
+                                if (type == null || type.isBlank()) {
+                                        type = "pgvector";
+                                }
+                                if (m <= 1) {
+                                        m = 16;
+                                }
+                                if (efConstruction <= 0) {
+                                        efConstruction = 100;
+                                }
+                                if (minEfSearch <= 0) {
+                                        minEfSearch = 64;
+                                }
+                                if (maxEfSearch < minEfSearch) {
+                                        maxEfSearch = Math.max(minEfSearch, 1000);
+                                }
+                                if (exactSearchThreshold <= 0) {
+                                        exactSearchThreshold = 5000;
+                                }
+                                if (rebuildDeletedRatio <= 0) {
+                                        rebuildDeletedRatio = 0.3;
+                                }
+                        }
+                }
+
+                /**
+                 * 向量存储模式 (见 VectorStorageMode)。
+                 */
+                public record VectorStorage(
+                                /* full (float32) / half (halfvec 第一阶段) / binary (二值量化第一阶段，总是精确重排)
+                                   / matryoshka (256 维归一化前缀第一阶段，总是精确重排) */
+                                String mode,
+                                /* 是否用 float32 向量对第一阶段的候选做精确重排 */
+                                boolean rescore,
+                                /* 精确重排时第一阶段多取的倍数；binary 模式的召回率主要取决于该值 */
+                                @Min(1) int oversampling,
+                                /* 派生列在线回填时每批更新的行数 */
+                                @Min(1) int backfillBatchSize) {
+                        public VectorStorage {
+                                if (mode == null || mode.isBlank()) {
+                                        mode = "full";
+                                }
+                                if (oversampling <= 0) {
+                                        oversampling = 4;
+                                }
+                                if (backfillBatchSize <= 0) {
+                                        backfillBatchSize = 1000;
+                                }
+                        }
+                }
+
+                /**
+                 * 关键字检索后端配置。
+                 */
+                public record KeywordBackend(
+                                /* postgres (默认，全文检索 + ts_rank) / memory (进程内 BM25 倒排索引) */
+                                String type,
+                                /* BM25 词频饱和参数 */
+                                double k1,
+                                /* BM25 文档长度归一化参数 (0 - 1) */
+                                double b,
+                                /* 已删除片段数超过存活片段数的该比例时重建索引 */
+                                double rebuildDeletedRatio) {
+                        public KeywordBackend {
+                                if (type == null || type.isBlank()) {
+                                        type = "postgres";
+                                }
+                                if (k1 <= 0) {
+                                        k1 = 1.2;
+                                }
+                                if (b < 0 || b > 1) {
+                                        b = 0.75;
+                                }
+                                if (rebuildDeletedRatio <= 0) {
+                                        rebuildDeletedRatio = 0.3;
+                                }
+                        }
+                }
+
+                /**
+                 * 渐进式引用来源：重排序完成前先推送 RRF 融合的临时来源 (sources)，完成后推送最终来源 (sources-final)。
+                 */
+                public record ProgressiveSources(
+                                /* 是否启用 */
+                                boolean enabled,
+                                /* 重排序较慢时是否先基于临时结果开始生成回答 */
+                                boolean generateOnProvisional,
+                                /* 收到临时结果后等待最终结果的最长时间 (毫秒)，超时则基于临时结果生成 */
+                                long finalWaitMs) {
+                        public ProgressiveSources {
+                                if (finalWaitMs <= 0) {
+                                        finalWaitMs = 500;
+                                }
+                        }
+                }
+
+                /**
+                 * 对话 → 文档集合解析缓存配置。
+                 */
+                public record DocumentSetCache(
+                                /* 是否启用 */
+                                boolean enabled,
+                                /* 最多缓存的对话数量 */
+                                long maximumSize,
+                                /* 写入后过期时间 (分钟)，多实例部署下其他实例的变更在此时间内生效 */
+                                int ttlMinutes) {
+                        public DocumentSetCache {
+                                if (maximumSize <= 0) {
+                                        maximumSize = 10000;
+                                }
+                                if (ttlMinutes <= 0) {
+                                        ttlMinutes = 10;
+                                }
                         }
                 }
         }
@@ -52,6 +364,92 @@ public record RagProperties(
                         @Min(0) int overlap) {
         }
 
+        /**
+         * 分词配置 (入库 content_keywords 与检索关键字查询共用)。
+         */
+        public record Tokenizer(
+                        /* 分词器名称，对应 Segmenter#name()，默认 jieba */
+                        String segmenter,
+                        /* 查询分词结果缓存条数 */
+                        int queryCacheSize) {
+                public Tokenizer {
+                        if (segmenter == null || segmenter.isBlank()) {
+                                segmenter = "jieba";
+                        }
+                        if (queryCacheSize <= 0) {
+                                queryCacheSize = 10000;
+                        }
+                }
+        }
+
+        /**
+         * 入库流水线配置 (分词 + 嵌入阶段并发执行，单一写入者按顺序落库)。
+         */
+        public record Ingestion(
+                        /* 每批生成嵌入并写入的片段数 */
+                        int batchSize,
+                        /* 同时在分词与生成嵌入的批次数，也是内存中最多保留的批次数 */
+                        int maxInFlightBatches,
+                        /* 片段写入方式：batch (默认，batchUpdate) / copy (COPY BINARY，失败时回退为 batch) */
+                        String writeMode,
+                        /* 是否按内容哈希复用已生成的片段向量 (embedding_cache 表) */
+                        boolean embeddingCacheEnabled,
+                        /* 入库任务队列 */
+                        Jobs jobs) {
+                public Ingestion {
+                        if (batchSize <= 0) {
+                                batchSize = 20;
+                        }
+                        if (maxInFlightBatches <= 0) {
+                                maxInFlightBatches = 3;
+                        }
+                        if (writeMode == null || writeMode.isBlank()) {
+                                writeMode = "batch";
+                        }
+                        if (jobs == null) {
+                                jobs = new Jobs(0, 0, 0, 0, 0, 0);
+                        }
+                }
+
+                /**
+                 * 入库任务队列 (ingestion_jobs 表，多实例通过 FOR UPDATE SKIP LOCKED 认领)。
+                 */
+                public record Jobs(
+                                /* 每个实例的工作线程数，即同时处理的任务数 */
+                                int workers,
+                                /* 租约时长 (秒)。处理中定期续约，实例崩溃后租约过期，任务由其他工作线程接管并从检查点继续 */
+                                int leaseSeconds,
+                                /* 没有任务时的轮询间隔 (毫秒)；本实例提交的任务会立即唤醒工作线程 */
+                                long pollIntervalMs,
+                                /* 最大尝试次数 (含租约过期后的接管) */
+                                int maxAttempts,
+                                /* 失败后重试的基础延迟 (秒)，按尝试次数线性增加 */
+                                int retryDelaySeconds,
+                                /* 任务超过该时长 (秒) 没有进展 (切分完成或提交批次) 时停止续约并中断处理，按失败重试 */
+                                int maxStallSeconds) {
+                        public Jobs {
+                                if (workers <= 0) {
+                                        workers = 2;
+                                }
+                                if (leaseSeconds <= 0) {
+                                        leaseSeconds = 120;
+                                }
+                                if (pollIntervalMs <= 0) {
+                                        pollIntervalMs = 2000;
+                                }
+                                if (maxAttempts <= 0) {
+                                        maxAttempts = 3;
+                                }
+                                if (retryDelaySeconds <= 0) {
+                                        retryDelaySeconds = 30;
+                                }
+                                if (maxStallSeconds <= 0) {
+                                        maxStallSeconds = 900;
+                                }
+                        }
+                }
+        }
+
         /**
          * 视觉模型配置 (用于处理 PDF 中的图片、图表、扫描件)
          */
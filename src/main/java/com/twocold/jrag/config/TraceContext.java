@@ -2,6 +2,7 @@ package com.twocold.jrag.config;
 
 import java.util.ArrayDeque;
 import java.util.Deque;
+import java.util.function.Supplier;
 
 public class TraceContext {
     private static final ThreadLocal<String> NEXT_GENERATION_NAME = new ThreadLocal<>();
@@ -70,6 +71,26 @@ public class TraceContext {
         return null;
     }
 
+    /**
+     * Wrap a task so that it runs under the caller's Trace ID and current Span
+     * when executed on another thread (e.g. searchExecutor).
+     */
+    public static <T> Supplier<T> wrap(Supplier<T> task) {
+        String traceId = getTraceId();
+        String parentSpanId = getCurrentSpanId();
+        return () -> {
+            setTraceId(traceId);
+            if (parentSpanId != null) {
+                pushSpan(parentSpanId);
+            }
+            try {
+                return task.get();
+            } finally {
+                clear();
+            }
+        };
+    }
+
     public static void clear() {
         NEXT_GENERATION_NAME.remove();
         MANUAL_TRACE_ID.remove();
@@ -0,0 +1,83 @@
+package com.twocold.jrag.ingestion;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * 文档更新时新旧片段的匹配方案。
+ * 先按 (内容哈希, chunk_index) 精确匹配，再按内容哈希匹配位置发生变化的片段 (同一哈希按旧 chunk_index 顺序分配)；
+ * 未匹配的旧片段删除，未匹配的新片段需要生成向量并插入。
+ *
+ * @param reused   复用旧片段的新片段。
+ * @param deleted  需要删除的旧片段 ID。
+ * @param inserted 需要插入的新片段位置 (即新的 chunk_index)，升序。
+ */
+record ChunkDiff(List<Reuse> reused, List<UUID> deleted, int[] inserted) {
+
+    /**
+     * 已入库的片段。
+     *
+     * @param contentHash 内容哈希 (旧数据未保存哈希时由数据库即时计算)。
+     * @param hashStored  content_hash 列是否已有值。
+     */
+    record ExistingChunk(UUID id, int chunkIndex, byte[] contentHash, String sourceMeta, boolean hashStored) {}
+
+    /**
+     * 位置为 position 的新片段复用旧片段 existing 的行 (正文、向量与分词结果不变)。
+     */
+    record Reuse(int position, ExistingChunk existing) {}
+
+    /**
+     * @param existing  文档当前的片段，按 chunk_index 升序。
+     * @param newHashes 新片段的内容哈希，下标即新的 chunk_index。
+     */
+    static ChunkDiff plan(List<ExistingChunk> existing, List<byte[]> newHashes) {
+        Map<ByteBuffer, List<ExistingChunk>> byHash = new HashMap<>();
+        for (ExistingChunk chunk : existing) {
+            byHash.computeIfAbsent(ByteBuffer.wrap(chunk.contentHash()), k -> new ArrayList<>()).add(chunk);
+        }
+
+        ExistingChunk[] matches = new ExistingChunk[newHashes.size()];
+        // 1. 内容与位置都未变化
+        for (int i = 0; i < matches.length; i++) {
+            List<ExistingChunk> candidates = byHash.get(ByteBuffer.wrap(newHashes.get(i)));
+            if (candidates == null) {
+                continue;
+            }
+            for (Iterator<ExistingChunk> it = candidates.iterator(); it.hasNext(); ) {
+                ExistingChunk candidate = it.next();
+                if (candidate.chunkIndex() == i) {
+                    matches[i] = candidate;
+                    it.remove();
+                    break;
+                }
+            }
+        }
+        // 2. 内容未变、位置移动 (前面插入或删除了片段)
+        for (int i = 0; i < matches.length; i++) {
+            if (matches[i] != null) {
+                continue;
+            }
+            List<ExistingChunk> candidates = byHash.get(ByteBuffer.wrap(newHashes.get(i)));
+            if (candidates != null && !candidates.isEmpty()) {
+                matches[i] = candidates.removeFirst();
+            }
+        }
+
+        List<Reuse> reused = new ArrayList<>();
+        int[] inserted = new int[matches.length];
+        int insertedCount = 0;
+        for (int i = 0; i < matches.length; i++) {
+            if (matches[i] != null) {
+                reused.add(new Reuse(i, matches[i]));
+            } else {
+                inserted[insertedCount++] = i;
+            }
+        }
+        List<UUID> deleted = byHash.values().stream()
+                .flatMap(List::stream)
+                .map(ExistingChunk::id)
+                .toList();
+        return new ChunkDiff(reused, deleted, Arrays.copyOf(inserted, insertedCount));
+    }
+}
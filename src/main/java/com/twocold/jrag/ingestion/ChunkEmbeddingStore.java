@@ -0,0 +1,123 @@
+package com.twocold.jrag.ingestion;
+
+import com.pgvector.PGvector;
+import com.twocold.jrag.config.RagProperties;
+import com.twocold.jrag.utils.ContentHash;
+import com.twocold.jrag.utils.PgVectorCodec;
+import com.twocold.jrag.utils.SqlArrayUtils;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * 内容寻址的片段向量存储 (embedding_cache 表)。
+ * 键为「清洗后片段文本的 SHA-256 + 向量模型名称」：多个用户上传同一份文件、或重新上传略有修改的版本时，
+ * 未变化的片段直接复用已生成的向量，只有未命中的片段才合并为一次 embedAll 调用。
+ * 入库流水线在嵌入线程 (不绑定事务) 上调用，写入随即自动提交：即使本次入库失败，已付费生成的向量也会保留。
+ */
+@Slf4j
+@Component
+public class ChunkEmbeddingStore {
+
+    private static final String LOOKUP_SQL = """
+            SELECT content_hash, vector_send(embedding) AS embedding
+            FROM embedding_cache
+            WHERE model_name = ? AND content_hash = ANY(?)
+            """;
+
+    private static final String INSERT_SQL = """
+            INSERT INTO embedding_cache (content_hash, model_name, embedding)
+            VALUES (?, ?, ?)
+            ON CONFLICT DO NOTHING
+            """;
+
+    private final EmbeddingModel embeddingModel;
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean enabled;
+    private final Counter hits;
+    private final Counter misses;
+
+    public ChunkEmbeddingStore(EmbeddingModel embeddingModel, JdbcTemplate jdbcTemplate, RagProperties ragProperties,
+                               MeterRegistry meterRegistry) {
+        this.embeddingModel = embeddingModel;
+        this.jdbcTemplate = jdbcTemplate;
+        this.enabled = ragProperties.ingestion().embeddingCacheEnabled();
+        this.hits = Counter.builder("rag.ingestion.embedding_cache.lookups").tag("result", "hit")
+                .description("入库片段向量缓存查询次数").register(meterRegistry);
+        this.misses = Counter.builder("rag.ingestion.embedding_cache.lookups").tag("result", "miss")
+                .description("入库片段向量缓存查询次数").register(meterRegistry);
+    }
+
+    /**
+     * 获取一批片段的向量：先批量查询已存储的向量，未命中的 (批内去重后) 交给向量模型并写回存储。
+     *
+     * @param segments      清洗后的片段。
+     * @param contentHashes 与 segments 一一对应的内容哈希，见 {@link ContentHash}。
+     * @return 与输入顺序一致的向量。
+     */
+    public List<float[]> embedAll(List<TextSegment> segments, List<byte[]> contentHashes) {
+        if (!enabled) {
+            return embeddingModel.embedAll(segments).content().stream().map(Embedding::vector).toList();
+        }
+
+        String modelName = embeddingModel.modelName();
+        List<ByteBuffer> keys = contentHashes.stream().map(ByteBuffer::wrap).toList();
+        Map<ByteBuffer, float[]> vectors = lookup(modelName, new LinkedHashSet<>(keys));
+
+        Map<ByteBuffer, TextSegment> missing = new LinkedHashMap<>();
+        for (int i = 0; i < segments.size(); i++) {
+            if (!vectors.containsKey(keys.get(i))) {
+                missing.putIfAbsent(keys.get(i), segments.get(i));
+            }
+        }
+        hits.increment(segments.size() - missing.size());
+        misses.increment(missing.size());
+
+        if (!missing.isEmpty()) {
+            List<Embedding> embeddings = embeddingModel.embedAll(new ArrayList<>(missing.values())).content();
+            List<ByteBuffer> missingKeys = new ArrayList<>(missing.keySet());
+            for (int i = 0; i < missingKeys.size(); i++) {
+                vectors.put(missingKeys.get(i), embeddings.get(i).vector());
+            }
+            store(modelName, missingKeys, vectors);
+        }
+        log.debug("片段向量缓存：{} 个片段，命中 {} 个，新生成 {} 个",
+                segments.size(), segments.size() - missing.size(), missing.size());
+
+        return keys.stream().map(vectors::get).toList();
+    }
+
+    private Map<ByteBuffer, float[]> lookup(String modelName, Collection<ByteBuffer> keys) {
+        Map<ByteBuffer, float[]> vectors = new HashMap<>();
+        try {
+            jdbcTemplate.query(LOOKUP_SQL, (RowCallbackHandler) rs -> vectors.put(
+                            ByteBuffer.wrap(rs.getBytes("content_hash")), PgVectorCodec.decode(rs.getBytes("embedding"))),
+                    modelName, SqlArrayUtils.byteaArray(keys.stream().map(ByteBuffer::array).toList()));
+        } catch (DataAccessException e) {
+            log.warn("查询片段向量缓存失败，全部重新生成：{}", e.getMessage());
+        }
+        return vectors;
+    }
+
+    private void store(String modelName, List<ByteBuffer> keys, Map<ByteBuffer, float[]> vectors) {
+        try {
+            jdbcTemplate.batchUpdate(INSERT_SQL, keys, keys.size(), (ps, key) -> {
+                ps.setBytes(1, key.array());
+                ps.setString(2, modelName);
+                ps.setObject(3, new PGvector(vectors.get(key)));
+            });
+        } catch (DataAccessException e) {
+            log.warn("写入片段向量缓存失败：{}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.twocold.jrag.ingestion;
+
+import java.time.OffsetDateTime;
+import java.util.UUID;
+
+/**
+ * 待写入 chunks 表的一行。
+ *
+ * @param content         片段正文 (已去除 NUL 字符)。
+ * @param vector          完整精度的嵌入向量。
+ * @param sourceMeta      元数据 JSON。
+ * @param contentKeywords 以空格分隔的分词结果。
+ * @param contentHash     content 的 SHA-256，见 {@link com.twocold.jrag.utils.ContentHash}。
+ */
+public record ChunkRow(
+        UUID id,
+        UUID documentId,
+        String content,
+        float[] vector,
+        int chunkIndex,
+        String sourceMeta,
+        String chunkerName,
+        String contentKeywords,
+        OffsetDateTime createdAt,
+        byte[] contentHash) {
+}
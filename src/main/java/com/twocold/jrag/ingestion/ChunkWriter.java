@@ -0,0 +1,289 @@
+package com.twocold.jrag.ingestion;
+
+import com.pgvector.PGvector;
+import com.twocold.jrag.config.RagProperties;
+import com.twocold.jrag.service.vector.VectorStorageMode;
+import com.twocold.jrag.utils.MmrUtils;
+import com.twocold.jrag.utils.PgVectorCodec;
+import com.twocold.jrag.utils.SqlArrayUtils;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.time.OffsetDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * chunks 表的批量写入。
+ * 默认使用 batchUpdate (每行一个 PreparedStatement 参数组)；app.rag.ingestion.write-mode=copy 时改为通过 pgjdbc 的
+ * CopyManager 以 COPY ... (FORMAT binary) 流式写入，省去逐行的协议往返与 PGvector / jsonb 的文本解析，适合大批量回填。
+ * COPY 在保存点内执行，失败时回滚到保存点并改用 batchUpdate，事务中已写入的其他批次不受影响。
+ * 派生向量列 (halfvec / Matryoshka 前缀) 在 COPY 路径中由 Java 计算，结果与 {@link VectorStorageMode#derivedExpression} 一致。
+ */
+@Slf4j
+@Component
+public class ChunkWriter {
+
+    private static final String COLUMNS =
+            "id, document_id, content, content_vector, chunk_index, source_meta, chunker_name, content_keywords, created_at, content_hash";
+
+    private static final String DELETE_SQL = "DELETE FROM chunks WHERE document_id = ? AND id = ANY(?)";
+
+    private static final String DELETE_AFTER_SQL = "DELETE FROM chunks WHERE document_id = ? AND chunk_index > ?";
+
+    private static final String MOVE_SQL =
+            "UPDATE chunks SET chunk_index = ?, source_meta = ?::jsonb, content_hash = ? WHERE document_id = ? AND id = ?";
+
+    // COPY BINARY 文件头：签名 + int32 标志位 + int32 扩展区长度
+    private static final byte[] COPY_SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0};
+
+    // timestamptz 的二进制格式为自 2000-01-01 00:00:00 UTC 起的微秒数
+    private static final long POSTGRES_EPOCH_SECONDS = 946_684_800L;
+
+    private static final int MATRYOSHKA_DIMENSIONS = 256;
+
+    private static final int COPY_BUFFER_BYTES = 64 * 1024;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final DataSource dataSource;
+    private final VectorStorageMode storageMode;
+    private final boolean copyEnabled;
+    private final String insertSql;
+    private final String copySql;
+    private final Timer copyTimer;
+    private final Timer batchTimer;
+
+    public ChunkWriter(JdbcTemplate jdbcTemplate, DataSource dataSource, RagProperties ragProperties,
+                       MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.dataSource = dataSource;
+        this.storageMode = VectorStorageMode.of(ragProperties.retrieval().vectorStorage().mode());
+        this.copyEnabled = "copy".equalsIgnoreCase(ragProperties.ingestion().writeMode());
+
+        // 存储模式带派生列 (如 halfvec) 时，batchUpdate 由数据库从同一个向量参数计算派生表示
+        String derivedColumn = storageMode.derivedColumn();
+        this.insertSql = derivedColumn == null
+                ? "INSERT INTO chunks(" + COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?::jsonb, ?, ?, ?, ?)"
+                : "INSERT INTO chunks(" + COLUMNS + ", " + derivedColumn + ") VALUES (?, ?, ?, ?, ?, ?::jsonb, ?, ?, ?, ?, "
+                        + storageMode.derivedExpression("?") + ")";
+        this.copySql = "COPY chunks(" + COLUMNS + (derivedColumn != null ? ", " + derivedColumn : "")
+                + ") FROM STDIN (FORMAT binary)";
+
+        this.copyTimer = Timer.builder("rag.ingestion.chunk_write").tag("path", "copy")
+                .description("片段批量写入耗时").register(meterRegistry);
+        this.batchTimer = Timer.builder("rag.ingestion.chunk_write").tag("path", "batch")
+                .description("片段批量写入耗时").register(meterRegistry);
+    }
+
+    /**
+     * 写入一批片段。须在事务内调用 (COPY 路径依赖保存点回退)。
+     */
+    public void write(List<ChunkRow> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        if (copyEnabled && copy(rows)) {
+            return;
+        }
+        batchInsert(rows);
+    }
+
+    /**
+     * 删除文档的指定片段。
+     */
+    public int delete(UUID documentId, List<UUID> chunkIds) {
+        if (chunkIds.isEmpty()) {
+            return 0;
+        }
+        return jdbcTemplate.update(DELETE_SQL, documentId, SqlArrayUtils.uuidArray(chunkIds));
+    }
+
+    /**
+     * 删除文档中 chunk_index 大于 chunkIndex 的片段 (-1 表示全部删除)。
+     */
+    public int deleteAfter(UUID documentId, int chunkIndex) {
+        return jdbcTemplate.update(DELETE_AFTER_SQL, documentId, chunkIndex);
+    }
+
+    /**
+     * 更新保留片段的位置与元数据 (正文、向量与分词结果不变)。
+     */
+    public void move(UUID documentId, List<ChunkMove> moves) {
+        if (moves.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate(MOVE_SQL, moves, moves.size(), (ps, move) -> {
+            ps.setInt(1, move.chunkIndex());
+            ps.setString(2, move.sourceMeta());
+            ps.setBytes(3, move.contentHash());
+            ps.setObject(4, documentId);
+            ps.setObject(5, move.id());
+        });
+    }
+
+    /**
+     * 保留片段的新位置与元数据。
+     */
+    public record ChunkMove(UUID id, int chunkIndex, String sourceMeta, byte[] contentHash) {}
+
+    private boolean copy(List<ChunkRow> rows) {
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+        try {
+            if (connection.getAutoCommit()) {
+                // 没有事务就没有保存点：COPY 失败时无法安全回退，直接使用 batchUpdate
+                log.warn("当前不在事务中，跳过 COPY 写入");
+                return false;
+            }
+            Savepoint savepoint = connection.setSavepoint();
+            long start = System.nanoTime();
+            try {
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                try (DataOutputStream out = new DataOutputStream(
+                        new PGCopyOutputStream(pgConnection, copySql, COPY_BUFFER_BYTES))) {
+                    out.write(COPY_SIGNATURE);
+                    out.writeInt(0);
+                    out.writeInt(0);
+                    for (ChunkRow row : rows) {
+                        writeRow(out, row);
+                    }
+                    out.writeShort(-1);
+                }
+                connection.releaseSavepoint(savepoint);
+            } catch (SQLException | IOException e) {
+                log.warn("COPY 写入 {} 个片段失败，回退为批量 INSERT：{}", rows.size(), e.getMessage());
+                connection.rollback(savepoint);
+                return false;
+            }
+            long elapsed = System.nanoTime() - start;
+            copyTimer.record(elapsed, TimeUnit.NANOSECONDS);
+            log.debug("COPY 写入 {} 个片段，{} 行/秒", rows.size(), rowsPerSecond(rows.size(), elapsed));
+            return true;
+        } catch (SQLException e) {
+            throw new IllegalStateException("COPY 保存点操作失败", e);
+        } finally {
+            DataSourceUtils.releaseConnection(connection, dataSource);
+        }
+    }
+
+    private void writeRow(DataOutputStream out, ChunkRow row) throws IOException {
+        byte[] derived = derivedVector(row.vector());
+        out.writeShort(derived != null ? 11 : 10);
+        writeUuid(out, row.id());
+        writeUuid(out, row.documentId());
+        writeText(out, row.content());
+        writeBytes(out, PgVectorCodec.encode(row.vector()));
+        out.writeInt(Integer.BYTES);
+        out.writeInt(row.chunkIndex());
+        writeJsonb(out, row.sourceMeta());
+        writeText(out, row.chunkerName());
+        writeText(out, row.contentKeywords());
+        writeTimestamptz(out, row.createdAt());
+        writeBytes(out, row.contentHash());
+        if (derived != null) {
+            writeBytes(out, derived);
+        }
+    }
+
+    /**
+     * 与 {@link VectorStorageMode#derivedExpression} 等价的 Java 计算。
+     */
+    private byte[] derivedVector(float[] vector) {
+        return switch (storageMode) {
+            case HALF -> PgVectorCodec.encodeHalf(vector);
+            case MATRYOSHKA -> PgVectorCodec.encode(
+                    MmrUtils.normalize(Arrays.copyOf(vector, Math.min(vector.length, MATRYOSHKA_DIMENSIONS))));
+            case FULL, BINARY -> null;
+        };
+    }
+
+    private static void writeUuid(DataOutputStream out, UUID value) throws IOException {
+        out.writeInt(16);
+        out.writeLong(value.getMostSignificantBits());
+        out.writeLong(value.getLeastSignificantBits());
+    }
+
+    private static void writeText(DataOutputStream out, String value) throws IOException {
+        writeBytes(out, value != null ? value.getBytes(StandardCharsets.UTF_8) : null);
+    }
+
+    private static void writeJsonb(DataOutputStream out, String json) throws IOException {
+        if (json == null) {
+            out.writeInt(-1);
+            return;
+        }
+        // jsonb 二进制格式：1 字节版本号 (1) + JSON 文本
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length + 1);
+        out.writeByte(1);
+        out.write(bytes);
+    }
+
+    private static void writeTimestamptz(DataOutputStream out, OffsetDateTime value) throws IOException {
+        out.writeInt(Long.BYTES);
+        long seconds = value.toEpochSecond() - POSTGRES_EPOCH_SECONDS;
+        out.writeLong(seconds * 1_000_000L + value.getNano() / 1_000);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private void batchInsert(List<ChunkRow> rows) {
+        boolean writeDerivedVector = storageMode.derivedColumn() != null;
+        long start = System.nanoTime();
+        jdbcTemplate.batchUpdate(insertSql, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                ChunkRow row = rows.get(i);
+                PGvector vector = new PGvector(row.vector());
+                ps.setObject(1, row.id());
+                ps.setObject(2, row.documentId());
+                ps.setString(3, row.content());
+                ps.setObject(4, vector);
+                ps.setInt(5, row.chunkIndex());
+                ps.setString(6, row.sourceMeta());
+                ps.setString(7, row.chunkerName());
+                ps.setString(8, row.contentKeywords());
+                ps.setObject(9, row.createdAt());
+                ps.setBytes(10, row.contentHash());
+                if (writeDerivedVector) {
+                    ps.setObject(11, vector);
+                }
+            }
+
+            @Override
+            public int getBatchSize() {
+                return rows.size();
+            }
+        });
+        long elapsed = System.nanoTime() - start;
+        batchTimer.record(elapsed, TimeUnit.NANOSECONDS);
+        log.debug("批量 INSERT 写入 {} 个片段，{} 行/秒", rows.size(), rowsPerSecond(rows.size(), elapsed));
+    }
+
+    private static long rowsPerSecond(int rows, long elapsedNanos) {
+        return elapsedNanos > 0 ? rows * 1_000_000_000L / elapsedNanos : rows;
+    }
+}
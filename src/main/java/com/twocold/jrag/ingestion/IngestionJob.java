@@ -0,0 +1,28 @@
+package com.twocold.jrag.ingestion;
+
+import java.util.UUID;
+
+/**
+ * ingestion_jobs 表中被认领的任务。
+ *
+ * @param fileName       上传文件名 (用于按扩展名选择 Chunker；更新任务同时作为新的文档名)。
+ * @param lastChunkIndex 已提交的最大 chunk_index (检查点)，-1 表示尚未提交任何批次。
+ * @param attempts       包括本次在内的尝试次数。
+ */
+public record IngestionJob(
+        UUID id,
+        UUID documentId,
+        Type type,
+        Long userId,
+        String fileName,
+        Long fileSize,
+        int lastChunkIndex,
+        int attempts) {
+
+    public enum Type {
+        /** 新文档入库，按批次提交并记录检查点 */
+        INGEST,
+        /** 已有文档的增量更新，整体在一个事务中完成 */
+        REINGEST
+    }
+}
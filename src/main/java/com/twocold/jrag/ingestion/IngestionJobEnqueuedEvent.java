@@ -0,0 +1,11 @@
+package com.twocold.jrag.ingestion;
+
+import java.util.UUID;
+
+/**
+ * 入库任务写入 ingestion_jobs 后发布的事件，用于立即唤醒本实例的工作线程 (其他实例依靠轮询)。
+ *
+ * @param jobId 新任务的 ID。
+ */
+public record IngestionJobEnqueuedEvent(UUID jobId) {
+}
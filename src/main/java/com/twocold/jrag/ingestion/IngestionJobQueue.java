@@ -0,0 +1,216 @@
+package com.twocold.jrag.ingestion;
+
+import com.twocold.jrag.config.RagProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * 基于 PostgreSQL 的入库任务队列 (ingestion_jobs 表)。
+ * 工作线程以 FOR UPDATE SKIP LOCKED 认领任务并持有租约 (locked_by + lease_expires_at)；之后对任务行的每次写入都
+ * 带上 locked_by 条件，租约被其他工作线程接管后旧的持有者会收到 {@link LeaseLostException}，其所在事务随之回滚。
+ */
+@Slf4j
+@Component
+public class IngestionJobQueue {
+
+    private static final String JOB_COLUMNS =
+            "id, document_id, job_type, user_id, file_name, file_size, last_chunk_index, attempts";
+
+    private static final String ENQUEUE_SQL = """
+            INSERT INTO ingestion_jobs (id, document_id, job_type, user_id, file_name, file_size, payload)
+            VALUES (?, ?, ?, ?, ?, ?, ?)
+            """;
+
+    // 可认领：排队中且已到重试时间，或运行中但租约已过期 (持有者崩溃或失联)
+    private static final String CLAIM_SQL = """
+            UPDATE ingestion_jobs
+            SET status = 'RUNNING', locked_by = ?, lease_expires_at = now() + make_interval(secs => ?),
+                attempts = attempts + 1, updated_at = now()
+            WHERE id = (
+                SELECT id FROM ingestion_jobs
+                WHERE ((status = 'QUEUED' AND available_at <= now())
+                       OR (status = 'RUNNING' AND lease_expires_at < now()))
+                  AND attempts < ?
+                ORDER BY created_at
+                LIMIT 1
+                FOR UPDATE SKIP LOCKED
+            )
+            RETURNING %s
+            """.formatted(JOB_COLUMNS);
+
+    private static final String PAYLOAD_SQL = "SELECT payload FROM ingestion_jobs WHERE id = ?";
+
+    private static final String RENEW_SQL = """
+            UPDATE ingestion_jobs
+            SET lease_expires_at = now() + make_interval(secs => ?), updated_at = now()
+            WHERE id = ? AND locked_by = ? AND status = 'RUNNING'
+            """;
+
+    private static final String CHECKPOINT_SQL = """
+            UPDATE ingestion_jobs
+            SET last_chunk_index = ?, lease_expires_at = now() + make_interval(secs => ?), updated_at = now()
+            WHERE id = ? AND locked_by = ? AND status = 'RUNNING'
+            """;
+
+    private static final String COMPLETE_SQL = """
+            UPDATE ingestion_jobs
+            SET status = 'COMPLETED', payload = NULL, locked_by = NULL, lease_expires_at = NULL, last_error = NULL,
+                updated_at = now()
+            WHERE id = ? AND locked_by = ? AND status = 'RUNNING'
+            """;
+
+    // 未达到最大尝试次数时重新排队 (延迟随尝试次数线性增加)，否则标记为失败并释放文件内容
+    private static final String FAIL_SQL = """
+            UPDATE ingestion_jobs
+            SET status = CASE WHEN attempts < ? THEN 'QUEUED' ELSE 'FAILED' END,
+                payload = CASE WHEN attempts < ? THEN payload END,
+                available_at = now() + make_interval(secs => ? * attempts),
+                locked_by = NULL, lease_expires_at = NULL, last_error = ?, updated_at = now()
+            WHERE id = ? AND locked_by = ? AND status = 'RUNNING'
+            RETURNING status
+            """;
+
+    // 停机时交还任务，不计入尝试次数
+    private static final String RELEASE_SQL = """
+            UPDATE ingestion_jobs
+            SET status = 'QUEUED', attempts = attempts - 1, locked_by = NULL, lease_expires_at = NULL, updated_at = now()
+            WHERE id = ? AND locked_by = ? AND status = 'RUNNING'
+            """;
+
+    private static final String ABANDON_SQL = """
+            UPDATE ingestion_jobs
+            SET status = 'FAILED', payload = NULL, locked_by = NULL, lease_expires_at = NULL,
+                last_error = '租约过期且已达到最大尝试次数', updated_at = now()
+            WHERE status = 'RUNNING' AND lease_expires_at < now() AND attempts >= ?
+            RETURNING %s
+            """.formatted(JOB_COLUMNS);
+
+    private static final RowMapper<IngestionJob> JOB_MAPPER = (rs, rowNum) -> new IngestionJob(
+            rs.getObject("id", UUID.class),
+            rs.getObject("document_id", UUID.class),
+            IngestionJob.Type.valueOf(rs.getString("job_type")),
+            rs.getLong("user_id"),
+            rs.getString("file_name"),
+            rs.getObject("file_size", Long.class),
+            rs.getInt("last_chunk_index"),
+            rs.getInt("attempts"));
+
+    private final JdbcClient jdbcClient;
+    private final ApplicationEventPublisher eventPublisher;
+    private final RagProperties.Ingestion.Jobs config;
+
+    public IngestionJobQueue(JdbcClient jdbcClient, ApplicationEventPublisher eventPublisher, RagProperties ragProperties) {
+        this.jdbcClient = jdbcClient;
+        this.eventPublisher = eventPublisher;
+        this.config = ragProperties.ingestion().jobs();
+    }
+
+    /**
+     * 写入新任务。文件内容随任务保存，任何实例的工作线程都可以处理。
+     */
+    public UUID enqueue(IngestionJob.Type type, UUID documentId, Long userId, String fileName, Long fileSize,
+                        byte[] payload) {
+        UUID jobId = UUID.randomUUID();
+        jdbcClient.sql(ENQUEUE_SQL)
+                .params(jobId, documentId, type.name(), userId, fileName, fileSize, payload)
+                .update();
+        eventPublisher.publishEvent(new IngestionJobEnqueuedEvent(jobId));
+        log.info("文档 {} 的 {} 任务 {} 已排队", documentId, type, jobId);
+        return jobId;
+    }
+
+    /**
+     * 认领一个任务并取得租约。
+     */
+    public Optional<IngestionJob> claim(String workerId) {
+        return jdbcClient.sql(CLAIM_SQL)
+                .params(workerId, config.leaseSeconds(), config.maxAttempts())
+                .query(JOB_MAPPER)
+                .optional();
+    }
+
+    public byte[] payload(IngestionJob job) {
+        return jdbcClient.sql(PAYLOAD_SQL).param(job.id()).query((rs, rowNum) -> rs.getBytes(1)).optional()
+                .orElse(null);
+    }
+
+    /**
+     * 续约。返回 false 表示租约已被接管或任务已不存在 (文档被删除)。
+     */
+    public boolean renew(IngestionJob job, String workerId) {
+        return jdbcClient.sql(RENEW_SQL).params(config.leaseSeconds(), job.id(), workerId).update() > 0;
+    }
+
+    /**
+     * 记录检查点 (同时续约)。须与对应批次的写入在同一个事务中调用。
+     *
+     * @throws LeaseLostException 租约已被接管或任务已不存在。
+     */
+    public void checkpoint(IngestionJob job, String workerId, int lastChunkIndex) {
+        int updated = jdbcClient.sql(CHECKPOINT_SQL)
+                .params(lastChunkIndex, config.leaseSeconds(), job.id(), workerId)
+                .update();
+        if (updated == 0) {
+            throw new LeaseLostException(job);
+        }
+    }
+
+    /**
+     * 标记任务完成。须与文档的最终状态在同一个事务中调用。
+     *
+     * @throws LeaseLostException 租约已被接管或任务已不存在。
+     */
+    public void complete(IngestionJob job, String workerId) {
+        if (jdbcClient.sql(COMPLETE_SQL).params(job.id(), workerId).update() == 0) {
+            throw new LeaseLostException(job);
+        }
+    }
+
+    /**
+     * 记录失败：未达到最大尝试次数时重新排队。
+     *
+     * @return 是否会重试。
+     * @throws LeaseLostException 租约已被接管或任务已不存在。
+     */
+    public boolean fail(IngestionJob job, String workerId, String errorMessage) {
+        String status = jdbcClient.sql(FAIL_SQL)
+                .params(config.maxAttempts(), config.maxAttempts(), config.retryDelaySeconds(), errorMessage,
+                        job.id(), workerId)
+                .query(String.class)
+                .optional()
+                .orElseThrow(() -> new LeaseLostException(job));
+        return "QUEUED".equals(status);
+    }
+
+    /**
+     * 停机时交还任务，由其他实例或重启后的实例从检查点继续。
+     */
+    public void release(IngestionJob job, String workerId) {
+        jdbcClient.sql(RELEASE_SQL).params(job.id(), workerId).update();
+    }
+
+    /**
+     * 把租约已过期且已用完尝试次数的任务 (持有者反复崩溃) 标记为失败。
+     *
+     * @return 被标记为失败的任务。
+     */
+    public List<IngestionJob> failAbandoned() {
+        return jdbcClient.sql(ABANDON_SQL).param(config.maxAttempts()).query(JOB_MAPPER).list();
+    }
+
+    /**
+     * 任务的租约已被其他工作线程接管，或任务已随文档删除。
+     */
+    public static class LeaseLostException extends RuntimeException {
+        public LeaseLostException(IngestionJob job) {
+            super("入库任务 " + job.id() + " 的租约已失效");
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.twocold.jrag.ingestion;
+
+import com.twocold.jrag.config.RagProperties;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 入库任务的工作线程池。启动后每个实例运行 app.rag.ingestion.jobs.workers 个虚拟线程，
+ * 循环从 {@link IngestionJobQueue} 认领任务交给 {@link IngestionServiceImpl} 处理；处理期间由独立的虚拟线程定期续约。
+ * 任务超过 max-stall-seconds 没有进展时停止续约并中断工作线程，按失败重试，避免卡住的任务永久占用租约。
+ * 停机时中断工作线程 (不再等待进行中的嵌入批次)，把正在处理的任务交还队列，由其他实例或重启后的实例从检查点继续。
+ */
+@Slf4j
+@Component
+public class IngestionJobWorker {
+
+    private final IngestionJobQueue queue;
+    private final IngestionServiceImpl ingestionService;
+    private final RagProperties.Ingestion.Jobs config;
+    private final String instanceId;
+    private final Semaphore wakeups = new Semaphore(0);
+    private final List<Thread> workers = new CopyOnWriteArrayList<>();
+    private volatile boolean running = true;
+
+    public IngestionJobWorker(IngestionJobQueue queue, IngestionServiceImpl ingestionService,
+                              RagProperties ragProperties) {
+        this.queue = queue;
+        this.ingestionService = ingestionService;
+        this.config = ragProperties.ingestion().jobs();
+        // pid@host，加上随机后缀区分同一主机上的重启
+        this.instanceId = ManagementFactory.getRuntimeMXBean().getName() + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        for (int i = 0; i < config.workers(); i++) {
+            String workerId = instanceId + "-" + i;
+            workers.add(Thread.ofVirtual().name("ingestion-worker-" + i).start(() -> run(workerId)));
+        }
+        log.info("入库任务工作线程已启动：{} 个，实例 {}", config.workers(), instanceId);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onJobEnqueued(IngestionJobEnqueuedEvent event) {
+        wakeups.release();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        workers.forEach(Thread::interrupt);
+        // 中断使工作线程不再等待进行中的嵌入批次；等待其交还正在处理的任务 (阻塞在不可中断的调用中时租约到期后由其他实例接管)
+        for (Thread worker : workers) {
+            try {
+                worker.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void run(String workerId) {
+        while (running) {
+            try {
+                Optional<IngestionJob> job = queue.claim(workerId);
+                if (job.isPresent()) {
+                    process(job.get(), workerId);
+                    continue;
+                }
+                for (IngestionJob abandoned : queue.failAbandoned()) {
+                    ingestionService.onJobAbandoned(abandoned);
+                }
+                wakeups.tryAcquire(config.pollIntervalMs(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                log.error("入库任务工作线程 {} 出错", workerId, e);
+                try {
+                    Thread.sleep(config.pollIntervalMs());
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void process(IngestionJob job, String workerId) {
+        log.info("工作线程 {} 认领文档 {} 的 {} 任务 {} (第 {} 次尝试，检查点 {})",
+                workerId, job.documentId(), job.type(), job.id(), job.attempts(), job.lastChunkIndex());
+        Lease lease = new Lease(Thread.currentThread());
+        Thread heartbeat = Thread.ofVirtual().name("ingestion-lease-" + job.id())
+                .start(() -> renewLease(job, workerId, lease));
+        Path file = null;
+        try {
+            file = materialize(job);
+            ingestionService.process(job, workerId, file, lease::progress);
+        } catch (IngestionJobQueue.LeaseLostException e) {
+            log.warn("文档 {} 的入库任务 {} 已被接管或已取消，放弃本次处理", job.documentId(), job.id());
+        } catch (Exception e) {
+            // 清除中断标记，以便交还或记录失败时的数据库操作正常执行
+            Thread.interrupted();
+            if (!running) {
+                log.info("停机中，交还文档 {} 的入库任务 {}", job.documentId(), job.id());
+                queue.release(job, workerId);
+            } else if (lease.stalled()) {
+                ingestionService.onJobFailed(job, workerId, new IllegalStateException(
+                        "处理超过 " + config.maxStallSeconds() + " 秒没有进展", e));
+            } else {
+                ingestionService.onJobFailed(job, workerId, e);
+            }
+        } finally {
+            heartbeat.interrupt();
+            if (lease.finish() && running) {
+                // 停滞中断在处理结束后才送达时，不能让它结束工作线程的循环
+                Thread.interrupted();
+            }
+            if (file != null) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    log.error("删除临时文件 {} 失败: {}", file, e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 把任务中保存的文件写到临时文件 (Chunker 按路径读取，并按扩展名选择)。
+     */
+    private Path materialize(IngestionJob job) throws IOException {
+        byte[] payload = queue.payload(job);
+        if (payload == null) {
+            throw new IllegalStateException("入库任务缺少文件内容");
+        }
+        // 文件名来自用户上传，只取其扩展名 (分块器按扩展名选择)，避免路径分隔符或超长名称进入临时路径
+        Path file = Files.createTempFile("ingest-", extension(job.fileName()));
+        Files.write(file, payload);
+        return file;
+    }
+
+    /**
+     * 最后一个路径分隔符之后的扩展名 (含点号)，只保留字母与数字；没有扩展名时返回 null (临时文件使用默认后缀)。
+     */
+    static String extension(String fileName) {
+        if (fileName == null) {
+            return null;
+        }
+        String name = fileName.substring(Math.max(fileName.lastIndexOf('/'), fileName.lastIndexOf('\\')) + 1);
+        int dot = name.lastIndexOf('.');
+        if (dot < 0) {
+            return null;
+        }
+        String extension = name.substring(dot + 1).replaceAll("[^A-Za-z0-9]", "");
+        if (extension.isEmpty() || extension.length() > 16) {
+            return null;
+        }
+        return "." + extension;
+    }
+
+    private void renewLease(IngestionJob job, String workerId, Lease lease) {
+        long interval = TimeUnit.SECONDS.toMillis(config.leaseSeconds()) / 3;
+        long maxStallNanos = TimeUnit.SECONDS.toNanos(config.maxStallSeconds());
+        while (true) {
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                return; // 任务结束
+            }
+            if (System.nanoTime() - lease.lastProgressNanos > maxStallNanos) {
+                log.error("文档 {} 的入库任务 {} 超过 {} 秒没有进展，停止续约并中断处理",
+                        job.documentId(), job.id(), config.maxStallSeconds());
+                lease.stall();
+                return;
+            }
+            try {
+                if (!queue.renew(job, workerId)) {
+                    // 检查点或完成时会因租约失效而回滚
+                    log.warn("文档 {} 的入库任务 {} 续约失败，租约已被接管或任务已取消", job.documentId(), job.id());
+                    return;
+                }
+            } catch (Exception e) {
+                log.error("文档 {} 的入库任务 {} 续约出错，稍后重试", job.documentId(), job.id(), e);
+            }
+        }
+    }
+
+    /**
+     * 一次处理的续约状态：记录最近一次进展，并保证停滞中断只发给仍在处理该任务的工作线程。
+     */
+    private static final class Lease {
+        private final Thread worker;
+        private volatile long lastProgressNanos = System.nanoTime();
+        private boolean stalled;
+        private boolean finished;
+
+        Lease(Thread worker) {
+            this.worker = worker;
+        }
+
+        void progress() {
+            lastProgressNanos = System.nanoTime();
+        }
+
+        synchronized void stall() {
+            if (!finished) {
+                stalled = true;
+                worker.interrupt();
+            }
+        }
+
+        synchronized boolean stalled() {
+            return stalled;
+        }
+
+        /**
+         * @return 是否曾因停滞中断过工作线程。
+         */
+        synchronized boolean finish() {
+            finished = true;
+            return stalled;
+        }
+    }
+}
@@ -6,11 +6,24 @@ import java.nio.file.Path;
 
 public interface IngestionService {
     /**
-     * 启动文档的异步解析入库过程。
+     * 启动文档的异步解析入库过程：文件随任务写入 ingestion_jobs 队列后即返回，由 {@link IngestionJobWorker} 处理。
+     * 任务按批次记录检查点，实例重启或崩溃后由任意实例从检查点继续。调用后临时文件会被删除。
      *
      * @param documentId 要解析的文档的 UUID。
      * @param tempFilePath 文档的临时文件路径。
      * @param userId 上传文件的用户 ID。
      */
     void startIngestion(UUID documentId, Path tempFilePath, Long userId, boolean isPublic);
+
+    /**
+     * 用新文件异步更新已入库文档的内容。按内容哈希与已有片段比对，只为变化的片段生成向量并写入，
+     * 未变化的片段保留原有的行；整个更新在一个事务中完成，失败时保留原有内容。与入库一样经由任务队列执行。
+     *
+     * @param documentId 要更新的文档的 UUID。
+     * @param tempFilePath 新文件的临时文件路径。
+     * @param userId 发起更新的用户 ID。
+     * @param fileName 新的文件名。
+     * @param fileSize 新文件的大小。
+     */
+    void startReingestion(UUID documentId, Path tempFilePath, Long userId, String fileName, Long fileSize);
 }
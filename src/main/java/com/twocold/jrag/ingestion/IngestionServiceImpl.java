@@ -1,43 +1,43 @@
 package com.twocold.jrag.ingestion;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.twocold.jrag.ingestion.ChunkDiff.ExistingChunk;
+import com.twocold.jrag.config.RagProperties;
 import com.twocold.jrag.domain.DocumentStatus;
-import com.huaban.analysis.jieba.JiebaSegmenter;
-import com.huaban.analysis.jieba.SegToken;
 import com.twocold.jrag.ingestion.chunker.DocumentChunker;
 import com.twocold.jrag.ingestion.chunker.DocumentChunkerFactory;
+import com.twocold.jrag.service.DocumentChangedEvent;
 import com.twocold.jrag.service.DocumentService;
+import com.twocold.jrag.service.tokenizer.Tokenizer;
+import com.twocold.jrag.utils.ContentHash;
 import com.twocold.jrag.api.dto.DocumentUpdateMessage;
-import com.pgvector.PGvector;
 import dev.langchain4j.data.segment.TextSegment;
-import dev.langchain4j.data.embedding.Embedding;
-import dev.langchain4j.model.embedding.EmbeddingModel;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.jdbc.core.simple.JdbcClient;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.OffsetDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
-import jakarta.annotation.PostConstruct;
-import org.springframework.core.io.ClassPathResource;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
-import java.util.HashSet;
-import java.util.Set;
 
 @Slf4j
 @Service
@@ -45,132 +45,348 @@ import java.util.Set;
 public class IngestionServiceImpl implements IngestionService {
 
     private final JdbcClient jdbcClient;
-    private final org.springframework.jdbc.core.JdbcTemplate jdbcTemplate;
-    private final EmbeddingModel embeddingModel;
+    private final ChunkEmbeddingStore chunkEmbeddingStore;
     private final DocumentService documentService;
     private final SimpMessagingTemplate messagingTemplate;
     private final DocumentChunkerFactory chunkerFactory;
     private final ObjectMapper objectMapper;
-    private final JiebaSegmenter jiebaSegmenter = new JiebaSegmenter();
-    private final Set<String> stopWords = new HashSet<>();
+    private final ApplicationEventPublisher eventPublisher;
+    private final RagProperties ragProperties;
+    private final Tokenizer tokenizer;
+    private final ChunkWriter chunkWriter;
+    private final TransactionTemplate transactionTemplate;
+    private final IngestionJobQueue jobQueue;
+    private final Executor taskExecutor;
 
-    @PostConstruct
-    public void loadStopWords() {
+    private static final List<Pattern> PATTERNS_TO_REMOVE = List.of(
+            Pattern.compile("(?i)^\\s*page\\s+\\d+.*$", Pattern.MULTILINE),
+            Pattern.compile("(?i)^\\s*confidential\\s*$", Pattern.MULTILINE),
+            Pattern.compile("(?i)^\\s*internal use only\\s*$", Pattern.MULTILINE));
+
+    // 旧数据的 content_hash 为空时由数据库即时计算 (与 ContentHash 一致：UTF-8 编码后的 SHA-256)
+    private static final String EXISTING_CHUNKS_SQL = """
+            SELECT id, chunk_index, COALESCE(content_hash, sha256(convert_to(content, 'UTF8'))) AS content_hash,
+                   content_hash IS NOT NULL AS hash_stored, source_meta::text AS source_meta
+            FROM chunks
+            WHERE document_id = ?
+            ORDER BY chunk_index
+            """;
+
+    private static final String CHUNK_HASH_SQL =
+            "SELECT content_hash FROM chunks WHERE document_id = ? AND chunk_index = ?";
+
+    @Override
+    public void startIngestion(UUID documentId, Path tempFilePath, Long userId, boolean isPublic) {
         try {
-            ClassPathResource resource = new ClassPathResource("stopwords.txt");
-            if (resource.exists()) {
-                try (BufferedReader reader = new BufferedReader(new InputStreamReader(resource.getInputStream(), StandardCharsets.UTF_8))) {
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        if (!line.trim().isEmpty()) {
-                            stopWords.add(line.trim());
-                        }
-                    }
-                }
-                log.info("IngestionService: 已加载 {} 个停用词。", stopWords.size());
-            } else {
-                log.error("IngestionService: 未找到 stopwords.txt。");
-            }
-        } catch (Exception e) {
-            log.error("IngestionService: Failed to load stop words", e);
+            enqueue(IngestionJob.Type.INGEST, documentId, tempFilePath, userId, tempFilePath.getFileName().toString(),
+                    null);
+        } catch (RuntimeException e) {
+            log.error("文档 {} 入库任务排队失败: {}", documentId, e.getMessage(), e);
+            documentService.updateDocumentStatusAndProgress(documentId, DocumentStatus.FAILED, 0, "入库任务排队失败");
+            throw e;
         }
     }
 
     @Override
-    @Async
-    @Transactional
-    public void startIngestion(UUID documentId, Path tempFilePath, Long userId, boolean isPublic) {
+    public void startReingestion(UUID documentId, Path tempFilePath, Long userId, String fileName, Long fileSize) {
+        enqueue(IngestionJob.Type.REINGEST, documentId, tempFilePath, userId, fileName, fileSize);
+    }
+
+    private void enqueue(IngestionJob.Type type, UUID documentId, Path tempFilePath, Long userId, String fileName,
+                         Long fileSize) {
         try {
-            documentService.updateDocumentStatusAndProgress(documentId, DocumentStatus.PROCESSING, 0, null);
+            jobQueue.enqueue(type, documentId, userId, fileName, fileSize, Files.readAllBytes(tempFilePath));
+        } catch (IOException e) {
+            throw new UncheckedIOException("读取上传文件失败", e);
+        } finally {
+            try {
+                Files.deleteIfExists(tempFilePath);
+            } catch (IOException e) {
+                log.error("删除临时文件 {} 失败: {}", tempFilePath, e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * 处理一个已认领的任务 (由 {@link IngestionJobWorker} 调用)。成功或确定性的失败 (如未提取到内容) 时在方法内完成任务；
+     * 抛出的异常由工作线程交给 {@link #onJobFailed} 决定重试或失败。
+     *
+     * 等待嵌入批次时响应中断 (停机或任务停滞)，中断后抛出 {@link CancellationException}。
+     *
+     * @param file       任务文件的临时副本。
+     * @param onProgress 切分完成与每个批次提交后调用，供工作线程判断任务是否停滞。
+     */
+    void process(IngestionJob job, String workerId, Path file, Runnable onProgress) {
+        switch (job.type()) {
+            case INGEST -> ingest(job, workerId, file, onProgress);
+            case REINGEST -> reingest(job, workerId, file, onProgress);
+        }
+    }
 
-            // 1. 使用工厂获取合适的 Chunker
-            String filename = tempFilePath.getFileName().toString();
-            DocumentChunker chunker = chunkerFactory.getChunker(filename);
-            
-            // 2. 切分文档 (解析责任下放给 Chunker)
-            List<TextSegment> rawSegments = chunker.chunk(tempFilePath);
+    private void ingest(IngestionJob job, String workerId, Path file, Runnable onProgress) {
+        UUID documentId = job.documentId();
+        Long userId = job.userId();
+        documentService.updateDocumentStatusAndProgress(documentId, DocumentStatus.PROCESSING, 0, null);
 
-            if (rawSegments.isEmpty()) {
-                log.error("文档 {} 未找到任何文本片段", documentId);
+        // 1. 使用工厂获取合适的 Chunker
+        DocumentChunker chunker = chunkerFactory.getChunker(file.getFileName().toString());
+
+        // 2. 切分文档 (解析责任下放给 Chunker)
+        List<TextSegment> rawSegments = chunker.chunk(file);
+        onProgress.run();
+
+        if (rawSegments.isEmpty()) {
+            log.error("文档 {} 未找到任何文本片段", documentId);
+            transactionTemplate.executeWithoutResult(status -> {
                 documentService.updateDocumentStatusAndProgress(documentId, DocumentStatus.FAILED, 0,
                         "未提取到内容");
+                jobQueue.complete(job, workerId);
+            });
+            messagingTemplate.convertAndSendToUser(
+                    userId.toString(),
+                    "/queue/document-updates",
+                    new DocumentUpdateMessage(documentId, DocumentStatus.FAILED, 0, "未提取到内容"));
+            return;
+        }
+
+        // 3. 清洗 Segment 内容
+        List<TextSegment> segments = cleanSegments(rawSegments);
+
+        if (segments.isEmpty()) {
+            log.error("清洗后文档 {} 的所有片段均被过滤掉", documentId);
+            transactionTemplate.executeWithoutResult(status -> {
+                documentService.updateDocumentStatusAndProgress(documentId, DocumentStatus.FAILED, 0,
+                        "清洗后没有剩余内容");
+                jobQueue.complete(job, workerId);
+            });
+            return;
+        }
+
+        // 4. 生成向量并落库：每个批次与检查点在同一个事务中提交，任务被接管或重试时从检查点继续
+        int startAt = resumePoint(job, segments);
+        runPipeline(documentId, userId, chunker.getClass().getSimpleName(), segments, null, startAt,
+                (write, lastChunkIndex) -> {
+                    transactionTemplate.executeWithoutResult(status -> {
+                        write.run();
+                        jobQueue.checkpoint(job, workerId, lastChunkIndex);
+                    });
+                    onProgress.run();
+                });
+
+        transactionTemplate.executeWithoutResult(status -> {
+            documentService.updateDocumentStatusAndProgress(documentId, DocumentStatus.COMPLETED, 100, null);
+            jobQueue.complete(job, workerId);
+            eventPublisher.publishEvent(new DocumentChangedEvent(documentId, false));
+        });
+        messagingTemplate.convertAndSendToUser(
+                userId.toString(),
+                "/queue/document-updates",
+                new DocumentUpdateMessage(documentId, DocumentStatus.COMPLETED, 100, null));
+    }
+
+    private void reingest(IngestionJob job, String workerId, Path file, Runnable onProgress) {
+        UUID documentId = job.documentId();
+        Long userId = job.userId();
+        documentService.updateDocumentStatusAndProgress(documentId, DocumentStatus.PROCESSING, 0, null);
+        messagingTemplate.convertAndSendToUser(
+                userId.toString(),
+                "/queue/document-updates",
+                new DocumentUpdateMessage(documentId, DocumentStatus.PROCESSING, 0, null));
+
+        DocumentChunker chunker = chunkerFactory.getChunker(file.getFileName().toString());
+        List<TextSegment> segments = cleanSegments(chunker.chunk(file));
+        if (segments.isEmpty()) {
+            throw new IllegalStateException("新文件未提取到内容");
+        }
+        onProgress.run();
+
+        // 比对与生成向量在事务外完成 (嵌入缓存使重试时不必重新请求向量)；删除、移动、新增、状态更新与任务完成
+        // 再放进一个短事务：失败时回滚，文档保持更新前的内容，重试时重新比对
+        PlannedUpdate update = planUpdate(documentId, userId, chunker.getClass().getSimpleName(), segments,
+                onProgress);
+        transactionTemplate.executeWithoutResult(status -> {
+            applyUpdate(documentId, update, job.fileName(), job.fileSize());
+            jobQueue.complete(job, workerId);
+        });
+
+        messagingTemplate.convertAndSendToUser(
+                userId.toString(),
+                "/queue/document-updates",
+                new DocumentUpdateMessage(documentId, DocumentStatus.COMPLETED, 100, null));
+    }
+
+    /**
+     * 处理失败：未达到最大尝试次数时重新排队 (已提交的批次保留)，否则按任务类型更新文档状态。
+     */
+    void onJobFailed(IngestionJob job, String workerId, Exception e) {
+        UUID documentId = job.documentId();
+        String errorMessage = describeFailure(e);
+        log.error("文档 {} 的 {} 任务第 {} 次尝试失败: {}", documentId, job.type(), job.attempts(), e.getMessage(), e);
+        try {
+            if (jobQueue.fail(job, workerId, errorMessage)) {
+                String retryMessage = "处理失败，稍后自动重试：" + errorMessage;
+                documentService.updateDocumentStatusAndProgress(documentId, DocumentStatus.PENDING, 0, retryMessage);
                 messagingTemplate.convertAndSendToUser(
-                        userId.toString(),
+                        job.userId().toString(),
                         "/queue/document-updates",
-                        new DocumentUpdateMessage(documentId, DocumentStatus.FAILED, 0, "未提取到内容"));
+                        new DocumentUpdateMessage(documentId, DocumentStatus.PENDING, 0, retryMessage));
                 return;
             }
+        } catch (IngestionJobQueue.LeaseLostException lost) {
+            log.warn("文档 {} 的入库任务 {} 已被接管或已取消", documentId, job.id());
+            return;
+        }
+        markFailed(job, errorMessage);
+    }
+
+    /**
+     * 租约过期且已用完尝试次数的任务 (处理时实例反复崩溃)。
+     */
+    void onJobAbandoned(IngestionJob job) {
+        log.error("文档 {} 的 {} 任务 {} 多次中断，放弃处理", job.documentId(), job.type(), job.id());
+        markFailed(job, "处理多次中断，请重新上传。");
+    }
 
-            // 3. 清洗 Segment 内容
-            List<TextSegment> segments = rawSegments.stream()
-                    .map(this::cleanSegment)
-                    .filter(seg -> !seg.text().isBlank())
-                    .toList();
-            
-            if (segments.isEmpty()) {
-                 log.error("清洗后文档 {} 的所有片段均被过滤掉", documentId);
-                 documentService.updateDocumentStatusAndProgress(documentId, DocumentStatus.FAILED, 0,
-                         "清洗后没有剩余内容");
-                 return;
+    /**
+     * 任务最终失败：首次入库的文档标记为 FAILED 并删除已提交的片段；更新失败时保留原有内容。
+     */
+    private void markFailed(IngestionJob job, String errorMessage) {
+        UUID documentId = job.documentId();
+        DocumentStatus status;
+        int progress;
+        if (job.type() == IngestionJob.Type.REINGEST) {
+            // 更新失败不影响原有内容
+            status = DocumentStatus.COMPLETED;
+            progress = 100;
+            errorMessage = "更新失败，已保留原有内容：" + errorMessage;
+        } else {
+            status = DocumentStatus.FAILED;
+            progress = 0;
+        }
+        String message = errorMessage;
+        transactionTemplate.executeWithoutResult(tx -> {
+            if (job.type() == IngestionJob.Type.INGEST) {
+                // 检查点之前已提交的批次不再续传，删除以免失败文档的片段出现在检索结果中
+                int deleted = chunkWriter.deleteAfter(documentId, -1);
+                if (deleted > 0) {
+                    log.info("文档 {} 入库失败，已删除 {} 个已提交的片段", documentId, deleted);
+                }
             }
+            documentService.updateDocumentStatusAndProgress(documentId, status, progress, message);
+        });
+        messagingTemplate.convertAndSendToUser(
+                job.userId().toString(),
+                "/queue/document-updates",
+                new DocumentUpdateMessage(documentId, status, progress, message));
+    }
 
-            // 4. 批量生成嵌入并存储
-            int totalSegments = segments.size();
-            int batchSize = 20;
-            
-            String insertSql = """
-                        INSERT INTO chunks(id, document_id, content, content_vector, chunk_index, source_meta, chunker_name, content_keywords, created_at)
-                        VALUES (?, ?, ?, ?, ?, ?::jsonb, ?, ?, ?)
-                        """;
-
-            for (int i = 0; i < totalSegments; i += batchSize) {
-                int end = Math.min(i + batchSize, totalSegments);
-                List<TextSegment> batchSegments = segments.subList(i, end);
-                
-                // 4.1 批量生成 Embeddings
-                List<Embedding> batchEmbeddings = embeddingModel.embedAll(batchSegments).content();
-                
-                // 4.2 准备批量插入的数据
-                final int currentBatchStart = i;
-                jdbcTemplate.batchUpdate(insertSql, new BatchPreparedStatementSetter() {
-                    @Override
-                    public void setValues(java.sql.PreparedStatement ps, int j) throws java.sql.SQLException {
-                        TextSegment segment = batchSegments.get(j);
-                        float[] embedding = batchEmbeddings.get(j).vector();
-                        
-                        // 生成关键词
-                        List<SegToken> tokens = jiebaSegmenter.process(segment.text(), JiebaSegmenter.SegMode.SEARCH);
-                        String contentKeywords = tokens.stream()
-                                .map(item -> item.word)
-                                .filter(word -> !stopWords.contains(word))
-                                .collect(Collectors.joining(" "));
-
-                        // 序列化元数据
-                        String metadataJson = "{}";
-                        try {
-                            metadataJson = objectMapper.writeValueAsString(segment.metadata().toMap());
-                        } catch (Exception e) {
-                            log.error("无法为文档 {} 序列化元数据", documentId, e);
-                        }
-
-                        ps.setObject(1, UUID.randomUUID());
-                        ps.setObject(2, documentId);
-                        ps.setString(3, segment.text().replaceAll("\u0000", ""));
-                        ps.setObject(4, new PGvector(embedding));
-                        ps.setInt(5, currentBatchStart + j);
-                        ps.setString(6, metadataJson);
-                        ps.setString(7, chunker.getClass().getSimpleName());
-                        ps.setString(8, contentKeywords);
-                        ps.setObject(9, OffsetDateTime.now());
-                    }
-
-                    @Override
-                    public int getBatchSize() {
-                        return batchSegments.size();
-                    }
-                });
+    /**
+     * 确定从哪个片段继续。检查点处已提交片段的内容哈希与重新切分的结果一致时从其后继续，
+     * 否则 (切分结果发生变化，例如视觉模型输出不同) 清除已提交的片段从头开始。
+     */
+    private int resumePoint(IngestionJob job, List<TextSegment> segments) {
+        UUID documentId = job.documentId();
+        int last = job.lastChunkIndex();
+        if (last >= 0 && last < segments.size()) {
+            byte[] stored = jdbcClient.sql(CHUNK_HASH_SQL)
+                    .params(documentId, last)
+                    .query((rs, rowNum) -> rs.getBytes(1))
+                    .optional()
+                    .orElse(null);
+            if (stored != null && Arrays.equals(stored, ContentHash.sha256(segments.get(last).text()))) {
+                chunkWriter.deleteAfter(documentId, last);
+                log.info("文档 {} 从检查点继续入库：已提交 {}/{} 个片段", documentId, last + 1, segments.size());
+                return last + 1;
+            }
+            log.warn("文档 {} 重新切分的结果与检查点不一致，从头开始入库", documentId);
+        }
+        chunkWriter.deleteAfter(documentId, -1);
+        return 0;
+    }
 
-                // 4.3 更新进度
+    /**
+     * 按内容哈希把新片段与已有片段配对 (见 {@link ChunkDiff})：内容未变的行原样保留，只更新位置或元数据；
+     * 只有新出现的内容需要生成向量并插入。在事务外执行，新增片段的向量在这里全部生成，写入留给 {@link #applyUpdate}。
+     */
+    private PlannedUpdate planUpdate(UUID documentId, Long userId, String chunkerName, List<TextSegment> segments,
+                                     Runnable onProgress) {
+        List<byte[]> hashes = segments.stream().map(segment -> ContentHash.sha256(segment.text())).toList();
+        List<ExistingChunk> existing = jdbcClient.sql(EXISTING_CHUNKS_SQL)
+                .param(documentId)
+                .query((rs, rowNum) -> new ExistingChunk(rs.getObject("id", UUID.class), rs.getInt("chunk_index"),
+                        rs.getBytes("content_hash"), rs.getString("source_meta"), rs.getBoolean("hash_stored")))
+                .list();
+        ChunkDiff diff = ChunkDiff.plan(existing, hashes);
+
+        List<ChunkWriter.ChunkMove> moves = new ArrayList<>();
+        for (ChunkDiff.Reuse reuse : diff.reused()) {
+            int position = reuse.position();
+            ExistingChunk chunk = reuse.existing();
+            String metadataJson = metadataJson(documentId, segments.get(position));
+            if (chunk.chunkIndex() != position || !chunk.hashStored() || !sameJson(chunk.sourceMeta(), metadataJson)) {
+                moves.add(new ChunkWriter.ChunkMove(chunk.id(), position, metadataJson, hashes.get(position)));
+            }
+        }
+
+        // 只有变化的片段需要向量，全部保留在内存中直到事务写入
+        int[] inserted = diff.inserted();
+        List<TextSegment> newSegments = Arrays.stream(inserted).mapToObj(segments::get).toList();
+        List<Runnable> writes = new ArrayList<>();
+        runPipeline(documentId, userId, chunkerName, newSegments, inserted, 0, (write, lastChunkIndex) -> {
+            writes.add(write);
+            onProgress.run();
+        });
+        return new PlannedUpdate(diff, moves, writes);
+    }
+
+    /**
+     * 写入 {@link #planUpdate} 的结果。在事务内执行，不包含任何外部调用。
+     */
+    private void applyUpdate(UUID documentId, PlannedUpdate update, String fileName, Long fileSize) {
+        int deleted = chunkWriter.delete(documentId, update.diff().deleted());
+        chunkWriter.move(documentId, update.moves());
+        update.writes().forEach(Runnable::run);
+
+        documentService.completeDocumentUpdate(documentId, fileName, fileSize);
+        // 事务提交后再刷新文档级缓存与进程内索引
+        eventPublisher.publishEvent(new DocumentChangedEvent(documentId, false));
+        log.info("文档 {} 增量更新完成：保留 {} 个片段 (其中 {} 个更新位置或元数据)，新增 {} 个，删除 {} 个",
+                documentId, update.diff().reused().size(), update.moves().size(), update.diff().inserted().length,
+                deleted);
+    }
+
+    /**
+     * 流水线：最多 maxInFlightBatches 个批次同时在分词与生成嵌入，当前线程按顺序把每个批次交给 committer。
+     * 消费完队首批次后才提交新批次；committer 立即写入时内存中最多保留 maxInFlightBatches 个批次。
+     *
+     * @param chunkIndexes 每个片段的 chunk_index；为 null 时使用片段在列表中的位置。
+     * @param startAt      从该位置开始处理 (之前的片段已提交)。
+     * @param committer    提交每个批次的写入。
+     */
+    private void runPipeline(UUID documentId, Long userId, String chunkerName, List<TextSegment> segments,
+                             int[] chunkIndexes, int startAt, BatchCommitter committer) {
+        int totalSegments = segments.size();
+        RagProperties.Ingestion ingestion = ragProperties.ingestion();
+        int batchSize = ingestion.batchSize();
+
+        Deque<CompletableFuture<EmbeddedBatch>> inFlight = new ArrayDeque<>();
+        int nextBatchStart = startAt;
+        try {
+            while (nextBatchStart < totalSegments || !inFlight.isEmpty()) {
+                while (nextBatchStart < totalSegments && inFlight.size() < ingestion.maxInFlightBatches()) {
+                    int start = nextBatchStart;
+                    List<TextSegment> batchSegments = segments.subList(start, Math.min(start + batchSize, totalSegments));
+                    inFlight.addLast(CompletableFuture.supplyAsync(
+                            () -> embedBatch(documentId, start, batchSegments), taskExecutor));
+                    nextBatchStart += batchSize;
+                }
+
+                EmbeddedBatch batch = await(inFlight.pollFirst());
+                int end = batch.start() + batch.chunks().size();
+                committer.commit(() -> writeBatch(documentId, chunkerName, batch, chunkIndexes),
+                        chunkIndexes != null ? chunkIndexes[end - 1] : end - 1);
+
+                // 更新进度
                 int currentProgress = (int) ((double) end / totalSegments * 100);
                 documentService.updateDocumentStatusAndProgress(documentId, DocumentStatus.PROCESSING,
                         currentProgress, null);
@@ -178,55 +394,117 @@ public class IngestionServiceImpl implements IngestionService {
                         userId.toString(),
                         "/queue/document-updates",
                         new DocumentUpdateMessage(documentId, DocumentStatus.PROCESSING, currentProgress, null));
-                
+
                 log.info("文档 {} 批量处理进度: {}/{} ({}%)", documentId, end, totalSegments, currentProgress);
             }
+        } finally {
+            // 失败时丢弃尚未消费的批次
+            inFlight.forEach(future -> future.cancel(true));
+        }
+    }
 
-            documentService.updateDocumentStatusAndProgress(documentId, DocumentStatus.COMPLETED, 100, null);
-            messagingTemplate.convertAndSendToUser(
-                    userId.toString(),
-                    "/queue/document-updates",
-                    new DocumentUpdateMessage(documentId, DocumentStatus.COMPLETED, 100, null));
+    /**
+     * 流水线的分词与嵌入阶段 (在 taskExecutor 上执行)：为一个批次生成关键词、序列化元数据并获取向量 (优先复用已存储的向量)。
+     */
+    private EmbeddedBatch embedBatch(UUID documentId, int start, List<TextSegment> batchSegments) {
+        List<PreparedChunk> chunks = new ArrayList<>(batchSegments.size());
+        List<byte[]> hashes = new ArrayList<>(batchSegments.size());
+        for (TextSegment segment : batchSegments) {
+            byte[] contentHash = ContentHash.sha256(segment.text());
+            hashes.add(contentHash);
+            chunks.add(new PreparedChunk(segment.text(), metadataJson(documentId, segment),
+                    tokenizer.keywords(segment.text()), contentHash));
+        }
+        List<float[]> embeddings = chunkEmbeddingStore.embedAll(batchSegments, hashes);
+        return new EmbeddedBatch(start, chunks, embeddings);
+    }
 
+    /**
+     * 流水线的写入阶段 (仅在事务线程上执行)。
+     */
+    private void writeBatch(UUID documentId, String chunkerName, EmbeddedBatch batch, int[] chunkIndexes) {
+        OffsetDateTime now = OffsetDateTime.now();
+        List<ChunkRow> rows = new ArrayList<>(batch.chunks().size());
+        for (int j = 0; j < batch.chunks().size(); j++) {
+            PreparedChunk chunk = batch.chunks().get(j);
+            int position = batch.start() + j;
+            rows.add(new ChunkRow(UUID.randomUUID(), documentId, chunk.content(), batch.embeddings().get(j),
+                    chunkIndexes != null ? chunkIndexes[position] : position, chunk.metadataJson(), chunkerName,
+                    chunk.contentKeywords(), now, chunk.contentHash()));
+        }
+        chunkWriter.write(rows);
+    }
+
+    private String metadataJson(UUID documentId, TextSegment segment) {
+        try {
+            return objectMapper.writeValueAsString(segment.metadata().toMap());
         } catch (Exception e) {
-            String errorMessage = e.getMessage();
-            if (e.getCause() instanceof java.io.InterruptedIOException
-                    && e.getCause().getMessage().contains("timeout")) {
-                errorMessage = "AI 服务请求超时，请稍后重试。";
-            } else if (errorMessage != null && (errorMessage.toLowerCase().contains("timeout")
-                    || errorMessage.toLowerCase().contains("interruptedioexception"))) {
-                errorMessage = "AI 服务请求超时，请稍后重试。";
-            } else if (errorMessage == null || errorMessage.trim().isEmpty()) {
-                errorMessage = "未知错误，请联系管理员。";
-            }
+            log.error("无法为文档 {} 序列化元数据", documentId, e);
+            return "{}";
+        }
+    }
 
-            if (errorMessage.length() > 500) {
-                errorMessage = errorMessage.substring(0, 500) + "...";
-            }
+    /**
+     * 按 JSON 结构比较元数据 (jsonb 会重排键并规范空白，不能直接比较字符串)。
+     */
+    private boolean sameJson(String stored, String metadataJson) {
+        try {
+            return stored != null && objectMapper.readTree(stored).equals(objectMapper.readTree(metadataJson));
+        } catch (Exception e) {
+            return false;
+        }
+    }
 
-            log.error("文档 {} 解析入库失败: {}", documentId, e.getMessage(), e);
-            documentService.updateDocumentStatusAndProgress(documentId, DocumentStatus.FAILED, 0, errorMessage);
-            messagingTemplate.convertAndSendToUser(
-                    userId.toString(),
-                    "/queue/document-updates",
-                    new DocumentUpdateMessage(documentId, DocumentStatus.FAILED, 0, errorMessage));
-        } finally {
-            try {
-                Files.deleteIfExists(tempFilePath);
-            } catch (IOException e) {
-                log.error("删除临时文件 {} 失败: {}", tempFilePath, e.getMessage(), e);
+    /**
+     * 转换为展示给用户的错误信息。
+     */
+    private static String describeFailure(Exception e) {
+        String errorMessage = e.getMessage();
+        if (e.getCause() instanceof java.io.InterruptedIOException
+                && e.getCause().getMessage().contains("timeout")) {
+            errorMessage = "AI 服务请求超时，请稍后重试。";
+        } else if (errorMessage != null && (errorMessage.toLowerCase().contains("timeout")
+                || errorMessage.toLowerCase().contains("interruptedioexception"))) {
+            errorMessage = "AI 服务请求超时，请稍后重试。";
+        } else if (errorMessage == null || errorMessage.trim().isEmpty()) {
+            errorMessage = "未知错误，请联系管理员。";
+        }
+
+        if (errorMessage.length() > 500) {
+            errorMessage = errorMessage.substring(0, 500) + "...";
+        }
+        return errorMessage;
+    }
+
+    /**
+     * 等待批次完成，并还原嵌入阶段抛出的原始异常 (便于识别超时等错误)。
+     * 可被中断：工作线程停机或任务停滞时不再等待，未完成的批次由 runPipeline 取消。
+     */
+    private static EmbeddedBatch await(CompletableFuture<EmbeddedBatch> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("入库任务被中断");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
             }
+            throw new CompletionException(e.getCause());
         }
     }
 
-    private TextSegment cleanSegment(TextSegment segment) {
-        String text = segment.text();
-        List<Pattern> patternsToRemove = Arrays.asList(
-                Pattern.compile("(?i)^\\s*page\\s+\\d+.*$", Pattern.MULTILINE),
-                Pattern.compile("(?i)^\\s*confidential\\s*$", Pattern.MULTILINE),
-                Pattern.compile("(?i)^\\s*internal use only\\s*$", Pattern.MULTILINE));
+    private List<TextSegment> cleanSegments(List<TextSegment> rawSegments) {
+        return rawSegments.stream()
+                .map(this::cleanSegment)
+                .filter(seg -> !seg.text().isBlank())
+                .toList();
+    }
 
-        for (Pattern pattern : patternsToRemove) {
+    private TextSegment cleanSegment(TextSegment segment) {
+        // PostgreSQL 的 text 不能包含 NUL；在计算内容哈希之前移除，使哈希与落库内容一致
+        String text = segment.text().replace("\u0000", "");
+        for (Pattern pattern : PATTERNS_TO_REMOVE) {
             text = pattern.matcher(text).replaceAll("");
         }
         return TextSegment.from(text.trim(), segment.metadata());
@@ -234,5 +512,21 @@ public class IngestionServiceImpl implements IngestionService {
 
     // Removed parseDocument and cleanDocument methods
 
+    /**
+     * 提交一个批次的写入；lastChunkIndex 为该批次最后一个片段的 chunk_index。
+     */
+    @FunctionalInterface
+    private interface BatchCommitter {
+        void commit(Runnable write, int lastChunkIndex);
+    }
+
+    private record PreparedChunk(String content, String metadataJson, String contentKeywords, byte[] contentHash) {}
+
+    private record EmbeddedBatch(int start, List<PreparedChunk> chunks, List<float[]> embeddings) {}
+
+    /**
+     * 增量更新的计划：待删除与待移动的已有片段，以及已生成向量、等待在事务中执行的新片段写入。
+     */
+    private record PlannedUpdate(ChunkDiff diff, List<ChunkWriter.ChunkMove> moves, List<Runnable> writes) {}
 
 }
\ No newline at end of file
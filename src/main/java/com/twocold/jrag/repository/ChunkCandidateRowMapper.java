@@ -0,0 +1,29 @@
+package com.twocold.jrag.repository;
+
+import com.twocold.jrag.domain.Chunk;
+import com.twocold.jrag.utils.PgVectorCodec;
+import com.pgvector.PGvector;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.UUID;
+
+/**
+ * 两阶段检索第一阶段 (候选) 的行映射：只读取 id / document_id / content_vector (vector_send 二进制格式，可为 NULL)，
+ * 正文与元数据在第二阶段回表时由 {@link ChunkRowMapper} 映射。
+ */
+public class ChunkCandidateRowMapper implements RowMapper<Chunk> {
+
+    @Override
+    public Chunk mapRow(ResultSet rs, int rowNum) throws SQLException {
+        Chunk chunk = new Chunk();
+        chunk.setId(UUID.fromString(rs.getString("id")));
+        chunk.setDocumentId(UUID.fromString(rs.getString("document_id")));
+        float[] vector = PgVectorCodec.decode(rs.getBytes("content_vector"));
+        if (vector != null) {
+            chunk.setContentVector(new PGvector(vector));
+        }
+        return chunk;
+    }
+}
@@ -2,6 +2,7 @@ package com.twocold.jrag.repository;
 
 import com.twocold.jrag.domain.Chunk;
 import com.pgvector.PGvector;
+import org.springframework.data.jdbc.repository.query.Modifying;
 import org.springframework.data.jdbc.repository.query.Query;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.query.Param;
@@ -33,4 +34,12 @@ public interface ChunkRepository extends CrudRepository<Chunk, UUID> {
             @Param("topK") int topK,
             @Param("documentIds") List<UUID> documentIds
     );
+
+    /**
+     * Deletes all chunks of a document. chunks is hash-partitioned by document_id,
+     * so this only touches the partition that holds the document.
+     */
+    @Modifying
+    @Query("DELETE FROM chunks WHERE document_id = :documentId")
+    void deleteByDocumentId(@Param("documentId") UUID documentId);
 }
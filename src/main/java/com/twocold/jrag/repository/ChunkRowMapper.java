@@ -0,0 +1,36 @@
+package com.twocold.jrag.repository;
+
+import com.twocold.jrag.domain.Chunk;
+import com.twocold.jrag.utils.PgVectorCodec;
+import com.pgvector.PGvector;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.OffsetDateTime;
+import java.util.UUID;
+
+/**
+ * chunks 表的 JDBC 行映射。content_vector 以 vector_send 的二进制格式 (bytea) 读取。
+ * 两阶段检索的候选 (只有 id / document_id / content_vector) 使用 {@link ChunkCandidateRowMapper}。
+ */
+public class ChunkRowMapper implements RowMapper<Chunk> {
+
+    @Override
+    public Chunk mapRow(ResultSet rs, int rowNum) throws SQLException {
+        Chunk chunk = new Chunk();
+        chunk.setId(UUID.fromString(rs.getString("id")));
+        chunk.setDocumentId(UUID.fromString(rs.getString("document_id")));
+        float[] vector = PgVectorCodec.decode(rs.getBytes("content_vector"));
+        if (vector != null) {
+            chunk.setContentVector(new PGvector(vector));
+        }
+        chunk.setContent(rs.getString("content"));
+        chunk.setChunkIndex(rs.getInt("chunk_index"));
+        chunk.setSourceMeta(rs.getString("source_meta"));
+        chunk.setChunkerName(rs.getString("chunker_name"));
+        chunk.setContentKeywords(rs.getString("content_keywords"));
+        chunk.setCreatedAt(rs.getObject("created_at", OffsetDateTime.class));
+        return chunk;
+    }
+}
@@ -1,10 +1,13 @@
 package com.twocold.jrag.repository;
 
 import com.twocold.jrag.domain.Conversation;
+import org.springframework.data.jdbc.repository.query.Modifying;
 import org.springframework.data.jdbc.repository.query.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
@@ -19,4 +22,11 @@ public interface ConversationRepository extends CrudRepository<Conversation, Lon
 
     @Query("SELECT * FROM conversations WHERE user_id = :userId OR (is_public = true AND (allowed_users IS NULL OR allowed_users = '' OR allowed_users LIKE '%' || :username || '%')) ORDER BY updated_at DESC")
     List<Conversation> findAllVisibleConversations(Long userId, String username);
+
+    /**
+     * Only bumps updated_at, so callers that never loaded the full row (e.g. a cached chat turn) cannot overwrite other columns.
+     */
+    @Modifying
+    @Query("UPDATE conversations SET updated_at = :updatedAt WHERE id = :id")
+    void touch(@Param("id") Long id, @Param("updatedAt") LocalDateTime updatedAt);
 }
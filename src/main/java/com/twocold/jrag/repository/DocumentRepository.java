@@ -1,7 +1,10 @@
 package com.twocold.jrag.repository;
 
 import com.twocold.jrag.domain.Document;
+import org.springframework.data.jdbc.repository.query.Modifying;
+import org.springframework.data.jdbc.repository.query.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
@@ -11,4 +14,12 @@ import java.util.UUID;
 public interface DocumentRepository extends CrudRepository<Document, UUID> {
     List<Document> findAllByUserIdOrderByUploadedAtDesc(Long userId);
     List<Document> findAllByUserIdOrIsPublicOrderByUploadedAtDesc(Long userId, boolean isPublic);
+
+    /**
+     * Atomically marks an idle document as PENDING; returns 0 when it is already being ingested or updated.
+     */
+    @Modifying
+    @Query("UPDATE documents SET status = 'PENDING', progress = 0, error_message = NULL "
+            + "WHERE id = :id AND status NOT IN ('PENDING', 'PROCESSING')")
+    int markPendingIfIdle(@Param("id") UUID id);
 }
@@ -0,0 +1,204 @@
+package com.twocold.jrag.service;
+
+import com.twocold.jrag.api.config.Observed;
+import com.twocold.jrag.config.RagProperties;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.output.Response;
+import dev.langchain4j.model.scoring.ScoringModel;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * 跨请求合并的重排序模型包装。
+ * 在 maxWaitMillis 窗口内到达的重排请求会被收集到一起：相同查询的请求合并为一次调用（相同文本只打分一次），
+ * 超过 maxBatchSize 的文档拆分为多次调用，不同查询的调用并行发送，最后把分数拆回各个调用方。
+ * 单个请求在窗口中的等待时间不会超过 maxWaitMillis；等待结果的总时间有上限 (窗口加一次重排 API 调用的超时)，
+ * 超时或合并层关闭时不会无限期阻塞调用方。
+ */
+@Slf4j
+public class CoalescingScoringModel implements ScoringModel, AutoCloseable {
+
+    // 与其他模型调用的超时 (60s) 一致，足以覆盖一次排队后的重排 API 调用
+    private static final Duration RESULT_TIMEOUT = Duration.ofSeconds(60);
+
+    private final ScoringModel delegate;
+    private final long maxWaitNanos;
+    private final int maxBatchSize;
+    private final long resultTimeoutNanos;
+    private final BlockingQueue<PendingRequest> queue = new LinkedBlockingQueue<>();
+    private final ExecutorService dispatchExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Thread collector;
+    private volatile boolean running = true;
+
+    public CoalescingScoringModel(ScoringModel delegate, RagProperties.Retrieval.Rerank.Batching config) {
+        this(delegate, config, RESULT_TIMEOUT);
+    }
+
+    CoalescingScoringModel(ScoringModel delegate, RagProperties.Retrieval.Rerank.Batching config,
+                           Duration resultTimeout) {
+        this.delegate = delegate;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(config.maxWaitMillis());
+        this.maxBatchSize = config.maxBatchSize();
+        this.resultTimeoutNanos = maxWaitNanos + resultTimeout.toNanos();
+        this.collector = Thread.ofVirtual().name("rerank-coalescer").start(this::collectLoop);
+        log.info("重排序请求合并已启用，最大等待 {} 毫秒，单批最多 {} 个文档", config.maxWaitMillis(), maxBatchSize);
+    }
+
+    @Override
+    @Observed(name = "Reranking")
+    public Response<List<Double>> scoreAll(List<TextSegment> segments, String query) {
+        if (segments == null || segments.isEmpty()) {
+            return Response.from(Collections.emptyList());
+        }
+        if (!running) {
+            return delegate.scoreAll(segments, query);
+        }
+
+        PendingRequest request = new PendingRequest(query, segments.stream().map(TextSegment::text).toList());
+        queue.add(request);
+        // close() 可能在上面的检查之后、入队之前排空了队列：能取回请求就直接调用底层模型，否则由 close() 完成
+        if (!running && queue.remove(request)) {
+            return delegate.scoreAll(segments, query);
+        }
+        try {
+            return Response.from(request.result.get(resultTimeoutNanos, TimeUnit.NANOSECONDS));
+        } catch (InterruptedException e) {
+            queue.remove(request);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待重排序结果时被中断", e);
+        } catch (TimeoutException e) {
+            queue.remove(request);
+            throw new IllegalStateException("等待重排序结果超时 (" + TimeUnit.NANOSECONDS.toMillis(resultTimeoutNanos)
+                    + " 毫秒)", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("重排序评分失败", e.getCause());
+        }
+    }
+
+    private void collectLoop() {
+        List<PendingRequest> window = new ArrayList<>();
+        while (running) {
+            try {
+                window = new ArrayList<>();
+                PendingRequest first = queue.take();
+                window.add(first);
+                int documents = first.texts.size();
+
+                // 从第一个请求到达开始计时，窗口最长 maxWaitNanos，文档数达到上限时提前发送
+                long deadline = first.enqueuedAt + maxWaitNanos;
+                while (documents < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    PendingRequest next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    window.add(next);
+                    documents += next.texts.size();
+                }
+                dispatch(window);
+            } catch (InterruptedException e) {
+                // 关闭：窗口中尚未发送的请求放回队列，由 close() 直接调用底层模型完成
+                queue.addAll(window);
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                for (PendingRequest request : window) {
+                    request.result.completeExceptionally(e);
+                }
+                log.error("重排序请求合并失败", e);
+            }
+        }
+    }
+
+    private void dispatch(List<PendingRequest> window) {
+        Map<String, List<PendingRequest>> byQuery = new LinkedHashMap<>();
+        for (PendingRequest request : window) {
+            byQuery.computeIfAbsent(request.query, q -> new ArrayList<>()).add(request);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("合并窗口内共 {} 个重排请求，{} 个不同查询", window.size(), byQuery.size());
+        }
+        byQuery.forEach((query, requests) -> dispatchExecutor.execute(() -> scoreGroup(query, requests)));
+    }
+
+    private void scoreGroup(String query, List<PendingRequest> requests) {
+        try {
+            // 相同查询下的相同文本只打分一次
+            LinkedHashMap<String, Integer> uniqueTexts = new LinkedHashMap<>();
+            for (PendingRequest request : requests) {
+                for (String text : request.texts) {
+                    uniqueTexts.putIfAbsent(text, uniqueTexts.size());
+                }
+            }
+            List<String> texts = new ArrayList<>(uniqueTexts.keySet());
+
+            double[] scores = new double[texts.size()];
+            List<CompletableFuture<Void>> calls = new ArrayList<>();
+            for (int start = 0; start < texts.size(); start += maxBatchSize) {
+                int from = start;
+                int to = Math.min(start + maxBatchSize, texts.size());
+                calls.add(CompletableFuture.runAsync(() -> {
+                    List<TextSegment> segments = texts.subList(from, to).stream().map(TextSegment::from).toList();
+                    List<Double> batchScores = delegate.scoreAll(segments, query).content();
+                    for (int i = 0; i < batchScores.size() && from + i < to; i++) {
+                        scores[from + i] = batchScores.get(i);
+                    }
+                }, dispatchExecutor));
+            }
+            CompletableFuture.allOf(calls.toArray(new CompletableFuture[0])).join();
+
+            for (PendingRequest request : requests) {
+                List<Double> result = new ArrayList<>(request.texts.size());
+                for (String text : request.texts) {
+                    result.add(scores[uniqueTexts.get(text)]);
+                }
+                request.result.complete(result);
+            }
+        } catch (Exception e) {
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            requests.forEach(r -> r.result.completeExceptionally(cause));
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        collector.interrupt();
+        try {
+            // 等收集线程把窗口中的请求放回队列
+            collector.join(Duration.ofSeconds(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        dispatchExecutor.shutdown();
+        // 关闭后仍在队列中的请求直接调用底层模型
+        PendingRequest request;
+        while ((request = queue.poll()) != null) {
+            PendingRequest pending = request;
+            try {
+                pending.result.complete(delegate.scoreAll(
+                        pending.texts.stream().map(TextSegment::from).toList(), pending.query).content());
+            } catch (Exception e) {
+                pending.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static final class PendingRequest {
+        private final String query;
+        private final List<String> texts;
+        private final long enqueuedAt = System.nanoTime();
+        private final CompletableFuture<List<Double>> result = new CompletableFuture<>();
+
+        private PendingRequest(String query, List<String> texts) {
+            this.query = query;
+            this.texts = texts;
+        }
+    }
+}
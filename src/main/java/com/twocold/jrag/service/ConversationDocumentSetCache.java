@@ -0,0 +1,139 @@
+package com.twocold.jrag.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.twocold.jrag.config.RagProperties;
+import com.twocold.jrag.domain.Conversation;
+import com.twocold.jrag.repository.ConversationRepository;
+import com.twocold.jrag.utils.DocumentSetFingerprint;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对话 → 文档集合解析缓存。
+ * 每轮对话都需要对话的所有者、父对话以及 (自身 + 父对话) 关联的文档集合，命中缓存时省去两次数据库往返。
+ * 文档集合以排序去重的 UUID 数组保存，并附带指纹，可直接作为下游检索缓存的稳定键。
+ * 对话的文档变化与文档删除在事务提交后失效相关条目 (子对话随父对话一起失效)；多实例部署下其他实例依赖过期时间收敛。
+ */
+@Slf4j
+@Component
+public class ConversationDocumentSetCache {
+
+    private static final String DOCUMENT_IDS_SQL =
+            "SELECT DISTINCT document_id FROM conversation_documents WHERE conversation_id = ? OR conversation_id = ?";
+
+    private final ConversationRepository conversationRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final Cache<Long, ConversationDocumentSet> cache;
+    private final Counter hits;
+    private final Counter misses;
+
+    public ConversationDocumentSetCache(ConversationRepository conversationRepository, JdbcTemplate jdbcTemplate,
+                                        RagProperties ragProperties, MeterRegistry meterRegistry) {
+        this.conversationRepository = conversationRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        RagProperties.Retrieval.DocumentSetCache config = ragProperties.retrieval().documentSetCache();
+        this.cache = config.enabled()
+                ? Caffeine.newBuilder()
+                        .maximumSize(config.maximumSize())
+                        .expireAfterWrite(config.ttlMinutes(), TimeUnit.MINUTES)
+                        .build()
+                : null;
+        this.hits = Counter.builder("rag.document_set_cache.lookups").tag("result", "hit")
+                .description("对话文档集合缓存查询次数").register(meterRegistry);
+        this.misses = Counter.builder("rag.document_set_cache.lookups").tag("result", "miss")
+                .description("对话文档集合缓存查询次数").register(meterRegistry);
+    }
+
+    /**
+     * 解析对话的所有者与可检索的文档集合。
+     *
+     * @throws IllegalArgumentException 对话不存在。
+     */
+    public ConversationDocumentSet resolve(Long conversationId) {
+        if (cache == null) {
+            return load(conversationId);
+        }
+        ConversationDocumentSet cached = cache.getIfPresent(conversationId);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        return cache.get(conversationId, this::load);
+    }
+
+    private ConversationDocumentSet load(Long conversationId) {
+        Conversation conversation = conversationRepository.findById(conversationId)
+                .orElseThrow(() -> new IllegalArgumentException("未找到对话"));
+        Long parentId = conversation.getParentId();
+        Long effectiveParentId = parentId != null ? parentId : conversationId;
+        UUID[] documentIds = jdbcTemplate.queryForList(DOCUMENT_IDS_SQL, UUID.class, conversationId, effectiveParentId)
+                .stream()
+                .sorted()
+                .toArray(UUID[]::new);
+        return new ConversationDocumentSet(conversationId, conversation.getUserId(), parentId, documentIds,
+                DocumentSetFingerprint.of(documentIds));
+    }
+
+    /**
+     * 失效对话自身及以其为父对话的子对话。
+     */
+    public void invalidateConversation(Long conversationId) {
+        if (cache == null) {
+            return;
+        }
+        cache.invalidate(conversationId);
+        cache.asMap().values().removeIf(set -> conversationId.equals(set.parentId()));
+    }
+
+    /**
+     * 失效包含指定文档的所有对话。
+     */
+    public void invalidateDocument(UUID documentId) {
+        if (cache == null) {
+            return;
+        }
+        int before = cache.asMap().size();
+        cache.asMap().values().removeIf(set -> set.contains(documentId));
+        log.debug("文档 {} 已删除，失效 {} 个对话文档集合", documentId, before - cache.asMap().size());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onConversationDocumentsChanged(ConversationDocumentsChangedEvent event) {
+        invalidateConversation(event.conversationId());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDocumentChanged(DocumentChangedEvent event) {
+        // 重新入库不改变对话关联的文档集合，只有删除需要失效
+        if (event.deleted()) {
+            invalidateDocument(event.documentId());
+        }
+    }
+
+    /**
+     * 对话的文档集合快照。
+     *
+     * @param documentIds 排序去重后的文档 ID (不可修改，调用方不得改写数组)。
+     * @param fingerprint 文档集合指纹，见 {@link DocumentSetFingerprint}。
+     */
+    public record ConversationDocumentSet(Long conversationId, Long userId, Long parentId,
+                                          UUID[] documentIds, String fingerprint) {
+
+        public List<UUID> documentIdList() {
+            return List.of(documentIds);
+        }
+
+        public boolean contains(UUID documentId) {
+            return Arrays.binarySearch(documentIds, documentId) >= 0;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.twocold.jrag.service;
+
+/**
+ * 对话关联的文档集合发生变化（创建对话、添加或移除文档、删除对话）时发布的事件，
+ * 用于失效该对话及其子对话的文档集合缓存。
+ *
+ * @param conversationId 发生变化的对话 ID。
+ */
+public record ConversationDocumentsChangedEvent(Long conversationId) {
+}
@@ -20,6 +20,7 @@ import dev.langchain4j.model.chat.response.ChatResponse;
 import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.http.MediaType;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
@@ -28,6 +29,13 @@ import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -53,6 +61,9 @@ public class ConversationService {
     private final com.twocold.jrag.repository.TemplateDocumentRepository templateDocumentRepository; // Add repository
     private final UserService userService;
     private final com.fasterxml.jackson.databind.ObjectMapper objectMapper;
+    private final Executor searchExecutor;
+    private final ConversationDocumentSetCache documentSetCache;
+    private final ApplicationEventPublisher eventPublisher;
 
     private Long checkMessageAccess(Long messageId, Long userId) {
         ChatMessage message = chatMessageRepository.findById(messageId)
@@ -103,6 +114,7 @@ public class ConversationService {
             }
             jdbcTemplate.batchUpdate(sql, batchArgs);
         }
+        eventPublisher.publishEvent(new ConversationDocumentsChangedEvent(savedConversation.getId()));
         return savedConversation;
     }
 
@@ -148,6 +160,7 @@ public class ConversationService {
         jdbcTemplate.update("DELETE FROM conversation_documents WHERE conversation_id = ?", conversationId);
         jdbcTemplate.update("DELETE FROM chat_messages WHERE conversation_id = ?", conversationId);
         conversationRepository.delete(conversation);
+        eventPublisher.publishEvent(new ConversationDocumentsChangedEvent(conversationId));
     }
 
     @Transactional
@@ -191,6 +204,7 @@ public class ConversationService {
         jdbcTemplate.batchUpdate(sql, batchArgs);
         conversation.setUpdatedAt(LocalDateTime.now());
         conversationRepository.save(conversation);
+        eventPublisher.publishEvent(new ConversationDocumentsChangedEvent(conversationId));
     }
 
     @Transactional
@@ -201,17 +215,13 @@ public class ConversationService {
         jdbcTemplate.update("DELETE FROM conversation_documents WHERE conversation_id = ? AND document_id = ?", conversationId, documentId);
         conversation.setUpdatedAt(LocalDateTime.now());
         conversationRepository.save(conversation);
+        eventPublisher.publishEvent(new ConversationDocumentsChangedEvent(conversationId));
     }
 
     public List<Document> getDocumentsForConversation(Long conversationId, Long userId) {
-        Conversation conversation = conversationRepository.findById(conversationId)
-                .orElseThrow(() -> new IllegalArgumentException("未找到对话"));
-        if (!conversation.getUserId().equals(userId)) throw new SecurityException("无权访问该对话");
-        Long parentId = conversation.getParentId();
-        Long effectiveParentId = parentId != null ? parentId : conversationId;
-        List<UUID> docIds = jdbcTemplate.queryForList(
-                "SELECT DISTINCT document_id FROM conversation_documents WHERE conversation_id = ? OR conversation_id = ?",
-                UUID.class, conversationId, effectiveParentId);
+        ConversationDocumentSetCache.ConversationDocumentSet documentSet = documentSetCache.resolve(conversationId);
+        if (!documentSet.userId().equals(userId)) throw new SecurityException("无权访问该对话");
+        List<UUID> docIds = documentSet.documentIdList();
         if (docIds.isEmpty()) return new ArrayList<>();
         return (List<Document>) documentRepository.findAllById(docIds);
     }
@@ -226,10 +236,10 @@ public class ConversationService {
             // Register Trace with LangFuse (using metadata)
             langFuseService.createTrace(traceId, "Chat Interaction", userId.toString(), Map.of("conversationId", conversationId));
 
-            Conversation conversation = conversationRepository.findById(conversationId)
-                    .orElseThrow(() -> new IllegalArgumentException("未找到对话"));
+            // 对话所有者与文档集合走缓存，每轮对话省去两次数据库往返
+            ConversationDocumentSetCache.ConversationDocumentSet documentSet = documentSetCache.resolve(conversationId);
 
-            if (!conversation.getUserId().equals(userId)) {
+            if (!documentSet.userId().equals(userId)) {
                 throw new SecurityException("无权访问该对话");
             }
 
@@ -274,12 +284,8 @@ public class ConversationService {
                 chatMessageRepository.save(userChatMessage);
             }
 
-            //查询关联文档
-            Long parentId = conversation.getParentId();
-            Long effectiveParentId = parentId != null ? parentId : conversationId;
-            List<UUID> associatedDocumentIds = jdbcTemplate.queryForList(
-                    "SELECT DISTINCT document_id FROM conversation_documents WHERE conversation_id = ? OR conversation_id = ?",
-                    UUID.class, conversationId, effectiveParentId);
+            //关联文档 (自身 + 父对话)
+            List<UUID> associatedDocumentIds = documentSet.documentIdList();
             
             // --- 深度思考模式分支 ---
             if (useDeepThinking) {
@@ -316,8 +322,7 @@ public class ConversationService {
                     aiChatMessage.setContent(answer);
                     aiChatMessage.setCreatedAt(LocalDateTime.now());
                     chatMessageRepository.save(aiChatMessage);
-                    conversation.setUpdatedAt(LocalDateTime.now());
-                    conversationRepository.save(conversation);
+                    conversationRepository.touch(conversationId, LocalDateTime.now());
                     
                     emitter.complete();
                 } catch (Exception e) {
@@ -362,37 +367,18 @@ public class ConversationService {
 
                 // 3. Batch Hybrid Search
                 // @Observed handles monitoring
-                List<Chunk> nearestChunks = retrievalService.batchHybridSearch(subQueries, associatedDocumentIds);
+                RagProperties.Retrieval.ProgressiveSources progressive = ragProperties.retrieval().progressiveSources();
+                List<Chunk> nearestChunks = progressive.enabled()
+                        ? progressiveSearch(subQueries, associatedDocumentIds, progressive, emitter)
+                        : retrievalService.batchHybridSearch(subQueries, associatedDocumentIds);
 
                 for (Chunk chunk : nearestChunks) {
                     relevantTextSegments.add(chunk.getContent());
-                    
-                    try {
-                        Map<String, Object> sourceInfo = new HashMap<>();
-                        sourceInfo.put("id", chunk.getId());
-                        sourceInfo.put("documentId", chunk.getDocumentId());
-                        sourceInfo.put("score", chunk.getScore());
-                        if (chunk.getSourceMeta() != null) {
-                             Map<String, Object> meta = objectMapper.readValue(chunk.getSourceMeta(), Map.class);
-                             sourceInfo.put("metadata", meta);
-                             // 提取文件名方便前端直接使用
-                             if (meta.containsKey("file_name")) {
-                                 sourceInfo.put("fileName", meta.get("file_name"));
-                             }
-                        }
-                        sources.add(sourceInfo);
-                    } catch (Exception e) {
-                        log.warn("Failed to parse source meta for chunk {}", chunk.getId());
-                    }
                 }
-                
-                if (!sources.isEmpty()) {
-                    try {
-                        String json = objectMapper.writeValueAsString(sources);
-                        emitter.send(SseEmitter.event().name("sources").data(json));
-                    } catch (Exception e) {
-                        log.error("Failed to send sources event", e);
-                    }
+                sources.addAll(toSources(nearestChunks));
+
+                if (!progressive.enabled() && !sources.isEmpty()) {
+                    sendSources(emitter, "sources", sources);
                 }
             }
 
@@ -434,8 +420,7 @@ public class ConversationService {
                     aiChatMessage.setCreatedAt(LocalDateTime.now());
                     aiChatMessage.setSources(sourcesJsonToSave);
                     chatMessageRepository.save(aiChatMessage);
-                    conversation.setUpdatedAt(LocalDateTime.now());
-                    conversationRepository.save(conversation);
+                    conversationRepository.touch(conversationId, LocalDateTime.now());
                     emitter.complete();
                 }
                 @Override
@@ -453,6 +438,84 @@ public class ConversationService {
         }
     }
     
+    /**
+     * 渐进式检索：临时来源 (重排序前的 RRF 融合结果) 一到达就推送 sources 事件，最终结果就绪后推送 sources-final 事件。
+     * 未走重排序时没有临时结果，最终来源仍以 sources 事件推送。
+     * 启用 generateOnProvisional 时，若收到临时结果后 finalWaitMs 内重排序仍未完成，直接返回临时结果用于生成 (并随消息保存)，
+     * 此时回答基于临时来源，不再推送 sources-final，避免前端展示的引用与实际依据不一致。
+     */
+    private List<Chunk> progressiveSearch(List<String> subQueries, List<UUID> documentIds,
+                                          RagProperties.Retrieval.ProgressiveSources progressive, SseEmitter emitter) {
+        CompletableFuture<List<Chunk>> provisionalFuture = new CompletableFuture<>();
+        Consumer<List<Chunk>> onProvisional = provisional -> {
+            sendSources(emitter, "sources", toSources(provisional));
+            provisionalFuture.complete(provisional);
+        };
+
+        if (!progressive.generateOnProvisional()) {
+            List<Chunk> finalChunks = retrievalService.batchHybridSearch(subQueries, documentIds, onProvisional);
+            sendSources(emitter, provisionalFuture.isDone() ? "sources-final" : "sources", toSources(finalChunks));
+            return finalChunks;
+        }
+
+        CompletableFuture<List<Chunk>> finalFuture = CompletableFuture.supplyAsync(
+                TraceContext.wrap(() -> retrievalService.batchHybridSearch(subQueries, documentIds, onProvisional)),
+                searchExecutor);
+        CompletableFuture.anyOf(provisionalFuture, finalFuture).join();
+        if (!finalFuture.isDone()) {
+            try {
+                finalFuture.get(progressive.finalWaitMs(), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                log.info("重排序在 {} 毫秒内未完成，基于临时结果开始生成", progressive.finalWaitMs());
+                return provisionalFuture.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("检索被中断", e);
+            } catch (ExecutionException e) {
+                throw new CompletionException(e.getCause());
+            }
+        }
+        List<Chunk> finalChunks = finalFuture.join();
+        sendSources(emitter, provisionalFuture.isDone() ? "sources-final" : "sources", toSources(finalChunks));
+        return finalChunks;
+    }
+
+    private List<Map<String, Object>> toSources(List<Chunk> chunks) {
+        List<Map<String, Object>> sources = new ArrayList<>();
+        for (Chunk chunk : chunks) {
+            try {
+                Map<String, Object> sourceInfo = new HashMap<>();
+                sourceInfo.put("id", chunk.getId());
+                sourceInfo.put("documentId", chunk.getDocumentId());
+                sourceInfo.put("score", chunk.getScore());
+                if (chunk.getSourceMeta() != null) {
+                     Map<String, Object> meta = objectMapper.readValue(chunk.getSourceMeta(), Map.class);
+                     sourceInfo.put("metadata", meta);
+                     // 提取文件名方便前端直接使用
+                     if (meta.containsKey("file_name")) {
+                         sourceInfo.put("fileName", meta.get("file_name"));
+                     }
+                }
+                sources.add(sourceInfo);
+            } catch (Exception e) {
+                log.warn("Failed to parse source meta for chunk {}", chunk.getId());
+            }
+        }
+        return sources;
+    }
+
+    private void sendSources(SseEmitter emitter, String eventName, List<Map<String, Object>> sources) {
+        if (sources.isEmpty()) {
+            return;
+        }
+        try {
+            String json = objectMapper.writeValueAsString(sources);
+            emitter.send(SseEmitter.event().name(eventName).data(json));
+        } catch (Exception e) {
+            log.error("Failed to send {} event", eventName, e);
+        }
+    }
+
     private String convertToJsonSilently(com.fasterxml.jackson.databind.ObjectMapper mapper, Object obj) {
         try {
             return mapper.writeValueAsString(obj);
@@ -0,0 +1,13 @@
+package com.twocold.jrag.service;
+
+import java.util.UUID;
+
+/**
+ * 文档的片段发生变化（入库完成、重新入库或删除）时发布的事件，
+ * 用于失效与该文档相关的检索缓存。
+ *
+ * @param documentId 发生变化的文档 ID。
+ * @param deleted    文档是否已被删除。
+ */
+public record DocumentChangedEvent(UUID documentId, boolean deleted) {
+}
@@ -2,7 +2,9 @@ package com.twocold.jrag.service;
 
 import com.twocold.jrag.domain.Document;
 import com.twocold.jrag.domain.DocumentStatus;
+import com.twocold.jrag.repository.ChunkRepository;
 import com.twocold.jrag.repository.DocumentRepository;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -14,11 +16,16 @@ import java.util.UUID;
 public class DocumentService {
 
     private final DocumentRepository documentRepository;
+    private final ChunkRepository chunkRepository;
     private final UserService userService;
+    private final ApplicationEventPublisher eventPublisher;
 
-    public DocumentService(DocumentRepository documentRepository, UserService userService) {
+    public DocumentService(DocumentRepository documentRepository, ChunkRepository chunkRepository,
+            UserService userService, ApplicationEventPublisher eventPublisher) {
         this.documentRepository = documentRepository;
+        this.chunkRepository = chunkRepository;
         this.userService = userService;
+        this.eventPublisher = eventPublisher;
     }
 
     public List<Document> getDocumentsForUser(Long userId) {
@@ -52,6 +59,48 @@ public class DocumentService {
         });
     }
 
+    /**
+     * 开始更新文档内容：校验权限并把文档标记为 PENDING，防止同一文档的入库或更新并发进行。
+     *
+     * @throws IllegalStateException 文档正在处理中。
+     */
+    @Transactional
+    public Document beginDocumentUpdate(UUID documentId, Long userId) {
+        Document document = documentRepository.findById(documentId)
+                .orElseThrow(() -> new IllegalArgumentException("未找到文档"));
+
+        boolean isOwner = userId.equals(document.getUserId());
+        if (!isOwner && !userService.isAdmin(userId)) {
+            throw new SecurityException("无权访问该文档");
+        }
+        // 条件更新：并发的两个更新请求只有一个能把文档标记为 PENDING
+        if (documentRepository.markPendingIfIdle(documentId) == 0) {
+            throw new IllegalStateException("文档正在处理中，请稍后再试");
+        }
+
+        document.setStatus(DocumentStatus.PENDING);
+        document.setProgress(0);
+        document.setErrorMessage(null);
+        return document;
+    }
+
+    /**
+     * 内容更新成功后记录新的文件名与大小，并把文档标记为 COMPLETED。
+     */
+    @Transactional
+    public void completeDocumentUpdate(UUID documentId, String fileName, Long fileSize) {
+        documentRepository.findById(documentId).ifPresent(document -> {
+            if (fileName != null) {
+                document.setName(fileName);
+            }
+            document.setFileSize(fileSize);
+            document.setStatus(DocumentStatus.COMPLETED);
+            document.setProgress(100);
+            document.setErrorMessage(null);
+            documentRepository.save(document);
+        });
+    }
+
     @Transactional
     public void deleteDocument(UUID documentId, Long userId) {
         Document document = documentRepository.findById(documentId)
@@ -64,7 +113,10 @@ public class DocumentService {
             throw new SecurityException("无权访问该文档");
         }
 
+        // chunks 按 document_id 哈希分区，删除只涉及文档所在的分区
+        chunkRepository.deleteByDocumentId(documentId);
         documentRepository.delete(document);
+        eventPublisher.publishEvent(new DocumentChangedEvent(documentId, true));
     }
 
     @Transactional
@@ -94,8 +94,8 @@ public class GenericScoringModel implements ScoringModel {
 
         } catch (Exception e) {
             log.error("重排序评分失败: {}", e.getMessage(), e);
-            // 失败时返回全 0 分，保持初始排序不崩溃
-            return Response.from(segments.stream().map(s -> 0.0).toList());
+            // 失败时抛出异常，由调用方回退为 RRF 融合结果（全 0 分数会丢失原有排序）
+            throw new IllegalStateException("重排序评分失败: " + e.getMessage(), e);
         }
     }
 
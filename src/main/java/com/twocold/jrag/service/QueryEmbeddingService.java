@@ -0,0 +1,132 @@
+package com.twocold.jrag.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.twocold.jrag.config.CacheConfig;
+import com.twocold.jrag.config.RagProperties;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.stereotype.Service;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * 查询向量服务。
+ * 在 EmbeddingModel 之前加一层 Caffeine 缓存，键为「规范化后的查询文本 + 向量模型名称」，
+ * 重试、幂等重放以及 Agent 工具循环中的重复查询可直接命中缓存，省去一次 Embedding 往返。
+ */
+@Slf4j
+@Service
+public class QueryEmbeddingService {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final EmbeddingModel embeddingModel;
+    private final Cache<Object, Object> cache;
+
+    public QueryEmbeddingService(EmbeddingModel embeddingModel, RagProperties ragProperties, CacheManager cacheManager) {
+        this.embeddingModel = embeddingModel;
+
+        RagProperties.Retrieval.EmbeddingCache config = ragProperties.retrieval().embeddingCache();
+        if (config != null && config.enabled()
+                && cacheManager.getCache(CacheConfig.QUERY_EMBEDDING_CACHE) instanceof CaffeineCache caffeineCache) {
+            this.cache = caffeineCache.getNativeCache();
+            log.info("查询向量缓存已启用，最大条目数：{}，过期时间：{} 分钟", config.maximumSize(), config.ttlMinutes());
+        } else {
+            this.cache = null;
+            log.info("查询向量缓存已禁用。");
+        }
+    }
+
+    /**
+     * 获取查询文本的向量，优先从缓存读取。
+     * 返回的数组由缓存共享，调用方不得修改。
+     *
+     * @param query 查询文本。
+     * @return 查询向量。
+     */
+    public float[] embed(String query) {
+        if (cache == null) {
+            return doEmbed(query);
+        }
+        CacheKey key = new CacheKey(embeddingModel.modelName(), normalize(query));
+        return (float[]) cache.get(key, k -> doEmbed(((CacheKey) k).text()));
+    }
+
+    /**
+     * 批量获取多个查询文本的向量。缓存命中的直接返回，未命中的合并为一次 embedAll 调用。
+     *
+     * @param queries 查询文本列表。
+     * @return 与输入顺序一致的查询向量列表。
+     */
+    public List<float[]> embedAll(List<String> queries) {
+        if (queries == null || queries.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        String modelName = embeddingModel.modelName();
+        List<CacheKey> keys = queries.stream()
+                .map(q -> new CacheKey(modelName, normalize(q)))
+                .toList();
+
+        Map<Object, Object> hits = cache != null ? cache.getAllPresent(keys) : Collections.emptyMap();
+        List<CacheKey> misses = keys.stream()
+                .filter(k -> !hits.containsKey(k))
+                .distinct()
+                .toList();
+
+        Map<CacheKey, float[]> embedded = new HashMap<>();
+        if (!misses.isEmpty()) {
+            long start = System.currentTimeMillis();
+            List<TextSegment> segments = misses.stream()
+                    .map(k -> TextSegment.from(k.text()))
+                    .toList();
+            List<Embedding> embeddings = embeddingModel.embedAll(segments).content();
+            for (int i = 0; i < misses.size(); i++) {
+                float[] vector = embeddings.get(i).vector();
+                embedded.put(misses.get(i), vector);
+                if (cache != null) {
+                    cache.put(misses.get(i), vector);
+                }
+            }
+            log.debug("批量生成 {} 个查询向量耗时 {} 毫秒（缓存命中 {} 个）",
+                    misses.size(), System.currentTimeMillis() - start, hits.size());
+        }
+
+        List<float[]> result = new ArrayList<>(keys.size());
+        for (CacheKey key : keys) {
+            float[] vector = (float[]) hits.get(key);
+            result.add(vector != null ? vector : embedded.get(key));
+        }
+        return result;
+    }
+
+    private float[] doEmbed(String query) {
+        long start = System.currentTimeMillis();
+        float[] vector = embeddingModel.embedAll(List.of(TextSegment.from(query))).content().getFirst().vector();
+        log.debug("查询向量生成耗时 {} 毫秒", System.currentTimeMillis() - start);
+        return vector;
+    }
+
+    /**
+     * 规范化查询文本：Unicode NFKC（全角/半角统一）、去除首尾空白并折叠连续空白。
+     */
+    static String normalize(String query) {
+        if (query == null) {
+            return "";
+        }
+        String normalized = Normalizer.normalize(query, Normalizer.Form.NFKC);
+        return WHITESPACE.matcher(normalized.trim()).replaceAll(" ");
+    }
+
+    private record CacheKey(String modelName, String text) {}
+}
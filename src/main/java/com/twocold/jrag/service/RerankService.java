@@ -0,0 +1,186 @@
+package com.twocold.jrag.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.twocold.jrag.config.CacheConfig;
+import com.twocold.jrag.config.RagProperties;
+import com.twocold.jrag.config.TraceContext;
+import com.twocold.jrag.domain.Chunk;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.scoring.ScoringModel;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * 重排序服务。
+ * 在 ScoringModel 之前加一层分数缓存，键为「规范化查询的哈希 + 片段 ID + 重排模型名称」：
+ * 只有未命中的 (查询, 片段) 对会发送到重排 API，结果再按候选顺序合并。
+ * 片段重新入库时会生成新的 ID，因此缓存不会返回过期内容的分数。
+ */
+@Slf4j
+@Service
+public class RerankService {
+
+    private final ScoringModel scoringModel;
+    private final String modelName;
+    private final Cache<Object, Object> cache;
+    private final int latencyBudgetMillis;
+    private final Executor searchExecutor;
+    private final MeterRegistry meterRegistry;
+
+    public RerankService(ScoringModel scoringModel, RagProperties ragProperties, CacheManager cacheManager,
+                         Executor searchExecutor, MeterRegistry meterRegistry) {
+        this.scoringModel = scoringModel;
+        this.searchExecutor = searchExecutor;
+        this.meterRegistry = meterRegistry;
+
+        RagProperties.Retrieval.Rerank config = ragProperties.retrieval().rerank();
+        this.modelName = config != null ? String.valueOf(config.modelName()) : "";
+        this.latencyBudgetMillis = config != null ? config.latencyBudgetMillis() : 0;
+        if (scoringModel != null && config.scoreCache() != null && config.scoreCache().enabled()
+                && cacheManager.getCache(CacheConfig.RERANK_SCORE_CACHE) instanceof CaffeineCache caffeineCache) {
+            this.cache = caffeineCache.getNativeCache();
+            log.info("重排序分数缓存已启用，最大条目数：{}，过期时间：{} 分钟",
+                    config.scoreCache().maximumSize(), config.scoreCache().ttlMinutes());
+        } else {
+            this.cache = null;
+        }
+    }
+
+    /**
+     * 重排序模型是否可用（已启用并成功创建）。
+     */
+    public boolean isAvailable() {
+        return scoringModel != null;
+    }
+
+    /**
+     * 在时延预算内计算重排序分数。
+     * 超出预算或调用失败时返回 null，由调用方回退为 RRF 融合结果；
+     * 超时的请求不会被取消，迟到的分数仍会写入缓存，并记录到 rag.rerank.late 指标。
+     *
+     * @param query 查询文本。
+     * @param candidates 候选片段（需包含正文）。
+     * @return 与候选顺序一致的分数列表；未能在预算内完成时返回 null。
+     */
+    public List<Double> scoreWithinBudget(String query, List<Chunk> candidates) {
+        long start = System.nanoTime();
+        if (latencyBudgetMillis <= 0) {
+            try {
+                List<Double> scores = score(query, candidates);
+                recordOutcome("ok", start);
+                return scores;
+            } catch (Exception e) {
+                log.warn("重排序失败，回退为 RRF 融合: {}", e.getMessage());
+                recordOutcome("error", start);
+                return null;
+            }
+        }
+
+        CompletableFuture<List<Double>> future = CompletableFuture.supplyAsync(
+                TraceContext.wrap(() -> score(query, candidates)), searchExecutor);
+        try {
+            List<Double> scores = future.get(latencyBudgetMillis, TimeUnit.MILLISECONDS);
+            recordOutcome("ok", start);
+            return scores;
+        } catch (TimeoutException e) {
+            log.warn("重排序超过 {} 毫秒预算，回退为 RRF 融合", latencyBudgetMillis);
+            recordOutcome("timeout", start);
+            future.whenComplete((scores, error) -> Timer.builder("rag.rerank.late")
+                    .description("超出时延预算的重排序请求的实际完成耗时")
+                    .tag("outcome", error == null ? "ok" : "error")
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            recordOutcome("error", start);
+            return null;
+        } catch (ExecutionException e) {
+            log.warn("重排序失败，回退为 RRF 融合: {}", e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+            recordOutcome("error", start);
+            return null;
+        }
+    }
+
+    private void recordOutcome(String outcome, long startNanos) {
+        Timer.builder("rag.rerank.latency")
+                .description("重排序调用耗时（含缓存命中），按结果分类")
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 为候选片段计算重排序分数。
+     *
+     * @param query 查询文本。
+     * @param candidates 候选片段（需包含正文）。
+     * @return 与候选顺序一致的分数列表。
+     */
+    public List<Double> score(String query, List<Chunk> candidates) {
+        if (candidates.isEmpty()) {
+            return Collections.emptyList();
+        }
+        if (cache == null) {
+            return scoringModel.scoreAll(toSegments(candidates), query).content();
+        }
+
+        String queryHash = hash(QueryEmbeddingService.normalize(query));
+        List<CacheKey> keys = candidates.stream()
+                .map(c -> new CacheKey(modelName, queryHash, c.getId()))
+                .toList();
+        Map<Object, Object> hits = cache.getAllPresent(keys);
+
+        List<Chunk> misses = new ArrayList<>();
+        for (int i = 0; i < candidates.size(); i++) {
+            if (!hits.containsKey(keys.get(i))) {
+                misses.add(candidates.get(i));
+            }
+        }
+
+        Map<UUID, Double> missScores = new HashMap<>();
+        if (!misses.isEmpty()) {
+            List<Double> scores = scoringModel.scoreAll(toSegments(misses), query).content();
+            for (int i = 0; i < misses.size(); i++) {
+                double score = i < scores.size() ? scores.get(i) : 0.0;
+                missScores.put(misses.get(i).getId(), score);
+                cache.put(new CacheKey(modelName, queryHash, misses.get(i).getId()), score);
+            }
+        }
+        log.debug("重排序分数缓存命中 {} 个，调用重排 API {} 个", hits.size(), misses.size());
+
+        List<Double> result = new ArrayList<>(candidates.size());
+        for (int i = 0; i < candidates.size(); i++) {
+            Double cached = (Double) hits.get(keys.get(i));
+            result.add(cached != null ? cached : missScores.get(candidates.get(i).getId()));
+        }
+        return result;
+    }
+
+    private static List<TextSegment> toSegments(List<Chunk> chunks) {
+        return chunks.stream()
+                .map(c -> TextSegment.from(c.getContent()))
+                .toList();
+    }
+
+    private static String hash(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 不可用", e);
+        }
+    }
+
+    private record CacheKey(String modelName, String queryHash, UUID chunkId) {}
+}
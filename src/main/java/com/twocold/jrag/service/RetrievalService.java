@@ -4,36 +4,30 @@ import com.twocold.jrag.api.config.Observed;
 import com.twocold.jrag.config.RagProperties;
 import com.twocold.jrag.config.TraceContext;
 import com.twocold.jrag.domain.Chunk;
+import com.twocold.jrag.repository.ChunkRowMapper;
+import com.twocold.jrag.service.keyword.KeywordSearchBackend;
+import com.twocold.jrag.service.tokenizer.Tokenizer;
+import com.twocold.jrag.service.vector.VectorSearchBackend;
 import com.twocold.jrag.utils.MmrUtils;
+import com.twocold.jrag.utils.SqlArrayUtils;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
-import com.huaban.analysis.jieba.JiebaSegmenter;
-import com.huaban.analysis.jieba.SegToken;
-import com.pgvector.PGvector;
-import dev.langchain4j.data.segment.TextSegment;
-import dev.langchain4j.model.embedding.EmbeddingModel;
-import dev.langchain4j.model.output.Response;
-import dev.langchain4j.model.scoring.ScoringModel;
-import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.context.ApplicationContext;
-import org.springframework.core.io.ClassPathResource;
-import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.simple.JdbcClient;
 import org.springframework.stereotype.Service;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
-import java.sql.ResultSet;
-import java.sql.SQLException;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -41,13 +35,17 @@ import java.util.stream.Collectors;
 @RequiredArgsConstructor
 public class RetrievalService {
 
-    private final EmbeddingModel embeddingModel;
+    private final QueryEmbeddingService queryEmbeddingService;
     private final RagProperties ragProperties;
     private final JdbcClient jdbcClient;
     private final Executor searchExecutor;
-    private final ScoringModel scoringModel;
+    private final RerankService rerankService;
+    private final SemanticRetrievalCache semanticRetrievalCache;
     private final LangFuseService langFuseService;
     private final ApplicationContext applicationContext;
+    private final VectorSearchBackend vectorSearchBackend;
+    private final KeywordSearchBackend keywordSearchBackend;
+    private final Tokenizer tokenizer;
 
     static {
         new ObjectMapper()
@@ -55,30 +53,12 @@ public class RetrievalService {
                 .configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
     }
 
-    private final JiebaSegmenter jiebaSegmenter = new JiebaSegmenter();
-    private final Set<String> stopWords = new HashSet<>();
-
-    @PostConstruct
-    public void loadStopWords() {
-        try {
-            ClassPathResource resource = new ClassPathResource("stopwords.txt");
-            if (resource.exists()) {
-                try (BufferedReader reader = new BufferedReader(new InputStreamReader(resource.getInputStream(), StandardCharsets.UTF_8))) {
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        if (!line.trim().isEmpty()) {
-                            stopWords.add(line.trim());
-                        }
-                    }
-                }
-                log.info("已加载 {} 个停用词。", stopWords.size());
-            } else {
-                log.error("资源中未找到 stopwords.txt。");
-            }
-        } catch (Exception e) {
-            log.error("加载停用词失败", e);
-        }
-    }
+    // 同时按 document_id 过滤，使回表只访问文档所在的分区
+    private static final String HYDRATE_SQL = """
+            SELECT id, document_id, content, NULL::bytea AS content_vector, chunk_index, source_meta, chunker_name, content_keywords, created_at
+            FROM chunks
+            WHERE id = ANY(?) AND document_id = ANY(?)
+            """;
 
     /**
      * 执行混合搜索（向量 + 关键字）以检索相关片段，可选择按文档 ID 进行过滤。
@@ -89,6 +69,38 @@ public class RetrievalService {
      */
     @Observed(name = "Hybrid Search", includeOutFields = {"id", "content", "score", "documentId"}, collectionLimit = 10)
     public List<Chunk> hybridSearch(String question, List<UUID> documentIds) {
+        return doHybridSearch(question, () -> queryEmbeddingService.embed(question), documentIds, null);
+    }
+
+    /**
+     * 使用已生成的查询向量执行混合搜索（供批量搜索复用一次 embedAll 的结果）。
+     *
+     * @param question 用户的问题。
+     * @param queryEmbedding 问题的查询向量。
+     * @param documentIds 用于过滤搜索的可选文档 ID 列表。
+     * @return 包含前 K 个相关片段的列表。
+     */
+    @Observed(name = "Hybrid Search", includeInputFields = {"question", "documentIds"},
+            includeOutFields = {"id", "content", "score", "documentId"}, collectionLimit = 10)
+    public List<Chunk> hybridSearch(String question, float[] queryEmbedding, List<UUID> documentIds) {
+        return doHybridSearch(question, () -> queryEmbedding, documentIds, null);
+    }
+
+    /**
+     * 使用已生成的查询向量执行混合搜索，并在重排序开始前把 RRF 融合的临时结果交给 provisionalListener。
+     * 仅当走重排序路径时才会回调；未启用重排序、重排序不可用或命中语义缓存时，返回值本身即为最终结果。
+     *
+     * @param provisionalListener 接收临时结果 (片段快照，与最终结果互不影响)，可为 null。
+     */
+    @Observed(name = "Hybrid Search", includeInputFields = {"question", "documentIds"},
+            includeOutFields = {"id", "content", "score", "documentId"}, collectionLimit = 10)
+    public List<Chunk> hybridSearch(String question, float[] queryEmbedding, List<UUID> documentIds,
+                                    Consumer<List<Chunk>> provisionalListener) {
+        return doHybridSearch(question, () -> queryEmbedding, documentIds, provisionalListener);
+    }
+
+    private List<Chunk> doHybridSearch(String question, Supplier<float[]> embeddingSupplier, List<UUID> documentIds,
+                                       Consumer<List<Chunk>> provisionalListener) {
         String traceId = TraceContext.getTraceId();
         String parentSpanId = TraceContext.getCurrentSpanId();
         try {
@@ -96,6 +108,7 @@ public class RetrievalService {
             int topK = ragProperties.retrieval().topK();
 
             int searchK = rerankEnabled ? ragProperties.retrieval().rerank().initialTopK() : topK;
+            boolean twoPhase = ragProperties.retrieval().twoPhase();
 
             if (log.isDebugEnabled()) {
                 log.debug("开始混合搜索问题：'{}'，模式：{}，涉及 {} 个文档，searchK：{}",
@@ -108,40 +121,43 @@ public class RetrievalService {
                 return Collections.emptyList();
             }
 
-            String documentIdsClause = documentIds.stream()
-                    .map(uuid -> "'" + uuid.toString() + "'")
-                    .collect(Collectors.joining(", "));
+            // 0. 语义缓存：同一文档集合下足够相近的问题直接复用最终结果，跳过 ANN 检索与重排序
+            float[] semanticCacheEmbedding = null;
+            Supplier<float[]> queryEmbeddingSupplier = embeddingSupplier;
+            if (semanticRetrievalCache.isEnabled()) {
+                float[] queryEmbedding = embeddingSupplier.get();
+                semanticCacheEmbedding = queryEmbedding;
+                queryEmbeddingSupplier = () -> queryEmbedding;
+                List<Chunk> cached = loadFromSemanticCache(queryEmbedding, documentIds);
+                if (cached != null) {
+                    log.debug("语义缓存命中，直接返回 {} 个片段", cached.size());
+                    return cached;
+                }
+            }
+            Supplier<float[]> vectorEmbeddingSupplier = queryEmbeddingSupplier;
 
             // 1. Prepare Vector Search Task
             CompletableFuture<List<Chunk>> vectorSearchFuture = CompletableFuture.supplyAsync(() -> {
                 try {
                     Instant startTime = Instant.now();
                     long vectorSearchStart = System.currentTimeMillis();
-                    TextSegment questionSegment = TextSegment.from(question);
-                    float[] queryEmbedding = embeddingModel.embedAll(List.of(questionSegment)).content().getFirst().vector();
-                    String vectorSql = "SELECT id, document_id, content, content_vector, chunk_index, source_meta, chunker_name, content_keywords, created_at " +
-                            "FROM chunks " +
-                            "WHERE document_id IN (" + documentIdsClause + ") " +
-                            "ORDER BY content_vector <=> ? " +
-                            "LIMIT ?";
+                    float[] queryEmbedding = vectorEmbeddingSupplier.get();
                     // MMR Parameters
                     int fetchK = searchK * 3; 
                     double mmrLambda = 0.5;   
-                    List<Chunk> initialResults = jdbcClient.sql(vectorSql)
-                            .params(new PGvector(queryEmbedding), fetchK)
-                            .query(new ChunkRowMapper())
-                            .list();
-                    log.debug("向量搜索在 {} 毫秒内获取了 {} 个候选片段", System.currentTimeMillis() - vectorSearchStart, initialResults.size());
+                    List<Chunk> initialResults = vectorSearchBackend.searchNearest(queryEmbedding, documentIds, fetchK, !twoPhase);
+                    log.debug("向量搜索 ({}) 在 {} 毫秒内获取了 {} 个候选片段", vectorSearchBackend.name(),
+                            System.currentTimeMillis() - vectorSearchStart, initialResults.size());
 
                     List<Chunk> finalResults = MmrUtils.applyMmr(initialResults, queryEmbedding, searchK, mmrLambda);
                     finalResults.forEach(c -> c.setContentVector(null));
+                    if (!twoPhase && finalResults.stream().anyMatch(c -> c.getContent() == null)) {
+                        // 后端只返回了 id / 向量 (如进程内索引)，仅为 MMR 选出的片段回表
+                        finalResults = hydrate(finalResults, documentIds);
+                    }
 
                     langFuseService.createSpan(null, traceId, parentSpanId, "Vector Search", null,
-                            finalResults.stream().limit(10).collect(Collectors.toMap(
-                                    chunk -> chunk.getId().toString(),
-                                    c -> StringUtils.left(c.getContent(), 20)
-                            )),
-                            startTime, Instant.now());
+                            summarizeForSpan(finalResults), startTime, Instant.now());
 
                     return finalResults;
                 } catch (Exception e) {
@@ -154,44 +170,24 @@ public class RetrievalService {
                 try {
                     long keywordSearchStart = System.currentTimeMillis();
                     Instant startTime = Instant.now();
-                    List<SegToken> tokens = jiebaSegmenter.process(question, JiebaSegmenter.SegMode.SEARCH);
-
-                    String segmentedQuery = tokens.stream()
-                            .map(i -> i.word)
-                            .filter(word -> !stopWords.contains(word))
-                            .collect(Collectors.joining(" "));
-                    if (segmentedQuery.isBlank()) {
-                        segmentedQuery = tokens.stream().map(i -> i.word).collect(Collectors.joining(" "));
+                    List<String> terms = tokenizer.queryTerms(question);
+                    if (terms.isEmpty()) {
+                        terms = List.of(question);
                     }
-
-                    String tsQuery = Arrays.stream(segmentedQuery.split("\\s+"))
-                            .filter(s -> !s.isBlank())
-                            .distinct()
-                            .collect(Collectors.joining(" | "));
-                    if (tsQuery.isBlank()) {
-                        tsQuery = question;
+                    String tsQuery = String.join(" | ", terms);
+                    log.debug("关键字搜索分词查询：'{}' -> tsquery: '{}'",
+                            com.twocold.jrag.utils.LogMaskingUtils.maskQuery(question), tsQuery);
+                    List<Chunk> results = keywordSearchBackend.search(terms, documentIds, searchK, !twoPhase);
+                    if (!twoPhase && results.stream().anyMatch(c -> c.getContent() == null)) {
+                        // 后端只返回了 id (如进程内倒排索引)，为命中的片段回表
+                        results = hydrate(results, documentIds);
                     }
-                    log.debug("关键字搜索分词查询：'{}' -> tsquery: '{}'", 
-                            com.twocold.jrag.utils.LogMaskingUtils.maskQuery(segmentedQuery), tsQuery);
-                    String keywordSql = "SELECT id, document_id, content, NULL as content_vector, chunk_index, source_meta, chunker_name, content_keywords, created_at " +
-                            "FROM chunks " +
-                            "WHERE document_id IN (" + documentIdsClause + ") " +
-                            "AND content_search @@ to_tsquery('simple', ?) " +
-                            "ORDER BY ts_rank(content_search, to_tsquery('simple', ?)) DESC " +
-                            "LIMIT ?";
-                    List<Chunk> results = jdbcClient.sql(keywordSql)
-                            .params(tsQuery, tsQuery, searchK)
-                            .query(new ChunkRowMapper())
-                            .list();
-                    log.debug("关键字搜索在 {} 毫秒内找到了 {} 个结果", System.currentTimeMillis() - keywordSearchStart, results.size());
+                    log.debug("关键字搜索 ({}) 在 {} 毫秒内找到了 {} 个结果", keywordSearchBackend.name(),
+                            System.currentTimeMillis() - keywordSearchStart, results.size());
 
                     langFuseService.createSpan(null, traceId, parentSpanId, "Keyword Search",
                             Map.of("tsQuery", tsQuery),
-                            results.stream().limit(10).collect(Collectors.toMap(
-                                    chunk -> chunk.getId().toString(),
-                                    c -> StringUtils.left(c.getContent(), 20)
-                            )),
-                            startTime, Instant.now());
+                            summarizeForSpan(results), startTime, Instant.now());
 
                     return results;
                 } catch (Exception e) {
@@ -204,57 +200,66 @@ public class RetrievalService {
             List<Chunk> keywordResults = keywordSearchFuture.get();
 
             List<Chunk> finalResults;
-            if (rerankEnabled && scoringModel != null) {
+            // 重排序回退为 RRF 时结果质量降级，不写入语义缓存
+            boolean cacheable = true;
+            if (rerankEnabled && rerankService.isAvailable()) {
                 Map<UUID, Chunk> combinedMap = new LinkedHashMap<>();
                 vectorResults.forEach(c -> combinedMap.put(c.getId(), c));
                 keywordResults.forEach(c -> combinedMap.put(c.getId(), c));
                 List<Chunk> candidates = new ArrayList<>(combinedMap.values());
-                
-                log.debug("重排序模式：合并后共有 {} 个候选片段", candidates.size());
-                List<TextSegment> segments = candidates.stream()
-                        .map(c -> TextSegment.from(c.getContent()))
-                        .collect(Collectors.toList());
-                Response<List<Double>> scoresResponse = scoringModel.scoreAll(segments, question);
-                List<Double> scores = scoresResponse.content();
-
-                finalResults = new ArrayList<>();
-                for (int i = 0; i < candidates.size(); i++) {
-                    Chunk candidate = candidates.get(i);
-                    double score = i < scores.size() ? scores.get(i) : 0.0;
-                    candidate.setScore(score);
-                    finalResults.add(candidate);
+                if (twoPhase) {
+                    // 重排序需要正文，回表范围为 MMR / 关键字检索后的合并候选
+                    candidates = hydrate(candidates, documentIds);
                 }
 
-                finalResults.sort(Comparator.comparingDouble(Chunk::getScore).reversed());
-                finalResults = finalResults.stream().limit(topK).collect(Collectors.toList());
-                
-                log.debug("重排序完成。最终返回 {} 个片段。", finalResults.size());
-            } else {
-                int rrfK = 60;
-                Map<UUID, Double> rrfScores = new HashMap<>();
-                Map<UUID, Chunk> chunkMap = new HashMap<>();
-
-                for (int i = 0; i < vectorResults.size(); i++) {
-                    Chunk chunk = vectorResults.get(i);
-                    chunkMap.putIfAbsent(chunk.getId(), chunk);
-                    rrfScores.merge(chunk.getId(), 1.0 / (rrfK + i + 1), Double::sum);
+                // RRF 融合结果既是重排序失败时的回退，也是重排序完成前可先行展示的临时结果
+                Map<UUID, Chunk> candidateMap = new HashMap<>();
+                candidates.forEach(c -> candidateMap.put(c.getId(), c));
+                List<Chunk> rrfResults = fuseWithRrf(vectorResults, keywordResults, topK).stream()
+                        .map(c -> candidateMap.get(c.getId()))
+                        .filter(Objects::nonNull)
+                        .collect(Collectors.toList());
+                if (provisionalListener != null) {
+                    provisionalListener.accept(rrfResults.stream().map(RetrievalService::snapshot).toList());
                 }
 
-                for (int i = 0; i < keywordResults.size(); i++) {
-                    Chunk chunk = keywordResults.get(i);
-                    chunkMap.putIfAbsent(chunk.getId(), chunk);
-                    rrfScores.merge(chunk.getId(), 1.0 / (rrfK + i + 1), Double::sum);
-                }
+                log.debug("重排序模式：合并后共有 {} 个候选片段", candidates.size());
+                List<Double> scores = rerankService.scoreWithinBudget(question, candidates);
+
+                if (scores == null) {
+                    cacheable = false;
+                    // 重排序超出时延预算或失败：退回 RRF 融合结果，而不是使用全 0 分数打乱排序
+                    finalResults = rrfResults;
+                    log.debug("重排序未在预算内完成，回退为 RRF 融合，返回 {} 个片段。", finalResults.size());
+                } else {
+                    finalResults = new ArrayList<>();
+                    for (int i = 0; i < candidates.size(); i++) {
+                        Chunk candidate = candidates.get(i);
+                        double score = i < scores.size() ? scores.get(i) : 0.0;
+                        candidate.setScore(score);
+                        finalResults.add(candidate);
+                    }
 
-                finalResults = rrfScores.entrySet().stream()
-                        .sorted(Map.Entry.<UUID, Double>comparingByValue().reversed())
-                        .limit(topK)
-                        .map(entry -> chunkMap.get(entry.getKey()))
-                        .collect(Collectors.toList());
+                    finalResults.sort(Comparator.comparingDouble(Chunk::getScore).reversed());
+                    finalResults = finalResults.stream().limit(topK).collect(Collectors.toList());
+
+                    log.debug("重排序完成。最终返回 {} 个片段。", finalResults.size());
+                }
+            } else {
+                finalResults = fuseWithRrf(vectorResults, keywordResults, topK);
+                if (twoPhase) {
+                    finalResults = hydrate(finalResults, documentIds);
+                }
 
                 log.debug("RRF 融合完成。最终得到 {} 个片段。", finalResults.size());
             }
 
+            if (cacheable && semanticCacheEmbedding != null) {
+                semanticRetrievalCache.put(semanticCacheEmbedding, documentIds, finalResults.stream()
+                        .map(c -> new SemanticRetrievalCache.CachedChunk(c.getId(), c.getScore()))
+                        .toList());
+            }
+
             return finalResults;
 
         } catch (Exception e) {
@@ -264,7 +269,43 @@ public class RetrievalService {
     }
 
     /**
-     * 批量执行混合搜索。对每个问题并行执行搜索，然后汇总并去重结果。
+     * 临时结果的浅拷贝：重排序会改写候选片段的评分，临时结果交出后不应再随之变化。
+     */
+    private static Chunk snapshot(Chunk chunk) {
+        return new Chunk(chunk.getId(), chunk.getDocumentId(), chunk.getContent(), null, chunk.getChunkIndex(),
+                chunk.getSourceMeta(), chunk.getChunkerName(), chunk.getContentKeywords(), chunk.getCreatedAt(),
+                chunk.getScore());
+    }
+
+    /**
+     * 倒数排名融合 (RRF)：按两路结果中的排名累加 1 / (k + rank)，取前 topK 个片段。
+     */
+    private List<Chunk> fuseWithRrf(List<Chunk> vectorResults, List<Chunk> keywordResults, int topK) {
+        int rrfK = 60;
+        Map<UUID, Double> rrfScores = new HashMap<>();
+        Map<UUID, Chunk> chunkMap = new HashMap<>();
+
+        for (int i = 0; i < vectorResults.size(); i++) {
+            Chunk chunk = vectorResults.get(i);
+            chunkMap.putIfAbsent(chunk.getId(), chunk);
+            rrfScores.merge(chunk.getId(), 1.0 / (rrfK + i + 1), Double::sum);
+        }
+
+        for (int i = 0; i < keywordResults.size(); i++) {
+            Chunk chunk = keywordResults.get(i);
+            chunkMap.putIfAbsent(chunk.getId(), chunk);
+            rrfScores.merge(chunk.getId(), 1.0 / (rrfK + i + 1), Double::sum);
+        }
+
+        return rrfScores.entrySet().stream()
+                .sorted(Map.Entry.<UUID, Double>comparingByValue().reversed())
+                .limit(topK)
+                .map(entry -> chunkMap.get(entry.getKey()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 批量执行混合搜索。所有问题的向量一次性批量生成，随后对每个问题并行执行搜索，然后汇总并去重结果。
      *
      * @param questions 问题列表。
      * @param documentIds 用于过滤搜索的可选文档 ID 列表。
@@ -272,6 +313,23 @@ public class RetrievalService {
      */
     @Observed(name = "Batch Hybrid Search",includeInputFields = {"questions"},includeOutFields = {"id","content"},collectionLimit = 10)
     public List<Chunk> batchHybridSearch(List<String> questions, List<UUID> documentIds) {
+        return doBatchHybridSearch(questions, documentIds, null);
+    }
+
+    /**
+     * 批量执行混合搜索，并在每个子查询都得到 RRF 临时结果 (或已完成) 后，把汇总去重的临时结果交给 provisionalListener。
+     * 回调最多一次，发生在搜索线程上；若没有任何子查询走重排序路径则不回调，返回值即最终结果。
+     *
+     * @param provisionalListener 接收汇总后的临时结果，可为 null。
+     */
+    @Observed(name = "Batch Hybrid Search",includeInputFields = {"questions"},includeOutFields = {"id","content"},collectionLimit = 10)
+    public List<Chunk> batchHybridSearch(List<String> questions, List<UUID> documentIds,
+                                         Consumer<List<Chunk>> provisionalListener) {
+        return doBatchHybridSearch(questions, documentIds, provisionalListener);
+    }
+
+    private List<Chunk> doBatchHybridSearch(List<String> questions, List<UUID> documentIds,
+                                            Consumer<List<Chunk>> provisionalListener) {
         if (questions == null || questions.isEmpty()) {
             return Collections.emptyList();
         }
@@ -281,41 +339,144 @@ public class RetrievalService {
         // 使用 ApplicationContext 获取代理对象以确保 @Observed 切面生效
         RetrievalService self = applicationContext.getBean(RetrievalService.class);
 
-        List<Chunk> allChunks = questions.stream()
-                .map(q -> self.hybridSearch(q, documentIds))
-                .flatMap(List::stream)
-                .toList();
+        // 所有子查询的向量合并为一次 embedAll 调用
+        List<float[]> queryEmbeddings = queryEmbeddingService.embedAll(questions);
+
+        ProvisionalResults provisional = provisionalListener != null
+                ? new ProvisionalResults(questions.size(), provisionalListener)
+                : null;
+
+        List<Chunk> allChunks;
+        if (questions.size() == 1) {
+            allChunks = self.hybridSearch(questions.getFirst(), queryEmbeddings.getFirst(), documentIds,
+                    provisional != null ? provisional.listenerFor(0) : null);
+        } else {
+            // 各子查询的向量检索与关键字检索在 searchExecutor 上并发执行
+            List<CompletableFuture<List<Chunk>>> futures = new ArrayList<>(questions.size());
+            for (int i = 0; i < questions.size(); i++) {
+                String question = questions.get(i);
+                float[] queryEmbedding = queryEmbeddings.get(i);
+                Consumer<List<Chunk>> listener = provisional != null ? provisional.listenerFor(i) : null;
+                int index = i;
+                futures.add(CompletableFuture.supplyAsync(TraceContext.wrap(() -> {
+                    List<Chunk> results = self.hybridSearch(question, queryEmbedding, documentIds, listener);
+                    if (provisional != null) {
+                        // 未走重排序的子查询以最终结果参与临时结果汇总
+                        provisional.offer(index, results, false);
+                    }
+                    return results;
+                }), searchExecutor));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+            allChunks = futures.stream()
+                    .map(CompletableFuture::join)
+                    .flatMap(List::stream)
+                    .toList();
+        }
+
+        List<Chunk> distinctChunks = distinctById(allChunks);
+        log.info("批量搜索完成。总片段: {}, 去重后: {}", allChunks.size(), distinctChunks.size());
+        return distinctChunks;
+    }
 
+    private static List<Chunk> distinctById(List<Chunk> chunks) {
         Set<UUID> seenIds = new HashSet<>();
         List<Chunk> distinctChunks = new ArrayList<>();
 
-        for (Chunk c : allChunks) {
+        for (Chunk c : chunks) {
             if (seenIds.add(c.getId())) {
                 distinctChunks.add(c);
             }
         }
-
-        log.info("批量搜索完成。总片段: {}, 去重后: {}", allChunks.size(), distinctChunks.size());
         return distinctChunks;
     }
 
-    private static class ChunkRowMapper implements RowMapper<Chunk> {
-        @Override
-        public Chunk mapRow(ResultSet rs, int rowNum) throws SQLException {
-            Chunk chunk = new Chunk();
-            chunk.setId(UUID.fromString(rs.getString("id")));
-            chunk.setDocumentId(UUID.fromString(rs.getString("document_id")));
-            chunk.setContent(rs.getString("content"));
-            String vectorStr = rs.getString("content_vector");
-            if (vectorStr != null) {
-                chunk.setContentVector(new PGvector(vectorStr));
+    /**
+     * 汇总各子查询的临时结果：每个子查询只计一次，全部到齐且至少有一个来自重排序前的 RRF 结果时回调一次。
+     */
+    private static final class ProvisionalResults {
+        private final AtomicReferenceArray<List<Chunk>> results;
+        private final AtomicInteger remaining;
+        private final Consumer<List<Chunk>> listener;
+        private volatile boolean beforeRerank;
+
+        private ProvisionalResults(int size, Consumer<List<Chunk>> listener) {
+            this.results = new AtomicReferenceArray<>(size);
+            this.remaining = new AtomicInteger(size);
+            this.listener = listener;
+        }
+
+        private Consumer<List<Chunk>> listenerFor(int index) {
+            return chunks -> offer(index, chunks, true);
+        }
+
+        private void offer(int index, List<Chunk> chunks, boolean provisional) {
+            if (provisional) {
+                beforeRerank = true;
+            }
+            if (results.compareAndSet(index, null, chunks) && remaining.decrementAndGet() == 0 && beforeRerank) {
+                List<Chunk> all = new ArrayList<>();
+                for (int i = 0; i < results.length(); i++) {
+                    all.addAll(results.get(i));
+                }
+                try {
+                    listener.accept(distinctById(all));
+                } catch (Exception e) {
+                    log.warn("处理临时检索结果失败", e);
+                }
             }
-            chunk.setChunkIndex(rs.getInt("chunk_index"));
-            chunk.setSourceMeta(rs.getString("source_meta"));
-            chunk.setChunkerName(rs.getString("chunker_name"));
-            chunk.setContentKeywords(rs.getString("content_keywords"));
-            chunk.setCreatedAt(rs.getObject("created_at", java.time.OffsetDateTime.class));
-            return chunk;
         }
     }
+
+    /**
+     * 两阶段检索的第二阶段：按 id 一次性回表，为候选片段补齐正文与元数据，保持输入顺序与已有评分。
+     * 若片段在两阶段之间被删除，则从结果中剔除。
+     */
+    private List<Chunk> hydrate(List<Chunk> candidates, List<UUID> documentIds) {
+        if (candidates.isEmpty()) {
+            return candidates;
+        }
+        Map<UUID, Chunk> hydrated = jdbcClient.sql(HYDRATE_SQL)
+                .params(SqlArrayUtils.uuidArray(candidates.stream().map(Chunk::getId).toList()),
+                        SqlArrayUtils.uuidArray(documentIds))
+                .query(new ChunkRowMapper())
+                .stream()
+                .collect(Collectors.toMap(Chunk::getId, c -> c));
+
+        List<Chunk> results = new ArrayList<>(candidates.size());
+        for (Chunk candidate : candidates) {
+            Chunk full = hydrated.get(candidate.getId());
+            if (full != null) {
+                full.setScore(candidate.getScore());
+                results.add(full);
+            }
+        }
+        log.debug("两阶段检索回表 {} 个片段，命中 {} 个", candidates.size(), results.size());
+        return results;
+    }
+
+    /**
+     * 从语义缓存读取结果并回表。若有片段已不存在（缓存失效前的竞态），视为未命中。
+     */
+    private List<Chunk> loadFromSemanticCache(float[] queryEmbedding, List<UUID> documentIds) {
+        List<SemanticRetrievalCache.CachedChunk> cached = semanticRetrievalCache.lookup(queryEmbedding, documentIds);
+        if (cached == null) {
+            return null;
+        }
+        List<Chunk> stubs = cached.stream().map(c -> {
+            Chunk chunk = new Chunk();
+            chunk.setId(c.id());
+            chunk.setScore(c.score());
+            return chunk;
+        }).toList();
+        List<Chunk> hydrated = hydrate(stubs, documentIds);
+        return hydrated.size() == stubs.size() ? hydrated : null;
+    }
+
+    private Map<String, String> summarizeForSpan(List<Chunk> chunks) {
+        Map<String, String> summary = new LinkedHashMap<>();
+        chunks.stream().limit(10).forEach(c -> summary.put(c.getId().toString(),
+                c.getContent() != null ? StringUtils.left(c.getContent(), 20) : String.valueOf(c.getDocumentId())));
+        return summary;
+    }
 }
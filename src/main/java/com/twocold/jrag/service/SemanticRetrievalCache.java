@@ -0,0 +1,142 @@
+package com.twocold.jrag.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.twocold.jrag.config.RagProperties;
+import com.twocold.jrag.utils.DocumentSetFingerprint;
+import com.twocold.jrag.utils.MmrUtils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 语义检索缓存。
+ * 以「文档集合指纹」分桶，每个桶保存若干 (归一化查询向量 → 最终片段 ID 与分数)。
+ * 新查询在同一文档集合的桶内找到余弦相似度不低于阈值的条目时，直接复用其结果，跳过 ANN 检索与重排序。
+ * 文档重新入库或删除时，包含该文档的所有桶都会被失效。
+ */
+@Slf4j
+@Component
+public class SemanticRetrievalCache {
+
+    private final RagProperties.Retrieval.SemanticCache config;
+    private final Cache<String, Bucket> buckets;
+    private final Counter hits;
+    private final Counter misses;
+
+    public SemanticRetrievalCache(RagProperties ragProperties, MeterRegistry meterRegistry) {
+        this.config = ragProperties.retrieval().semanticCache();
+        if (config != null && config.enabled()) {
+            this.buckets = Caffeine.newBuilder()
+                    .maximumSize(config.maximumDocumentSets())
+                    .expireAfterAccess(config.ttlMinutes(), TimeUnit.MINUTES)
+                    .build();
+            Gauge.builder("rag.semantic_cache.document_sets", buckets, Cache::estimatedSize)
+                    .description("语义检索缓存中的文档集合数量")
+                    .register(meterRegistry);
+            log.info("语义检索缓存已启用，相似度阈值：{}", config.similarityThreshold());
+        } else {
+            this.buckets = null;
+        }
+        this.hits = Counter.builder("rag.semantic_cache.lookups").tag("result", "hit")
+                .description("语义检索缓存查询次数").register(meterRegistry);
+        this.misses = Counter.builder("rag.semantic_cache.lookups").tag("result", "miss")
+                .description("语义检索缓存查询次数").register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return buckets != null;
+    }
+
+    /**
+     * 查找与查询向量足够相近的已缓存结果。
+     *
+     * @param queryEmbedding 查询向量。
+     * @param documentIds 检索的文档集合。
+     * @return 命中时返回按原顺序排列的片段 ID 与分数；未命中返回 null。
+     */
+    public List<CachedChunk> lookup(float[] queryEmbedding, List<UUID> documentIds) {
+        if (buckets == null) {
+            return null;
+        }
+        Bucket bucket = buckets.getIfPresent(DocumentSetFingerprint.of(documentIds));
+        List<CachedChunk> result = bucket != null
+                ? bucket.findSimilar(MmrUtils.normalize(queryEmbedding), config.similarityThreshold())
+                : null;
+        (result != null ? hits : misses).increment();
+        return result;
+    }
+
+    /**
+     * 缓存一次检索的最终结果。
+     */
+    public void put(float[] queryEmbedding, List<UUID> documentIds, List<CachedChunk> results) {
+        if (buckets == null || results.isEmpty()) {
+            return;
+        }
+        Bucket bucket = buckets.get(DocumentSetFingerprint.of(documentIds),
+                k -> new Bucket(Set.copyOf(documentIds), config.maxEntriesPerDocumentSet()));
+        bucket.add(new Entry(MmrUtils.normalize(queryEmbedding), List.copyOf(results)));
+    }
+
+    /**
+     * 失效包含指定文档的所有文档集合。
+     */
+    public void invalidateDocument(UUID documentId) {
+        if (buckets == null) {
+            return;
+        }
+        int before = buckets.asMap().size();
+        buckets.asMap().values().removeIf(bucket -> bucket.documentIds.contains(documentId));
+        log.debug("文档 {} 发生变化，失效 {} 个语义缓存文档集合", documentId, before - buckets.asMap().size());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDocumentChanged(DocumentChangedEvent event) {
+        invalidateDocument(event.documentId());
+    }
+
+    /**
+     * 缓存的片段引用。
+     */
+    public record CachedChunk(UUID id, Double score) {}
+
+    private record Entry(float[] normalizedEmbedding, List<CachedChunk> results) {}
+
+    private static final class Bucket {
+        private final Set<UUID> documentIds;
+        private final int maxEntries;
+        private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+
+        private Bucket(Set<UUID> documentIds, int maxEntries) {
+            this.documentIds = documentIds;
+            this.maxEntries = maxEntries;
+        }
+
+        synchronized void add(Entry entry) {
+            if (entries.size() >= maxEntries) {
+                entries.pollLast();
+            }
+            entries.addFirst(entry);
+        }
+
+        synchronized List<CachedChunk> findSimilar(float[] normalizedQuery, double threshold) {
+            Entry best = null;
+            double bestSimilarity = threshold;
+            for (Entry entry : entries) {
+                double similarity = MmrUtils.dot(normalizedQuery, entry.normalizedEmbedding);
+                if (similarity >= bestSimilarity) {
+                    bestSimilarity = similarity;
+                    best = entry;
+                }
+            }
+            return best != null ? best.results : null;
+        }
+    }
+}
@@ -0,0 +1,456 @@
+package com.twocold.jrag.service.keyword;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 进程内 BM25 倒排索引。
+ * 每个片段分配一个递增的 int 编号，同一文档的片段在一次写入中连续编号，因此文档对应若干个连续的编号区间。
+ * 倒排表按编号递增追加，以 varint 编码 (编号差值, 词频) 对，每 {@value PostingList#BLOCK_SIZE} 条记录一个跳表点；
+ * 按文档过滤时只解码落在允许区间内的块，热点文档集合上的查询与倒排表总长度无关。
+ * 删除采用墓碑标记，文档频率在重建前包含已删除片段 (对 idf 的影响很小)，墓碑比例过高时由调用方整体重建。
+ * 查询持有读锁可并发执行；写入持有写锁串行执行。
+ */
+final class Bm25Index {
+
+    private final double k1;
+    private final double b;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<String, PostingList> postings = new HashMap<>();
+    private UUID[] chunkIds = new UUID[1024];
+    private int[] documentOrdinals = new int[1024];
+    private int[] lengths = new int[1024];
+    private final BitSet deleted = new BitSet();
+    private final Map<UUID, Integer> ordinalByDocument = new HashMap<>();
+    private final List<UUID> documents = new ArrayList<>();
+    // ranges.get(ordinal) = [起始编号, 结束编号 (不含), ...]
+    private final List<IntList> ranges = new ArrayList<>();
+
+    private int size;
+    private int deletedCount;
+    private long totalLength;
+
+    Bm25Index(double k1, double b) {
+        this.k1 = k1;
+        this.b = b;
+    }
+
+    int liveCount() {
+        lock.readLock().lock();
+        try {
+            return size - deletedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int deletedCount() {
+        lock.readLock().lock();
+        try {
+            return deletedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int termCount() {
+        lock.readLock().lock();
+        try {
+            return postings.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 替换一个文档的全部片段。已有片段被标记删除，新片段连续编号追加。
+     *
+     * @param documentId 文档 ID。
+     * @param chunks     文档的片段 ID 与以空格分隔的分词结果 (content_keywords)。
+     */
+    void replaceDocument(UUID documentId, List<Map.Entry<UUID, String>> chunks) {
+        lock.writeLock().lock();
+        try {
+            int ordinal = removeDocumentLocked(documentId);
+            if (chunks.isEmpty()) {
+                return;
+            }
+            if (ordinal < 0) {
+                ordinal = documents.size();
+                documents.add(documentId);
+                ordinalByDocument.put(documentId, ordinal);
+                ranges.add(new IntList());
+            }
+            int start = size;
+            Map<String, Integer> termFrequencies = new HashMap<>();
+            for (Map.Entry<UUID, String> chunk : chunks) {
+                int doc = size++;
+                ensureCapacity(size);
+                chunkIds[doc] = chunk.getKey();
+                documentOrdinals[doc] = ordinal;
+
+                termFrequencies.clear();
+                int length = tokenize(chunk.getValue(), termFrequencies);
+                lengths[doc] = length;
+                totalLength += length;
+                for (Map.Entry<String, Integer> entry : termFrequencies.entrySet()) {
+                    postings.computeIfAbsent(entry.getKey(), t -> new PostingList()).add(doc, entry.getValue());
+                }
+            }
+            IntList documentRanges = ranges.get(ordinal);
+            documentRanges.add(start);
+            documentRanges.add(size);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 移除指定文档的全部片段 (墓碑标记)。
+     */
+    int removeDocument(UUID documentId) {
+        lock.writeLock().lock();
+        try {
+            int before = deletedCount;
+            removeDocumentLocked(documentId);
+            return deletedCount - before;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 在指定文档范围内按 BM25 检索前 k 个片段 (查询词之间为 OR 语义)。
+     */
+    List<Hit> search(Collection<String> terms, Collection<UUID> documentIds, int k) {
+        lock.readLock().lock();
+        try {
+            int live = size - deletedCount;
+            if (live <= 0 || k <= 0) {
+                return Collections.emptyList();
+            }
+
+            // 允许的编号区间，按起点排序
+            IntList allowed = new IntList();
+            for (UUID documentId : new HashSet<>(documentIds)) {
+                Integer ordinal = ordinalByDocument.get(documentId);
+                if (ordinal != null) {
+                    IntList documentRanges = ranges.get(ordinal);
+                    for (int i = 0; i < documentRanges.size; i++) {
+                        allowed.add(documentRanges.data[i]);
+                    }
+                }
+            }
+            if (allowed.size == 0) {
+                return Collections.emptyList();
+            }
+            int[] bounds = sortRanges(allowed);
+
+            double avgLength = Math.max((double) totalLength / size, 1.0);
+            IntFloatMap scores = new IntFloatMap();
+            for (String term : new LinkedHashSet<>(terms)) {
+                PostingList postingList = postings.get(normalize(term));
+                if (postingList == null) {
+                    continue;
+                }
+                int df = postingList.count;
+                float idf = (float) Math.log(1.0 + (live - df + 0.5) / (df + 0.5));
+                for (int i = 0; i < bounds.length; i += 2) {
+                    postingList.forEachInRange(bounds[i], bounds[i + 1], (doc, tf) -> {
+                        if (deleted.get(doc)) {
+                            return;
+                        }
+                        double norm = k1 * (1 - b + b * lengths[doc] / avgLength);
+                        scores.add(doc, (float) (idf * tf * (k1 + 1) / (tf + norm)));
+                    });
+                }
+            }
+            if (scores.size() == 0) {
+                return Collections.emptyList();
+            }
+
+            // 最小堆保留前 k 个
+            PriorityQueue<Hit> heap = new PriorityQueue<>(k + 1, Comparator.comparingDouble(Hit::score));
+            scores.forEach((doc, score) -> {
+                if (heap.size() < k || score > heap.peek().score()) {
+                    heap.add(new Hit(chunkIds[doc], documents.get(documentOrdinals[doc]), score));
+                    if (heap.size() > k) {
+                        heap.poll();
+                    }
+                }
+            });
+            List<Hit> hits = new ArrayList<>(heap);
+            hits.sort(Comparator.comparingDouble(Hit::score).reversed());
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int removeDocumentLocked(UUID documentId) {
+        Integer ordinal = ordinalByDocument.get(documentId);
+        if (ordinal == null) {
+            return -1;
+        }
+        IntList documentRanges = ranges.get(ordinal);
+        for (int i = 0; i < documentRanges.size; i += 2) {
+            for (int doc = documentRanges.data[i]; doc < documentRanges.data[i + 1]; doc++) {
+                if (!deleted.get(doc)) {
+                    deleted.set(doc);
+                    deletedCount++;
+                }
+            }
+        }
+        documentRanges.clear();
+        return ordinal;
+    }
+
+    /**
+     * 以空白切分 content_keywords 并统计词频，返回词数 (文档长度)。
+     */
+    private static int tokenize(String keywords, Map<String, Integer> termFrequencies) {
+        if (keywords == null || keywords.isBlank()) {
+            return 0;
+        }
+        int length = 0;
+        int n = keywords.length();
+        int i = 0;
+        while (i < n) {
+            while (i < n && Character.isWhitespace(keywords.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < n && !Character.isWhitespace(keywords.charAt(i))) {
+                i++;
+            }
+            if (i > start) {
+                termFrequencies.merge(normalize(keywords.substring(start, i)), 1, Integer::sum);
+                length++;
+            }
+        }
+        return length;
+    }
+
+    // 与 to_tsvector('simple', ...) 一致：不区分大小写
+    private static String normalize(String term) {
+        return term.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * 将 [start, end) 区间对按起点排序。同一片段编号只属于一个文档，区间之间不会重叠。
+     */
+    private static int[] sortRanges(IntList pairs) {
+        int count = pairs.size / 2;
+        long[] packed = new long[count];
+        for (int i = 0; i < count; i++) {
+            packed[i] = ((long) pairs.data[2 * i] << 32) | (pairs.data[2 * i + 1] & 0xFFFFFFFFL);
+        }
+        Arrays.sort(packed);
+        int[] bounds = new int[count * 2];
+        for (int i = 0; i < count; i++) {
+            bounds[2 * i] = (int) (packed[i] >>> 32);
+            bounds[2 * i + 1] = (int) packed[i];
+        }
+        return bounds;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > chunkIds.length) {
+            int newLength = Math.max(capacity, chunkIds.length * 2);
+            chunkIds = Arrays.copyOf(chunkIds, newLength);
+            documentOrdinals = Arrays.copyOf(documentOrdinals, newLength);
+            lengths = Arrays.copyOf(lengths, newLength);
+        }
+    }
+
+    /**
+     * 检索结果。
+     */
+    record Hit(UUID chunkId, UUID documentId, float score) {}
+
+    @FunctionalInterface
+    private interface PostingConsumer {
+        void accept(int doc, int tf);
+    }
+
+    /**
+     * 压缩倒排表：varint 编码的 (与上一条的编号差值, 词频)，每 BLOCK_SIZE 条记录一个跳表点 (块前一条的编号与字节偏移)。
+     */
+    private static final class PostingList {
+        private static final int BLOCK_SIZE = 64;
+
+        private byte[] data = new byte[16];
+        private int length;
+        private int count;
+        private int lastDoc = -1;
+        private int[] skipBases = new int[1];
+        private int[] skipOffsets = new int[1];
+        private int skipCount;
+
+        private void add(int doc, int tf) {
+            if (count % BLOCK_SIZE == 0) {
+                if (skipCount == skipBases.length) {
+                    skipBases = Arrays.copyOf(skipBases, skipCount * 2);
+                    skipOffsets = Arrays.copyOf(skipOffsets, skipCount * 2);
+                }
+                skipBases[skipCount] = lastDoc;
+                skipOffsets[skipCount] = length;
+                skipCount++;
+            }
+            writeVarInt(doc - lastDoc);
+            writeVarInt(tf);
+            lastDoc = doc;
+            count++;
+        }
+
+        /**
+         * 依次回调编号位于 [from, to) 内的记录。
+         */
+        private void forEachInRange(int from, int to, PostingConsumer consumer) {
+            if (count == 0 || from > lastDoc) {
+                return;
+            }
+            // 找到最后一个「块前编号 < from」的块，from 之后的记录从该块开始
+            int lo = 0;
+            int hi = skipCount - 1;
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (skipBases[mid] < from) {
+                    lo = mid;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            int doc = skipBases[lo];
+            int offset = skipOffsets[lo];
+            while (offset < length) {
+                int value = 0;
+                int shift = 0;
+                byte current;
+                do {
+                    current = data[offset++];
+                    value |= (current & 0x7F) << shift;
+                    shift += 7;
+                } while (current < 0);
+                doc += value;
+
+                int tf = 0;
+                shift = 0;
+                do {
+                    current = data[offset++];
+                    tf |= (current & 0x7F) << shift;
+                    shift += 7;
+                } while (current < 0);
+
+                if (doc >= to) {
+                    return;
+                }
+                if (doc >= from) {
+                    consumer.accept(doc, tf);
+                }
+            }
+        }
+
+        private void writeVarInt(int value) {
+            if (length + 5 > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, length + 5));
+            }
+            while ((value & ~0x7F) != 0) {
+                data[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data[length++] = (byte) value;
+        }
+    }
+
+    private static final class IntList {
+        private int[] data = new int[4];
+        private int size;
+
+        private void add(int value) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = value;
+        }
+
+        private void clear() {
+            data = new int[4];
+            size = 0;
+        }
+    }
+
+    @FunctionalInterface
+    private interface IntFloatConsumer {
+        void accept(int key, float value);
+    }
+
+    /**
+     * 累加 BM25 分数用的 int → float 开放寻址哈希表，避免装箱。
+     */
+    private static final class IntFloatMap {
+        private static final int EMPTY = -1;
+
+        private int[] keys = newKeys(64);
+        private float[] values = new float[64];
+        private int size;
+
+        private static int[] newKeys(int capacity) {
+            int[] keys = new int[capacity];
+            Arrays.fill(keys, EMPTY);
+            return keys;
+        }
+
+        private int size() {
+            return size;
+        }
+
+        private void add(int key, float delta) {
+            if (size * 2 >= keys.length) {
+                grow();
+            }
+            int mask = keys.length - 1;
+            int slot = mix(key) & mask;
+            while (keys[slot] != EMPTY && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (keys[slot] == EMPTY) {
+                keys[slot] = key;
+                size++;
+            }
+            values[slot] += delta;
+        }
+
+        private void forEach(IntFloatConsumer consumer) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != EMPTY) {
+                    consumer.accept(keys[i], values[i]);
+                }
+            }
+        }
+
+        private void grow() {
+            int[] oldKeys = keys;
+            float[] oldValues = values;
+            keys = newKeys(oldKeys.length * 2);
+            values = new float[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    int slot = mix(oldKeys[i]) & mask;
+                    while (keys[slot] != EMPTY) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+
+        private static int mix(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
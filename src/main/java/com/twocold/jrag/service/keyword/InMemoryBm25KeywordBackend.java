@@ -0,0 +1,221 @@
+package com.twocold.jrag.service.keyword;
+
+import com.twocold.jrag.config.RagProperties;
+import com.twocold.jrag.domain.Chunk;
+import com.twocold.jrag.service.DocumentChangedEvent;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 进程内 BM25 关键字检索后端 (app.rag.retrieval.keyword-backend.type=memory)。
+ * 启动后从 chunks.content_keywords (入库时由 {@link com.twocold.jrag.service.tokenizer.Tokenizer} 生成的分词结果) 构建倒排索引，之后通过 {@link DocumentChangedEvent} 增量同步。
+ * 索引尚未构建完成时回退到 {@link PgKeywordSearchBackend}。
+ */
+@Slf4j
+@Primary
+@Component
+@ConditionalOnProperty(name = "app.rag.retrieval.keyword-backend.type", havingValue = "memory")
+public class InMemoryBm25KeywordBackend implements KeywordSearchBackend {
+
+    // 按文档排序，使同一文档的片段在索引中连续编号
+    private static final String LOAD_SQL = """
+            SELECT c.id, c.document_id, c.content_keywords
+            FROM chunks c
+            JOIN documents d ON d.id = c.document_id
+            ORDER BY c.document_id, c.chunk_index
+            """;
+
+    private static final String LOAD_DOCUMENT_SQL = """
+            SELECT c.id, c.content_keywords
+            FROM chunks c
+            JOIN documents d ON d.id = c.document_id
+            WHERE c.document_id = ?
+            ORDER BY c.chunk_index
+            """;
+
+    private final RagProperties.Retrieval.KeywordBackend config;
+    private final PgKeywordSearchBackend fallback;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final Timer searchTimer;
+
+    private volatile Bm25Index index;
+    private final AtomicBoolean building = new AtomicBoolean();
+    private final Set<UUID> changedWhileBuilding = ConcurrentHashMap.newKeySet();
+
+    public InMemoryBm25KeywordBackend(RagProperties ragProperties, PgKeywordSearchBackend fallback, DataSource dataSource,
+                                      TransactionTemplate transactionTemplate, MeterRegistry meterRegistry) {
+        this.config = ragProperties.retrieval().keywordBackend();
+        this.fallback = fallback;
+        this.transactionTemplate = transactionTemplate;
+        // 启动加载使用游标分批读取 (需在事务内)，避免一次性把整张表读入内存
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(1000);
+        this.searchTimer = Timer.builder("rag.keyword_search.latency").tag("backend", name())
+                .description("关键字检索耗时").register(meterRegistry);
+        Gauge.builder("rag.keyword_index.size", this, b -> b.index != null ? b.index.liveCount() : 0)
+                .description("进程内倒排索引中的片段数量").register(meterRegistry);
+        Gauge.builder("rag.keyword_index.terms", this, b -> b.index != null ? b.index.termCount() : 0)
+                .description("进程内倒排索引中的词项数量").register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        rebuildAsync();
+    }
+
+    @Override
+    public List<Chunk> search(List<String> terms, List<UUID> documentIds, int limit, boolean withContent) {
+        Bm25Index current = index;
+        if (current == null) {
+            log.debug("进程内倒排索引尚未就绪，回退到 PostgreSQL 全文检索");
+            return fallback.search(terms, documentIds, limit, withContent);
+        }
+
+        long start = System.nanoTime();
+        List<Bm25Index.Hit> hits = current.search(terms, documentIds, limit);
+        searchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+        // 只返回 id / documentId，正文由调用方回表
+        List<Chunk> results = new ArrayList<>(hits.size());
+        for (Bm25Index.Hit hit : hits) {
+            Chunk chunk = new Chunk();
+            chunk.setId(hit.chunkId());
+            chunk.setDocumentId(hit.documentId());
+            results.add(chunk);
+        }
+        return results;
+    }
+
+    @Override
+    public String name() {
+        return "memory";
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDocumentChanged(DocumentChangedEvent event) {
+        // 构建期间的变化在新索引就绪后按 Postgres 的最新状态重放
+        if (building.get()) {
+            changedWhileBuilding.add(event.documentId());
+        }
+        try {
+            if (event.deleted()) {
+                Bm25Index current = index;
+                if (current != null) {
+                    int removed = current.removeDocument(event.documentId());
+                    log.debug("文档 {} 已删除，从进程内倒排索引移除 {} 个片段", event.documentId(), removed);
+                    rebuildIfFragmented(current);
+                }
+            } else {
+                syncDocument(event.documentId());
+            }
+        } catch (Exception e) {
+            log.error("同步文档 {} 到进程内倒排索引失败", event.documentId(), e);
+        }
+    }
+
+    private void rebuildAsync() {
+        if (building.compareAndSet(false, true)) {
+            Thread.ofVirtual().name("bm25-index-builder").start(this::rebuild);
+        }
+    }
+
+    private void rebuild() {
+        try {
+            long start = System.currentTimeMillis();
+            Bm25Index fresh = new Bm25Index(config.k1(), config.b());
+            DocumentBatch batch = new DocumentBatch(fresh);
+            transactionTemplate.executeWithoutResult(status -> jdbcTemplate.query(LOAD_SQL, (RowCallbackHandler) rs ->
+                    batch.add(UUID.fromString(rs.getString("document_id")),
+                            UUID.fromString(rs.getString("id")), rs.getString("content_keywords"))));
+            batch.flush();
+            index = fresh;
+            log.info("进程内倒排索引构建完成：{} 个片段，{} 个词项，耗时 {} 毫秒",
+                    fresh.liveCount(), fresh.termCount(), System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.error("构建进程内倒排索引失败，继续使用 PostgreSQL 全文检索", e);
+        } finally {
+            building.set(false);
+            for (UUID documentId : List.copyOf(changedWhileBuilding)) {
+                changedWhileBuilding.remove(documentId);
+                try {
+                    syncDocument(documentId);
+                } catch (Exception e) {
+                    log.error("同步文档 {} 到进程内倒排索引失败", documentId, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 按 Postgres 中的当前状态重新加载一个文档的全部片段。文档已删除时结果为空，相当于移除。
+     */
+    private void syncDocument(UUID documentId) {
+        Bm25Index current = index;
+        if (current == null) {
+            return;
+        }
+        List<Map.Entry<UUID, String>> chunks = jdbcTemplate.query(LOAD_DOCUMENT_SQL, (rs, rowNum) ->
+                Map.entry(UUID.fromString(rs.getString("id")), Objects.toString(rs.getString("content_keywords"), "")),
+                documentId);
+        current.replaceDocument(documentId, chunks);
+        log.debug("文档 {} 已同步到进程内倒排索引，共 {} 个片段", documentId, chunks.size());
+        rebuildIfFragmented(current);
+    }
+
+    /**
+     * 墓碑片段仍占用倒排表并计入文档频率，占比超过阈值时从 Postgres 重建索引。
+     */
+    private void rebuildIfFragmented(Bm25Index current) {
+        int deleted = current.deletedCount();
+        if (deleted > 0 && deleted > current.liveCount() * config.rebuildDeletedRatio()) {
+            log.info("进程内倒排索引墓碑片段 {} 个，超过阈值，开始重建", deleted);
+            rebuildAsync();
+        }
+    }
+
+    /**
+     * 将按文档排序的流式结果按文档聚合后写入索引。
+     */
+    private static final class DocumentBatch {
+        private final Bm25Index index;
+        private final List<Map.Entry<UUID, String>> chunks = new ArrayList<>();
+        private UUID documentId;
+
+        private DocumentBatch(Bm25Index index) {
+            this.index = index;
+        }
+
+        private void add(UUID documentId, UUID chunkId, String keywords) {
+            if (!documentId.equals(this.documentId)) {
+                flush();
+                this.documentId = documentId;
+            }
+            chunks.add(Map.entry(chunkId, Objects.toString(keywords, "")));
+        }
+
+        private void flush() {
+            if (documentId != null && !chunks.isEmpty()) {
+                index.replaceDocument(documentId, List.copyOf(chunks));
+            }
+            chunks.clear();
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.twocold.jrag.service.keyword;
+
+import com.twocold.jrag.domain.Chunk;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 关键字检索后端。混合搜索中的关键字召回通过该接口完成，Postgres (chunks 表) 始终是数据的唯一来源。
+ */
+public interface KeywordSearchBackend {
+
+    /**
+     * 在指定文档范围内按查询词检索片段，任一查询词命中即可 (OR 语义)。
+     *
+     * @param terms       去重后的查询词 (已分词、过滤停用词)。
+     * @param documentIds 限定检索的文档 ID 列表。
+     * @param limit       返回数量上限。
+     * @param withContent 是否需要正文与元数据。实现可以忽略该提示，只返回 id / documentId，调用方需为缺少正文的片段回表。
+     * @return 按相关度降序排列的片段。
+     */
+    List<Chunk> search(List<String> terms, List<UUID> documentIds, int limit, boolean withContent);
+
+    /**
+     * 后端名称，用于日志与指标。
+     */
+    String name();
+}
@@ -0,0 +1,56 @@
+package com.twocold.jrag.service.keyword;
+
+import com.twocold.jrag.domain.Chunk;
+import com.twocold.jrag.repository.ChunkCandidateRowMapper;
+import com.twocold.jrag.repository.ChunkRowMapper;
+import com.twocold.jrag.utils.SqlArrayUtils;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 基于 PostgreSQL 全文检索的关键字检索后端 (默认)：content_search @@ to_tsquery，按 ts_rank 排序。
+ */
+@Component
+@RequiredArgsConstructor
+public class PgKeywordSearchBackend implements KeywordSearchBackend {
+
+    private final JdbcClient jdbcClient;
+
+    // chunks 按 document_id 哈希分区，document_id = ANY(?) 让规划器只扫描文档集合所在的分区。
+    private static final String KEYWORD_SEARCH_SQL = """
+            SELECT id, document_id, content, NULL::bytea AS content_vector, chunk_index, source_meta, chunker_name, content_keywords, created_at
+            FROM chunks
+            WHERE document_id = ANY(?)
+            AND content_search @@ to_tsquery('simple', ?)
+            ORDER BY ts_rank(content_search, to_tsquery('simple', ?)) DESC
+            LIMIT ?
+            """;
+
+    // 两阶段检索：第一阶段只取排序所需的 id / document_id
+    private static final String KEYWORD_CANDIDATE_SQL = """
+            SELECT id, document_id, NULL::bytea AS content_vector
+            FROM chunks
+            WHERE document_id = ANY(?)
+            AND content_search @@ to_tsquery('simple', ?)
+            ORDER BY ts_rank(content_search, to_tsquery('simple', ?)) DESC
+            LIMIT ?
+            """;
+
+    @Override
+    public List<Chunk> search(List<String> terms, List<UUID> documentIds, int limit, boolean withContent) {
+        String tsQuery = String.join(" | ", terms);
+        return jdbcClient.sql(withContent ? KEYWORD_SEARCH_SQL : KEYWORD_CANDIDATE_SQL)
+                .params(SqlArrayUtils.uuidArray(documentIds), tsQuery, tsQuery, limit)
+                .query(withContent ? new ChunkRowMapper() : new ChunkCandidateRowMapper())
+                .list();
+    }
+
+    @Override
+    public String name() {
+        return "postgres";
+    }
+}
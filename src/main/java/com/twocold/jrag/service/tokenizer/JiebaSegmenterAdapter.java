@@ -0,0 +1,31 @@
+package com.twocold.jrag.service.tokenizer;
+
+import com.huaban.analysis.jieba.JiebaSegmenter;
+import com.huaban.analysis.jieba.SegToken;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 基于 jieba 的默认分词器，使用搜索引擎模式 (长词再切出短词，提高召回)。
+ * 词典在进程内只加载一次。
+ */
+@Component
+public class JiebaSegmenterAdapter implements Segmenter {
+
+    private final JiebaSegmenter jiebaSegmenter = new JiebaSegmenter();
+
+    @Override
+    public void segment(CharSequence text, Consumer<String> sink) {
+        List<SegToken> tokens = jiebaSegmenter.process(text.toString(), JiebaSegmenter.SegMode.SEARCH);
+        for (SegToken token : tokens) {
+            sink.accept(token.word);
+        }
+    }
+
+    @Override
+    public String name() {
+        return "jieba";
+    }
+}
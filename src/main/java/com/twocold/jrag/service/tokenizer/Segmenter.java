@@ -0,0 +1,20 @@
+package com.twocold.jrag.service.tokenizer;
+
+import java.util.function.Consumer;
+
+/**
+ * 分词器 SPI。实现注册为 Spring Bean，由 app.rag.tokenizer.segmenter 按 {@link #name()} 选择。
+ * 实现必须是线程安全的：同一实例会被入库与检索线程并发调用。
+ */
+public interface Segmenter {
+
+    /**
+     * 切分文本，按出现顺序把每个词交给 sink (不做停用词过滤)。
+     */
+    void segment(CharSequence text, Consumer<String> sink);
+
+    /**
+     * 分词器名称，用于配置选择与日志。
+     */
+    String name();
+}
@@ -0,0 +1,114 @@
+package com.twocold.jrag.service.tokenizer;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.twocold.jrag.config.RagProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * 共享的分词服务。入库 (content_keywords) 与检索 (关键字查询) 使用同一个分词器与同一份停用词表，保证两侧切分一致。
+ * 查询分词结果带缓存：重写、分解后的子查询以及 Agent 工具循环中的重复查询不再重复分词。
+ */
+@Slf4j
+@Component
+public class Tokenizer {
+
+    private final Segmenter segmenter;
+    private final Set<String> stopWords;
+    private final Cache<String, List<String>> queryCache;
+
+    public Tokenizer(List<Segmenter> segmenters, RagProperties ragProperties) {
+        RagProperties.Tokenizer config = ragProperties.tokenizer();
+        this.segmenter = segmenters.stream()
+                .filter(s -> s.name().equalsIgnoreCase(config.segmenter()))
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("未找到分词器：" + config.segmenter()));
+        this.stopWords = loadStopWords();
+        this.queryCache = Caffeine.newBuilder()
+                .maximumSize(config.queryCacheSize())
+                .build();
+        log.info("分词器：{}，停用词 {} 个，查询分词缓存 {} 条", segmenter.name(), stopWords.size(), config.queryCacheSize());
+    }
+
+    /**
+     * 分词并过滤停用词与空白，按出现顺序把每个词交给 sink。不创建中间集合。
+     */
+    public void tokenize(CharSequence text, Consumer<String> sink) {
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+        segmenter.segment(text, word -> {
+            if (!word.isBlank() && !stopWords.contains(word)) {
+                sink.accept(word);
+            }
+        });
+    }
+
+    /**
+     * 入库用：以空格连接过滤后的分词结果，写入 chunks.content_keywords。
+     */
+    public String keywords(CharSequence text) {
+        StringBuilder builder = new StringBuilder(text != null ? text.length() + 16 : 0);
+        tokenize(text, word -> {
+            if (!builder.isEmpty()) {
+                builder.append(' ');
+            }
+            builder.append(word);
+        });
+        return builder.toString();
+    }
+
+    /**
+     * 检索用：去重后的查询词 (保持出现顺序)。若全部是停用词，则退回不过滤停用词的结果，避免查询为空。
+     * 结果被缓存共享，不可修改。
+     */
+    public List<String> queryTerms(String query) {
+        if (query == null || query.isBlank()) {
+            return List.of();
+        }
+        return queryCache.get(query, this::doQueryTerms);
+    }
+
+    private List<String> doQueryTerms(String query) {
+        Set<String> terms = new LinkedHashSet<>();
+        tokenize(query, terms::add);
+        if (terms.isEmpty()) {
+            segmenter.segment(query, word -> {
+                if (!word.isBlank()) {
+                    terms.add(word);
+                }
+            });
+        }
+        return List.copyOf(terms);
+    }
+
+    private static Set<String> loadStopWords() {
+        Set<String> words = new HashSet<>();
+        try {
+            ClassPathResource resource = new ClassPathResource("stopwords.txt");
+            if (resource.exists()) {
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(resource.getInputStream(), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (!line.trim().isEmpty()) {
+                            words.add(line.trim());
+                        }
+                    }
+                }
+            } else {
+                log.error("资源中未找到 stopwords.txt。");
+            }
+        } catch (Exception e) {
+            log.error("加载停用词失败", e);
+        }
+        return Set.copyOf(words);
+    }
+}
@@ -0,0 +1,534 @@
+package com.twocold.jrag.service.vector;
+
+import com.twocold.jrag.utils.MmrUtils;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 进程内 HNSW 近似最近邻索引 (余弦相似度)。
+ * 向量归一化后存放在堆外 ({@link OffHeapVectorStore})，图结构与片段/文档映射保存在堆内。
+ * 删除采用墓碑标记：被删除的节点仍参与图遍历以保持连通性，但不会出现在结果中，
+ * 墓碑比例过高时由调用方整体重建。
+ * 查询持有读锁可并发执行；写入持有写锁串行执行。
+ */
+final class HnswIndex {
+
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final OffHeapVectorStore vectors;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // links[node][level] = [邻居数量, 邻居1, 邻居2, ...]
+    private int[][][] links = new int[1024][][];
+    private UUID[] chunkIds = new UUID[1024];
+    private int[] documentOrdinals = new int[1024];
+    private final BitSet deleted = new BitSet();
+    private final Map<UUID, Integer> nodeByChunk = new HashMap<>();
+    private final Map<UUID, Integer> ordinalByDocument = new HashMap<>();
+    private final List<UUID> documents = new ArrayList<>();
+    private final List<IntList> nodesByDocument = new ArrayList<>();
+
+    private int size;
+    private int deletedCount;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    HnswIndex(int dimension, int m, int efConstruction) {
+        this.m = m;
+        this.maxM0 = m * 2;
+        this.efConstruction = efConstruction;
+        this.levelMultiplier = 1.0 / Math.log(m);
+        this.vectors = new OffHeapVectorStore(dimension);
+    }
+
+    int dimension() {
+        return vectors.dimension();
+    }
+
+    int liveCount() {
+        lock.readLock().lock();
+        try {
+            return size - deletedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int deletedCount() {
+        lock.readLock().lock();
+        try {
+            return deletedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    long offHeapBytes() {
+        lock.readLock().lock();
+        try {
+            return vectors.offHeapBytes();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 插入或替换一个片段的向量。
+     */
+    void add(UUID chunkId, UUID documentId, float[] vector) {
+        float[] normalized = MmrUtils.normalize(vector);
+        lock.writeLock().lock();
+        try {
+            addLocked(chunkId, documentId, normalized);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 移除指定文档的全部片段 (墓碑标记)。
+     */
+    int removeDocument(UUID documentId) {
+        lock.writeLock().lock();
+        try {
+            return removeDocumentLocked(documentId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 替换一个文档的全部片段。向量在加锁前归一化，移除旧片段与插入新片段在同一次写锁内完成，
+     * 并发查询只会看到替换前或替换后的完整文档。
+     *
+     * @param documentId 文档 ID。
+     * @param chunks     文档的片段 ID 与向量；为空时相当于移除文档。
+     */
+    void replaceDocument(UUID documentId, List<Map.Entry<UUID, float[]>> chunks) {
+        List<float[]> normalized = new ArrayList<>(chunks.size());
+        for (Map.Entry<UUID, float[]> chunk : chunks) {
+            normalized.add(MmrUtils.normalize(chunk.getValue()));
+        }
+        lock.writeLock().lock();
+        try {
+            removeDocumentLocked(documentId);
+            for (int i = 0; i < chunks.size(); i++) {
+                addLocked(chunks.get(i).getKey(), documentId, normalized.get(i));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void addLocked(UUID chunkId, UUID documentId, float[] normalized) {
+        Integer existing = nodeByChunk.get(chunkId);
+        if (existing != null) {
+            markDeleted(existing);
+        }
+        int node = vectors.add(normalized);
+        ensureCapacity(node + 1);
+        int ordinal = ordinalByDocument.computeIfAbsent(documentId, id -> {
+            documents.add(id);
+            nodesByDocument.add(new IntList());
+            return documents.size() - 1;
+        });
+        chunkIds[node] = chunkId;
+        documentOrdinals[node] = ordinal;
+        nodeByChunk.put(chunkId, node);
+        nodesByDocument.get(ordinal).add(node);
+        size = node + 1;
+        insert(node, normalized);
+    }
+
+    private int removeDocumentLocked(UUID documentId) {
+        Integer ordinal = ordinalByDocument.get(documentId);
+        if (ordinal == null) {
+            return 0;
+        }
+        IntList nodes = nodesByDocument.get(ordinal);
+        int removed = 0;
+        for (int i = 0; i < nodes.size; i++) {
+            if (!deleted.get(nodes.data[i])) {
+                markDeleted(nodes.data[i]);
+                removed++;
+            }
+        }
+        nodes.clear();
+        return removed;
+    }
+
+    /**
+     * 在指定文档范围内检索最相近的 k 个片段。
+     * 候选节点数不超过 exactSearchThreshold 时直接对这些节点做精确扫描；
+     * 否则在图遍历过程中按文档过滤结果集，并按过滤选择性放大 ef，保证能凑满 k 个结果。
+     */
+    List<Hit> search(float[] query, Collection<UUID> documentIds, int k, int minEf, int maxEf, int exactSearchThreshold) {
+        float[] normalized = MmrUtils.normalize(query);
+        lock.readLock().lock();
+        try {
+            if (entryPoint < 0 || k <= 0) {
+                return Collections.emptyList();
+            }
+            BitSet allowed = new BitSet(documents.size());
+            int candidateCount = 0;
+            for (UUID documentId : documentIds) {
+                Integer ordinal = ordinalByDocument.get(documentId);
+                if (ordinal != null && !allowed.get(ordinal)) {
+                    allowed.set(ordinal);
+                    candidateCount += nodesByDocument.get(ordinal).size;
+                }
+            }
+            if (candidateCount == 0) {
+                return Collections.emptyList();
+            }
+
+            NodeQueue results;
+            if (candidateCount <= exactSearchThreshold) {
+                results = exactSearch(normalized, allowed, k);
+            } else {
+                int live = Math.max(size - deletedCount, 1);
+                // 过滤后只剩 candidateCount / live 的节点可以进入结果，ef 按比例放大
+                long scaledEf = (long) Math.max(k, minEf) * live / candidateCount;
+                int ef = Math.clamp(scaledEf, Math.max(k, minEf), Math.max(Math.max(k, minEf), maxEf));
+                int ep = entryPoint;
+                for (int level = maxLevel; level > 0; level--) {
+                    ep = greedyClosest(normalized, ep, level);
+                }
+                results = searchLayer(normalized, ep, ef, 0, allowed);
+            }
+
+            int[] nodes = results.drainDescending();
+            List<Hit> hits = new ArrayList<>(Math.min(k, nodes.length));
+            for (int i = 0; i < nodes.length && hits.size() < k; i++) {
+                int node = nodes[i];
+                hits.add(new Hit(chunkIds[node], documents.get(documentOrdinals[node]),
+                        vectors.dot(node, normalized), vectors.get(node)));
+            }
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private NodeQueue exactSearch(float[] query, BitSet allowed, int k) {
+        NodeQueue results = NodeQueue.minHeap(k + 1);
+        for (int ordinal = allowed.nextSetBit(0); ordinal >= 0; ordinal = allowed.nextSetBit(ordinal + 1)) {
+            IntList nodes = nodesByDocument.get(ordinal);
+            for (int i = 0; i < nodes.size; i++) {
+                int node = nodes.data[i];
+                if (deleted.get(node)) {
+                    continue;
+                }
+                float similarity = vectors.dot(node, query);
+                if (results.size() < k || similarity > results.topScore()) {
+                    results.push(node, similarity);
+                    if (results.size() > k) {
+                        results.pop();
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    private void insert(int node, float[] vector) {
+        int level = (int) (-Math.log(1.0 - ThreadLocalRandom.current().nextDouble()) * levelMultiplier);
+        links[node] = new int[level + 1][];
+        for (int l = 0; l <= level; l++) {
+            links[node][l] = new int[(l == 0 ? maxM0 : m) + 1];
+        }
+
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return;
+        }
+
+        int ep = entryPoint;
+        for (int l = maxLevel; l > level; l--) {
+            ep = greedyClosest(vector, ep, l);
+        }
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            NodeQueue candidates = searchLayer(vector, ep, efConstruction, l, null);
+            float[] scores = new float[candidates.size()];
+            int[] nearest = candidates.drainDescending(scores);
+            int[] selected = selectNeighbors(nearest, scores, m);
+            int[] own = links[node][l];
+            System.arraycopy(selected, 0, own, 1, selected.length);
+            own[0] = selected.length;
+            for (int neighbor : selected) {
+                connect(neighbor, node, l);
+            }
+            ep = nearest[0];
+        }
+        if (level > maxLevel) {
+            entryPoint = node;
+            maxLevel = level;
+        }
+    }
+
+    /**
+     * 启发式邻居选择：候选按与目标的相似度降序处理，只有当候选与目标的相似度高于它与所有已选邻居的相似度时才保留，
+     * 使邻居分布在不同方向上；不足 maxCount 时用被淘汰的候选补齐。
+     */
+    private int[] selectNeighbors(int[] candidates, float[] scores, int maxCount) {
+        if (candidates.length <= maxCount) {
+            return candidates;
+        }
+        int[] selected = new int[maxCount];
+        int count = 0;
+        boolean[] taken = new boolean[candidates.length];
+        for (int i = 0; i < candidates.length && count < maxCount; i++) {
+            boolean diverse = true;
+            for (int j = 0; j < count; j++) {
+                if (vectors.dot(candidates[i], selected[j]) > scores[i]) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected[count++] = candidates[i];
+                taken[i] = true;
+            }
+        }
+        for (int i = 0; i < candidates.length && count < maxCount; i++) {
+            if (!taken[i]) {
+                selected[count++] = candidates[i];
+            }
+        }
+        return selected;
+    }
+
+    private void connect(int from, int to, int level) {
+        int[] neighbors = links[from][level];
+        int maxCount = neighbors.length - 1;
+        if (neighbors[0] < maxCount) {
+            neighbors[++neighbors[0]] = to;
+            return;
+        }
+        // 邻居已满：在原有邻居与新节点中重新选择
+        int[] candidates = new int[maxCount + 1];
+        System.arraycopy(neighbors, 1, candidates, 0, maxCount);
+        candidates[maxCount] = to;
+        NodeQueue ordered = NodeQueue.minHeap(candidates.length);
+        for (int candidate : candidates) {
+            ordered.push(candidate, vectors.dot(from, candidate));
+        }
+        float[] scores = new float[candidates.length];
+        int[] sorted = ordered.drainDescending(scores);
+        int[] selected = selectNeighbors(sorted, scores, maxCount);
+        System.arraycopy(selected, 0, neighbors, 1, selected.length);
+        neighbors[0] = selected.length;
+    }
+
+    private int greedyClosest(float[] query, int entry, int level) {
+        int current = entry;
+        float best = vectors.dot(current, query);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int[] neighbors = links[current][level];
+            for (int i = 1; i <= neighbors[0]; i++) {
+                float similarity = vectors.dot(neighbors[i], query);
+                if (similarity > best) {
+                    best = similarity;
+                    current = neighbors[i];
+                    changed = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 在单层上做 ef 宽度的最佳优先搜索。allowed 为 null 时不过滤 (构建索引时)；
+     * 否则只有未删除且属于允许文档的节点进入结果集，其余节点仍用于扩展遍历。
+     */
+    private NodeQueue searchLayer(float[] query, int entry, int ef, int level, BitSet allowed) {
+        BitSet visited = new BitSet(size);
+        NodeQueue candidates = NodeQueue.maxHeap(ef * 2);
+        NodeQueue results = NodeQueue.minHeap(ef + 1);
+
+        float entryScore = vectors.dot(entry, query);
+        visited.set(entry);
+        candidates.push(entry, entryScore);
+        if (accept(entry, allowed)) {
+            results.push(entry, entryScore);
+        }
+
+        while (candidates.size() > 0) {
+            float candidateScore = candidates.topScore();
+            if (results.size() >= ef && candidateScore < results.topScore()) {
+                break;
+            }
+            int candidate = candidates.pop();
+            int[] neighbors = links[candidate][level];
+            for (int i = 1; i <= neighbors[0]; i++) {
+                int neighbor = neighbors[i];
+                if (visited.get(neighbor)) {
+                    continue;
+                }
+                visited.set(neighbor);
+                float similarity = vectors.dot(neighbor, query);
+                if (results.size() < ef || similarity > results.topScore()) {
+                    candidates.push(neighbor, similarity);
+                    if (accept(neighbor, allowed)) {
+                        results.push(neighbor, similarity);
+                        if (results.size() > ef) {
+                            results.pop();
+                        }
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    private boolean accept(int node, BitSet allowed) {
+        return allowed == null || (!deleted.get(node) && allowed.get(documentOrdinals[node]));
+    }
+
+    private void markDeleted(int node) {
+        if (!deleted.get(node)) {
+            deleted.set(node);
+            deletedCount++;
+            nodeByChunk.remove(chunkIds[node], node);
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > chunkIds.length) {
+            int newLength = Math.max(capacity, chunkIds.length * 2);
+            links = Arrays.copyOf(links, newLength);
+            chunkIds = Arrays.copyOf(chunkIds, newLength);
+            documentOrdinals = Arrays.copyOf(documentOrdinals, newLength);
+        }
+    }
+
+    /**
+     * 检索结果。vector 为归一化后的向量副本。
+     */
+    record Hit(UUID chunkId, UUID documentId, float similarity, float[] vector) {}
+
+    private static final class IntList {
+        private int[] data = new int[16];
+        private int size;
+
+        private void add(int value) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = value;
+        }
+
+        private void clear() {
+            data = new int[16];
+            size = 0;
+        }
+    }
+
+    /**
+     * 以相似度为键的二叉堆 (节点编号与分数分开存放，避免装箱)。
+     */
+    private static final class NodeQueue {
+        private final boolean max;
+        private int[] nodes;
+        private float[] scores;
+        private int size;
+
+        private NodeQueue(boolean max, int capacity) {
+            this.max = max;
+            this.nodes = new int[Math.max(capacity, 4)];
+            this.scores = new float[nodes.length];
+        }
+
+        static NodeQueue maxHeap(int capacity) {
+            return new NodeQueue(true, capacity);
+        }
+
+        static NodeQueue minHeap(int capacity) {
+            return new NodeQueue(false, capacity);
+        }
+
+        int size() {
+            return size;
+        }
+
+        float topScore() {
+            return scores[0];
+        }
+
+        void push(int node, float score) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                scores = Arrays.copyOf(scores, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!before(score, scores[parent])) {
+                    break;
+                }
+                nodes[i] = nodes[parent];
+                scores[i] = scores[parent];
+                i = parent;
+            }
+            nodes[i] = node;
+            scores[i] = score;
+        }
+
+        int pop() {
+            int top = nodes[0];
+            int lastNode = nodes[--size];
+            float lastScore = scores[size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && before(scores[child + 1], scores[child])) {
+                    child++;
+                }
+                if (!before(scores[child], lastScore)) {
+                    break;
+                }
+                nodes[i] = nodes[child];
+                scores[i] = scores[child];
+                i = child;
+            }
+            nodes[i] = lastNode;
+            scores[i] = lastScore;
+            return top;
+        }
+
+        int[] drainDescending() {
+            return drainDescending(new float[size]);
+        }
+
+        /**
+         * 取出全部节点并按相似度降序返回，对应分数写入 scoresOut。
+         */
+        int[] drainDescending(float[] scoresOut) {
+            int count = size;
+            int[] result = new int[count];
+            for (int i = count - 1; i >= 0; i--) {
+                float score = scores[0];
+                int node = pop();
+                // 最小堆依次弹出最差的节点，最大堆依次弹出最好的节点
+                int position = max ? count - 1 - i : i;
+                result[position] = node;
+                scoresOut[position] = score;
+            }
+            return result;
+        }
+
+        private boolean before(float a, float b) {
+            return max ? a > b : a < b;
+        }
+    }
+}
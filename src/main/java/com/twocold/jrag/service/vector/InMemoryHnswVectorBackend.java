@@ -0,0 +1,223 @@
+package com.twocold.jrag.service.vector;
+
+import com.twocold.jrag.config.RagProperties;
+import com.twocold.jrag.domain.Chunk;
+import com.twocold.jrag.service.DocumentChangedEvent;
+import com.twocold.jrag.utils.PgVectorCodec;
+import com.pgvector.PGvector;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 进程内 HNSW 向量检索后端 (app.rag.retrieval.vector-backend.type=memory)。
+ * 启动后从 chunks 表流式加载全部向量构建索引，之后通过 {@link DocumentChangedEvent} 增量同步；
+ * 查询不再经过数据库连接池，只在 JVM 内遍历图。Postgres 仍是唯一的数据来源：
+ * 索引尚未构建完成或查询向量维度不匹配时，回退到 {@link PgVectorSearchBackend}。
+ */
+@Slf4j
+@Primary
+@Component
+@ConditionalOnProperty(name = "app.rag.retrieval.vector-backend.type", havingValue = "memory")
+public class InMemoryHnswVectorBackend implements VectorSearchBackend {
+
+    private static final String LOAD_SQL = """
+            SELECT c.id, c.document_id, vector_send(c.content_vector) AS content_vector
+            FROM chunks c
+            JOIN documents d ON d.id = c.document_id
+            WHERE c.content_vector IS NOT NULL
+            """;
+
+    private static final String LOAD_DOCUMENT_SQL = """
+            SELECT c.id, c.document_id, vector_send(c.content_vector) AS content_vector
+            FROM chunks c
+            JOIN documents d ON d.id = c.document_id
+            WHERE c.document_id = ? AND c.content_vector IS NOT NULL
+            """;
+
+    private final RagProperties.Retrieval.VectorBackend config;
+    private final PgVectorSearchBackend fallback;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final Timer searchTimer;
+
+    private volatile HnswIndex index;
+    private final AtomicBoolean building = new AtomicBoolean();
+    private final Set<UUID> changedWhileBuilding = ConcurrentHashMap.newKeySet();
+
+    public InMemoryHnswVectorBackend(RagProperties ragProperties, PgVectorSearchBackend fallback, DataSource dataSource,
+                                     TransactionTemplate transactionTemplate, MeterRegistry meterRegistry) {
+        this.config = ragProperties.retrieval().vectorBackend();
+        this.fallback = fallback;
+        this.transactionTemplate = transactionTemplate;
+        // 启动加载使用游标分批读取 (需在事务内)，避免一次性把整张表读入内存
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(1000);
+        this.searchTimer = Timer.builder("rag.vector_search.latency").tag("backend", name())
+                .description("向量检索耗时").register(meterRegistry);
+        Gauge.builder("rag.vector_index.size", this, b -> b.index != null ? b.index.liveCount() : 0)
+                .description("进程内向量索引中的片段数量").register(meterRegistry);
+        Gauge.builder("rag.vector_index.off_heap_bytes", this, b -> b.index != null ? b.index.offHeapBytes() : 0)
+                .description("进程内向量索引占用的堆外内存").register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        rebuildAsync();
+    }
+
+    @Override
+    public List<Chunk> searchNearest(float[] queryEmbedding, List<UUID> documentIds, int fetchK, boolean withContent) {
+        HnswIndex current = index;
+        if (current == null || current.dimension() != queryEmbedding.length) {
+            log.debug("进程内向量索引不可用，回退到 pgvector 检索");
+            return fallback.searchNearest(queryEmbedding, documentIds, fetchK, withContent);
+        }
+
+        long start = System.nanoTime();
+        List<HnswIndex.Hit> hits = current.search(queryEmbedding, documentIds, fetchK,
+                config.minEfSearch(), config.maxEfSearch(), config.exactSearchThreshold());
+        searchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+        // 只返回 id / documentId / 向量，正文由调用方回表
+        List<Chunk> results = new ArrayList<>(hits.size());
+        for (HnswIndex.Hit hit : hits) {
+            Chunk chunk = new Chunk();
+            chunk.setId(hit.chunkId());
+            chunk.setDocumentId(hit.documentId());
+            chunk.setContentVector(new PGvector(hit.vector()));
+            results.add(chunk);
+        }
+        return results;
+    }
+
+    @Override
+    public String name() {
+        return "memory";
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDocumentChanged(DocumentChangedEvent event) {
+        // 构建期间的变化在新索引就绪后按 Postgres 的最新状态重放
+        if (building.get()) {
+            changedWhileBuilding.add(event.documentId());
+        }
+        try {
+            if (event.deleted()) {
+                HnswIndex current = index;
+                if (current != null) {
+                    int removed = current.removeDocument(event.documentId());
+                    log.debug("文档 {} 已删除，从进程内向量索引移除 {} 个片段", event.documentId(), removed);
+                    rebuildIfFragmented(current);
+                }
+            } else {
+                syncDocument(event.documentId());
+            }
+        } catch (Exception e) {
+            log.error("同步文档 {} 到进程内向量索引失败", event.documentId(), e);
+        }
+    }
+
+    private void rebuildAsync() {
+        if (building.compareAndSet(false, true)) {
+            Thread.ofVirtual().name("hnsw-index-builder").start(this::rebuild);
+        }
+    }
+
+    private void rebuild() {
+        try {
+            long start = System.currentTimeMillis();
+            IndexLoader loader = new IndexLoader();
+            transactionTemplate.executeWithoutResult(status -> jdbcTemplate.query(LOAD_SQL, (RowCallbackHandler) rs -> {
+                loader.add(UUID.fromString(rs.getString("id")), UUID.fromString(rs.getString("document_id")),
+                        PgVectorCodec.decode(rs.getBytes("content_vector")));
+            }));
+            if (loader.index != null) {
+                index = loader.index;
+                log.info("进程内向量索引构建完成：{} 个片段，维度 {}，堆外内存 {} MB，耗时 {} 毫秒",
+                        loader.index.liveCount(), loader.index.dimension(),
+                        loader.index.offHeapBytes() / (1024 * 1024), System.currentTimeMillis() - start);
+            } else {
+                log.info("chunks 表中没有向量，进程内向量索引将在首次入库时创建");
+            }
+        } catch (Exception e) {
+            log.error("构建进程内向量索引失败，继续使用 pgvector 检索", e);
+        } finally {
+            building.set(false);
+            for (UUID documentId : List.copyOf(changedWhileBuilding)) {
+                changedWhileBuilding.remove(documentId);
+                try {
+                    syncDocument(documentId);
+                } catch (Exception e) {
+                    log.error("同步文档 {} 到进程内向量索引失败", documentId, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 按 Postgres 中的当前状态重新加载一个文档的全部向量。文档已删除时结果为空，相当于移除。
+     */
+    private void syncDocument(UUID documentId) {
+        List<Map.Entry<UUID, float[]>> rows = jdbcTemplate.query(LOAD_DOCUMENT_SQL, (rs, rowNum) -> Map.entry(
+                UUID.fromString(rs.getString("id")), PgVectorCodec.decode(rs.getBytes("content_vector"))
+        ), documentId);
+
+        HnswIndex current = index;
+        if (current == null) {
+            if (rows.isEmpty() || building.get()) {
+                return;
+            }
+            current = createIndexIfAbsent(rows.getFirst().getValue().length);
+        }
+        // 整体替换：并发检索不会看到文档的片段暂时消失
+        current.replaceDocument(documentId, rows);
+        log.debug("文档 {} 已同步到进程内向量索引，共 {} 个片段", documentId, rows.size());
+        rebuildIfFragmented(current);
+    }
+
+    private synchronized HnswIndex createIndexIfAbsent(int dimension) {
+        if (index == null) {
+            index = new HnswIndex(dimension, config.m(), config.efConstruction());
+        }
+        return index;
+    }
+
+    /**
+     * 墓碑节点仍占用内存并参与图遍历，占比超过阈值时从 Postgres 重建索引。
+     */
+    private void rebuildIfFragmented(HnswIndex current) {
+        int deleted = current.deletedCount();
+        if (deleted > 0 && deleted > current.liveCount() * config.rebuildDeletedRatio()) {
+            log.info("进程内向量索引墓碑节点 {} 个，超过阈值，开始重建", deleted);
+            rebuildAsync();
+        }
+    }
+
+    private final class IndexLoader {
+        private HnswIndex index;
+
+        private void add(UUID chunkId, UUID documentId, float[] vector) {
+            if (index == null) {
+                index = new HnswIndex(vector.length, config.m(), config.efConstruction());
+            }
+            index.add(chunkId, documentId, vector);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.twocold.jrag.service.vector;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 堆外向量存储。向量按槽位连续存放在若干个直接内存页中，每页固定容量，扩容时只追加新页、不搬移已有数据，
+ * 大量向量不会进入 Java 堆，也不会增加 GC 的扫描与复制负担。
+ * 使用绝对下标读写，读操作可并发执行；写操作需由调用方串行化。
+ */
+final class OffHeapVectorStore {
+
+    private static final int VECTORS_PER_PAGE = 4096;
+
+    private final int dimension;
+    private final List<FloatBuffer> pages = new ArrayList<>();
+    private int size;
+
+    OffHeapVectorStore(int dimension) {
+        this.dimension = dimension;
+    }
+
+    int dimension() {
+        return dimension;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * 追加一个向量，返回其槽位。
+     */
+    int add(float[] vector) {
+        if (vector.length != dimension) {
+            throw new IllegalArgumentException("向量维度不匹配: " + vector.length + " / " + dimension);
+        }
+        int slot = size;
+        int page = slot / VECTORS_PER_PAGE;
+        if (page == pages.size()) {
+            pages.add(ByteBuffer.allocateDirect(VECTORS_PER_PAGE * dimension * Float.BYTES)
+                    .order(ByteOrder.nativeOrder())
+                    .asFloatBuffer());
+        }
+        pages.get(page).put(offset(slot), vector);
+        size++;
+        return slot;
+    }
+
+    /**
+     * 复制出指定槽位的向量。
+     */
+    float[] get(int slot) {
+        float[] vector = new float[dimension];
+        pages.get(slot / VECTORS_PER_PAGE).get(offset(slot), vector);
+        return vector;
+    }
+
+    /**
+     * 查询向量与指定槽位向量的点积。
+     */
+    float dot(int slot, float[] query) {
+        FloatBuffer page = pages.get(slot / VECTORS_PER_PAGE);
+        int base = offset(slot);
+        float s0 = 0f, s1 = 0f, s2 = 0f, s3 = 0f;
+        int i = 0;
+        int bound = dimension & ~3;
+        for (; i < bound; i += 4) {
+            s0 += query[i] * page.get(base + i);
+            s1 += query[i + 1] * page.get(base + i + 1);
+            s2 += query[i + 2] * page.get(base + i + 2);
+            s3 += query[i + 3] * page.get(base + i + 3);
+        }
+        for (; i < dimension; i++) {
+            s0 += query[i] * page.get(base + i);
+        }
+        return s0 + s1 + s2 + s3;
+    }
+
+    /**
+     * 两个槽位向量之间的点积。
+     */
+    float dot(int a, int b) {
+        FloatBuffer pageA = pages.get(a / VECTORS_PER_PAGE);
+        FloatBuffer pageB = pages.get(b / VECTORS_PER_PAGE);
+        int baseA = offset(a);
+        int baseB = offset(b);
+        float s0 = 0f, s1 = 0f;
+        int i = 0;
+        int bound = dimension & ~1;
+        for (; i < bound; i += 2) {
+            s0 += pageA.get(baseA + i) * pageB.get(baseB + i);
+            s1 += pageA.get(baseA + i + 1) * pageB.get(baseB + i + 1);
+        }
+        for (; i < dimension; i++) {
+            s0 += pageA.get(baseA + i) * pageB.get(baseB + i);
+        }
+        return s0 + s1;
+    }
+
+    /**
+     * 已占用的堆外内存字节数。
+     */
+    long offHeapBytes() {
+        return (long) pages.size() * VECTORS_PER_PAGE * dimension * Float.BYTES;
+    }
+
+    private int offset(int slot) {
+        return (slot % VECTORS_PER_PAGE) * dimension;
+    }
+}
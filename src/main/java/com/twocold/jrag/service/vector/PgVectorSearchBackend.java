@@ -0,0 +1,220 @@
+package com.twocold.jrag.service.vector;
+
+import com.twocold.jrag.config.RagProperties;
+import com.twocold.jrag.domain.Chunk;
+import com.twocold.jrag.repository.ChunkCandidateRowMapper;
+import com.twocold.jrag.repository.ChunkRowMapper;
+import com.twocold.jrag.utils.SqlArrayUtils;
+import com.pgvector.PGvector;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 基于 pgvector 的向量检索后端 (默认)。每次查询都在数据库中执行 HNSW 索引扫描。
+ * 存储模式不是 full 时，第一阶段在派生表示 (halfvec / 二值量化) 的索引上检索，再用 float32 向量精确重排 (half 模式可关闭)。
+ */
+@Slf4j
+@Component
+public class PgVectorSearchBackend implements VectorSearchBackend {
+
+    private final RagProperties ragProperties;
+    private final JdbcClient jdbcClient;
+    private final TransactionTemplate transactionTemplate;
+    private final VectorStorageBackfill backfill;
+    private final VectorStorageMode storageMode;
+    private final boolean rescore;
+    private final int oversampling;
+    private final boolean iterativeScanSupported;
+    private final Timer searchTimer;
+
+    // 向量以 vector_send 的二进制格式 (bytea) 传输，避免服务端格式化为十进制文本、客户端再逐个解析浮点数。
+    private static final String SEARCH_COLUMNS = """
+            id, document_id, content, vector_send(content_vector) AS content_vector, chunk_index, source_meta, chunker_name, content_keywords, created_at""";
+
+    // 两阶段检索：第一阶段只取排序所需的 id / document_id / 向量
+    private static final String CANDIDATE_COLUMNS = """
+            id, document_id, vector_send(content_vector) AS content_vector""";
+
+    // 文档过滤条件以单个 uuid[] 参数绑定 (= ANY(?))，SQL 文本固定，便于 pgjdbc 复用服务端预编译语句与执行计划。
+    private static final String NEAREST_SQL = """
+            SELECT %s
+            FROM chunks
+            WHERE document_id = ANY(?)
+            ORDER BY %s
+            LIMIT ?
+            """;
+
+    // 第一阶段在派生表示的索引上取 oversampling 倍的候选，再按 float32 向量的精确距离重排。
+    // 外层查询同样带上文档过滤条件，使回表也只访问文档集合所在的分区
+    private static final String RESCORE_SQL = """
+            WITH candidates AS MATERIALIZED (
+                SELECT id
+                FROM chunks
+                WHERE document_id = ANY(?)
+                ORDER BY %s
+                LIMIT ?
+            )
+            SELECT %s
+            FROM chunks c
+            JOIN candidates USING (id)
+            WHERE c.document_id = ANY(?)
+            ORDER BY c.content_vector <=> ?
+            LIMIT ?
+            """;
+
+    private static final String VECTOR_SEARCH_SQL = NEAREST_SQL.formatted(SEARCH_COLUMNS, VectorStorageMode.FULL.firstStageOrder());
+    private static final String VECTOR_CANDIDATE_SQL = NEAREST_SQL.formatted(CANDIDATE_COLUMNS, VectorStorageMode.FULL.firstStageOrder());
+
+    private final String storageSearchSql;
+    private final String storageCandidateSql;
+
+    public PgVectorSearchBackend(RagProperties ragProperties, JdbcClient jdbcClient, TransactionTemplate transactionTemplate,
+                                 VectorStorageBackfill backfill, MeterRegistry meterRegistry) {
+        this.ragProperties = ragProperties;
+        this.jdbcClient = jdbcClient;
+        this.transactionTemplate = transactionTemplate;
+        this.backfill = backfill;
+
+        RagProperties.Retrieval.VectorStorage storage = ragProperties.retrieval().vectorStorage();
+        this.storageMode = VectorStorageMode.of(storage.mode());
+        this.rescore = storageMode != VectorStorageMode.FULL && (storage.rescore() || storageMode.requiresRescore());
+        this.oversampling = rescore ? storage.oversampling() : 1;
+        if (rescore) {
+            this.storageSearchSql = RESCORE_SQL.formatted(storageMode.firstStageOrder(), SEARCH_COLUMNS);
+            this.storageCandidateSql = RESCORE_SQL.formatted(storageMode.firstStageOrder(), CANDIDATE_COLUMNS);
+        } else {
+            this.storageSearchSql = NEAREST_SQL.formatted(SEARCH_COLUMNS, storageMode.firstStageOrder());
+            this.storageCandidateSql = NEAREST_SQL.formatted(CANDIDATE_COLUMNS, storageMode.firstStageOrder());
+        }
+        this.iterativeScanSupported = iterativeScanSupported(ragProperties.retrieval().hnsw());
+        this.searchTimer = Timer.builder("rag.vector_search.latency").tag("backend", name())
+                .description("向量检索耗时").register(meterRegistry);
+        if (storageMode != VectorStorageMode.FULL) {
+            log.info("向量存储模式：{}，精确重排：{}（过采样 {} 倍）", storageMode, rescore, oversampling);
+        }
+    }
+
+    // set_config(..., true) 等价于 SET LOCAL，仅在当前事务内生效
+    private static final String HNSW_SETTINGS_SQL = """
+            SELECT set_config('hnsw.ef_search', ?, true)
+            """;
+
+    private static final String HNSW_ITERATIVE_SETTINGS_SQL = """
+            SELECT set_config('hnsw.ef_search', ?, true),
+                   set_config('hnsw.iterative_scan', ?, true),
+                   set_config('hnsw.max_scan_tuples', ?, true)
+            """;
+
+    @Override
+    public List<Chunk> searchNearest(float[] queryEmbedding, List<UUID> documentIds, int fetchK, boolean withContent) {
+        // 派生列回填完成前仍检索完整精度向量，避免遗漏尚未转换的片段
+        boolean useStorageMode = storageMode != VectorStorageMode.FULL && backfill.isComplete();
+        String sql;
+        if (useStorageMode) {
+            sql = withContent ? storageSearchSql : storageCandidateSql;
+        } else {
+            sql = withContent ? VECTOR_SEARCH_SQL : VECTOR_CANDIDATE_SQL;
+        }
+        boolean rescoring = useStorageMode && rescore;
+        int firstStageLimit = rescoring ? fetchK * oversampling : fetchK;
+
+        RagProperties.Retrieval.Hnsw hnsw = ragProperties.retrieval().hnsw();
+        return searchTimer.record(() -> {
+            if (hnsw == null || !hnsw.enabled()) {
+                return query(sql, queryEmbedding, documentIds, fetchK, firstStageLimit, rescoring, withContent);
+            }
+            // HNSW 参数需与查询处于同一事务中才能生效
+            return transactionTemplate.execute(status -> {
+                applyHnswSearchSettings(hnsw, firstStageLimit, documentIds.size());
+                return query(sql, queryEmbedding, documentIds, fetchK, firstStageLimit, rescoring, withContent);
+            });
+        });
+    }
+
+    private List<Chunk> query(String sql, float[] queryEmbedding, List<UUID> documentIds, int fetchK,
+                              int firstStageLimit, boolean rescoring, boolean withContent) {
+        PGvector vector = new PGvector(queryEmbedding);
+        Object[] params = rescoring
+                ? new Object[]{SqlArrayUtils.uuidArray(documentIds), vector, firstStageLimit,
+                        SqlArrayUtils.uuidArray(documentIds), vector, fetchK}
+                : new Object[]{SqlArrayUtils.uuidArray(documentIds), vector, fetchK};
+        return jdbcClient.sql(sql)
+                .params(params)
+                .query(withContent ? new ChunkRowMapper() : new ChunkCandidateRowMapper())
+                .list();
+    }
+
+    @Override
+    public String name() {
+        return "pgvector";
+    }
+
+    /**
+     * 按查询设置 HNSW 参数。ef_search 随候选数量 fetchK 增长；
+     * 文档集合较小时过滤选择性高，开启迭代扫描，避免 ANN 扫描后过滤导致返回的候选不足 fetchK 个。
+     */
+    private void applyHnswSearchSettings(RagProperties.Retrieval.Hnsw hnsw, int fetchK, int documentCount) {
+        int efSearch = Math.clamp((long) fetchK * hnsw.efSearchFactor(), hnsw.minEfSearch(), hnsw.maxEfSearch());
+        boolean iterativeScan = iterativeScanSupported && documentCount <= hnsw.iterativeScanMaxDocuments();
+        if (iterativeScan) {
+            jdbcClient.sql(HNSW_ITERATIVE_SETTINGS_SQL)
+                    .params(String.valueOf(efSearch), hnsw.iterativeScan(), String.valueOf(hnsw.maxScanTuples()))
+                    .query()
+                    .singleRow();
+        } else {
+            jdbcClient.sql(HNSW_SETTINGS_SQL)
+                    .params(String.valueOf(efSearch))
+                    .query()
+                    .singleRow();
+        }
+        log.debug("HNSW 查询参数：ef_search={}，迭代扫描={}（文档数：{}）",
+                efSearch, iterativeScan ? hnsw.iterativeScan() : "off", documentCount);
+    }
+
+    /**
+     * 迭代扫描 (hnsw.iterative_scan) 需要 pgvector 0.8+；更早的版本不认识该参数，设置时报错会使每次检索失败，
+     * 因此启动时检查扩展版本，不满足时关闭迭代扫描并告警。
+     */
+    private boolean iterativeScanSupported(RagProperties.Retrieval.Hnsw hnsw) {
+        if (hnsw == null || !hnsw.enabled() || "off".equalsIgnoreCase(hnsw.iterativeScan())) {
+            return false;
+        }
+        String version;
+        try {
+            version = jdbcClient.sql("SELECT extversion FROM pg_extension WHERE extname = 'vector'")
+                    .query(String.class)
+                    .optional()
+                    .orElse(null);
+        } catch (Exception e) {
+            log.warn("无法读取 pgvector 版本，已关闭 HNSW 迭代扫描: {}", e.getMessage());
+            return false;
+        }
+        if (!atLeast(version, 0, 8)) {
+            log.warn("pgvector {} 不支持 HNSW 迭代扫描 (需要 0.8+)，已忽略 app.rag.retrieval.hnsw.iterative-scan={}",
+                    version, hnsw.iterativeScan());
+            return false;
+        }
+        return true;
+    }
+
+    static boolean atLeast(String version, int major, int minor) {
+        if (version == null) {
+            return false;
+        }
+        String[] parts = version.split("\\.");
+        try {
+            int actualMajor = Integer.parseInt(parts[0]);
+            int actualMinor = parts.length > 1 ? Integer.parseInt(parts[1].replaceAll("\\D.*", "")) : 0;
+            return actualMajor > major || (actualMajor == major && actualMinor >= minor);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+}
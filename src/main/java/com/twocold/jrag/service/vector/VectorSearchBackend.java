@@ -0,0 +1,29 @@
+package com.twocold.jrag.service.vector;
+
+import com.twocold.jrag.domain.Chunk;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 向量检索后端。混合搜索中的向量召回通过该接口完成，Postgres (chunks 表) 始终是数据的唯一来源。
+ */
+public interface VectorSearchBackend {
+
+    /**
+     * 在指定文档范围内检索与查询向量最相近的片段。
+     *
+     * @param queryEmbedding 查询向量。
+     * @param documentIds    限定检索的文档 ID 列表。
+     * @param fetchK         返回的候选数量上限。
+     * @param withContent    是否需要正文与元数据。实现可以忽略该提示，只返回 id / documentId / 向量，
+     *                       调用方需为缺少正文的片段回表。
+     * @return 按相似度降序排列的片段，均包含 id、documentId 与向量。
+     */
+    List<Chunk> searchNearest(float[] queryEmbedding, List<UUID> documentIds, int fetchK, boolean withContent);
+
+    /**
+     * 后端名称，用于日志与指标。
+     */
+    String name();
+}
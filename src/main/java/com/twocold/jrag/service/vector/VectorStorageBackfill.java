@@ -0,0 +1,133 @@
+package com.twocold.jrag.service.vector;
+
+import com.twocold.jrag.config.RagProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * 派生向量列的在线回填。
+ * 切换到带派生列的存储模式后，已有行的派生列为 NULL。启动后在后台按批 (每批一个短事务，SKIP LOCKED 避免与写入冲突)
+ * 由 content_vector 计算派生列，直到没有待转换的行。回填完成前检索继续使用完整精度向量，避免漏召回未转换的片段。
+ * 确认有待转换的行后，先 CONCURRENTLY 建一个只覆盖待转换行的部分索引 (分区表在每个分区上分别建)，
+ * 各批次经由该索引定位，回填完成后再 CONCURRENTLY 删除，平时不给写入增加任何索引维护开销。
+ * 启动时的待转换检查没有索引可走，回填已完成时是一次 (后台线程中的) 全表扫描。
+ */
+@Slf4j
+@Component
+public class VectorStorageBackfill {
+
+    private final JdbcClient jdbcClient;
+    private final VectorStorageMode mode;
+    private final int batchSize;
+    private volatile boolean complete;
+
+    public VectorStorageBackfill(JdbcClient jdbcClient, RagProperties ragProperties) {
+        this.jdbcClient = jdbcClient;
+        this.mode = VectorStorageMode.of(ragProperties.retrieval().vectorStorage().mode());
+        this.batchSize = ragProperties.retrieval().vectorStorage().backfillBatchSize();
+        this.complete = mode.derivedColumn() == null;
+    }
+
+    /**
+     * 派生列是否已全部填充，可以用于第一阶段检索。
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (!complete) {
+            Thread.ofVirtual().name("vector-storage-backfill").start(this::backfill);
+        }
+    }
+
+    private void backfill() {
+        String column = mode.derivedColumn();
+        String pendingSql = """
+                SELECT EXISTS (SELECT 1 FROM chunks WHERE %s IS NULL AND content_vector IS NOT NULL)
+                """.formatted(column);
+        String sql = """
+                UPDATE chunks SET %s = %s
+                WHERE (id, document_id) IN (
+                    SELECT id, document_id FROM chunks
+                    WHERE %s IS NULL AND content_vector IS NOT NULL
+                    LIMIT ?
+                    FOR UPDATE SKIP LOCKED
+                )
+                """.formatted(column, mode.derivedExpression("content_vector"), column);
+        List<String> tables = List.of();
+        try {
+            if (!jdbcClient.sql(pendingSql).query(Boolean.class).single()) {
+                complete = true;
+                log.debug("向量存储模式 {}：{} 无需回填", mode, column);
+                return;
+            }
+            tables = indexedTables();
+            createPendingIndexes(tables, column);
+            long start = System.currentTimeMillis();
+            long total = 0;
+            int updated;
+            do {
+                updated = jdbcClient.sql(sql).params(batchSize).update();
+                total += updated;
+                if (updated > 0) {
+                    log.debug("已回填 {} 行 {}", total, column);
+                }
+            } while (updated > 0);
+            complete = true;
+            log.info("向量存储模式 {}：{} 回填完成，共转换 {} 行，耗时 {} 毫秒",
+                    mode, column, total, System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.error("回填 {} 失败，检索继续使用完整精度向量", column, e);
+        } finally {
+            dropPendingIndexes(tables, column);
+        }
+    }
+
+    /**
+     * 需要建部分索引的表：分区表不支持 CREATE INDEX CONCURRENTLY，改为在每个分区上分别建。
+     */
+    private List<String> indexedTables() {
+        List<String> partitions = jdbcClient.sql("""
+                        SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid
+                        WHERE i.inhparent = 'chunks'::regclass
+                        ORDER BY c.relname
+                        """)
+                .query(String.class)
+                .list();
+        return partitions.isEmpty() ? List.of("chunks") : partitions;
+    }
+
+    private void createPendingIndexes(List<String> tables, String column) {
+        long start = System.currentTimeMillis();
+        for (String table : tables) {
+            // CONCURRENTLY 不能在事务中执行；JdbcClient 在事务外以自动提交方式运行每条语句
+            jdbcClient.sql("CREATE INDEX CONCURRENTLY IF NOT EXISTS %s ON %s (id) WHERE %s IS NULL AND content_vector IS NOT NULL"
+                    .formatted(pendingIndexName(table, column), table, column)).update();
+        }
+        log.info("已为 {} 建立回填索引 ({} 张表)，耗时 {} 毫秒", column, tables.size(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 回填结束 (包括失败) 后删除部分索引；下次启动若仍有待转换的行会重新建立。
+     */
+    private void dropPendingIndexes(List<String> tables, String column) {
+        for (String table : tables) {
+            try {
+                jdbcClient.sql("DROP INDEX CONCURRENTLY IF EXISTS " + pendingIndexName(table, column)).update();
+            } catch (Exception e) {
+                log.warn("删除回填索引 {} 失败，可手动删除", pendingIndexName(table, column), e);
+            }
+        }
+    }
+
+    private static String pendingIndexName(String table, String column) {
+        return "idx_%s_%s_pending".formatted(table, column);
+    }
+}
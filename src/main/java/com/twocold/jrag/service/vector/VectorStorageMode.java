@@ -0,0 +1,82 @@
+package com.twocold.jrag.service.vector;
+
+/**
+ * chunks 表向量的存储与第一阶段检索方式。
+ * 除 FULL 外，每种模式都在 content_vector (float32，始终保留、作为精确重排的依据) 之外
+ * 维护一个派生表示 (派生列或表达式索引)，并在其索引上完成第一阶段的近似检索。
+ */
+public enum VectorStorageMode {
+
+    /**
+     * 只使用 content_vector (float32) 及其 HNSW 索引。
+     */
+    FULL(null, null, "content_vector <=> ?", false),
+
+    /**
+     * 半精度：派生列 content_vector_half (halfvec) 及其 HNSW 索引，索引大小约为 float32 的一半。
+     */
+    HALF("content_vector_half", "CAST(%s AS halfvec)", "content_vector_half <=> CAST(? AS halfvec)", false),
+
+    /**
+     * 二值量化：每个维度只保留符号位，在 binary_quantize 表达式索引上按 Hamming 距离检索。
+     * 表达式索引不需要派生列与回填；二值距离只是粗排，必须用 float32 向量精确重排。
+     */
+    BINARY(null, null, "binary_quantize(content_vector)::bit(1024) <~> binary_quantize(CAST(? AS vector))", true),
+
+    /**
+     * Matryoshka 截断：派生列 content_vector_short 保存前 256 维并重新做 L2 归一化，索引约为 float32 的 1/4。
+     * 仅适用于以 Matryoshka 方式训练的向量模型 (前缀本身就是有效的低维表示)；截断后的距离只用于粗排，必须精确重排。
+     */
+    MATRYOSHKA("content_vector_short",
+            "l2_normalize(subvector(CAST(%s AS vector), 1, 256))",
+            "content_vector_short <=> l2_normalize(subvector(CAST(? AS vector), 1, 256))", true);
+
+    private final String derivedColumn;
+    private final String derivedExpression;
+    private final String firstStageOrder;
+    private final boolean requiresRescore;
+
+    VectorStorageMode(String derivedColumn, String derivedExpression, String firstStageOrder, boolean requiresRescore) {
+        this.derivedColumn = derivedColumn;
+        this.derivedExpression = derivedExpression;
+        this.firstStageOrder = firstStageOrder;
+        this.requiresRescore = requiresRescore;
+    }
+
+    public static VectorStorageMode of(String value) {
+        if (value == null || value.isBlank()) {
+            return FULL;
+        }
+        return valueOf(value.trim().toUpperCase());
+    }
+
+    /**
+     * 需要写入与回填的派生列；没有派生列时为 null。
+     */
+    public String derivedColumn() {
+        return derivedColumn;
+    }
+
+    /**
+     * 由完整向量计算派生列的 SQL 表达式。
+     *
+     * @param source 完整向量的来源，如列名 content_vector 或参数占位符 ?。
+     */
+    public String derivedExpression(String source) {
+        return derivedExpression != null ? derivedExpression.formatted(source) : null;
+    }
+
+    /**
+     * 第一阶段检索的 ORDER BY 表达式，其中 ? 绑定查询向量。
+     */
+    public String firstStageOrder() {
+        return firstStageOrder;
+    }
+
+    /**
+     * 第一阶段的距离是否过于粗糙，必须经过精确重排 (忽略 rescore 配置)。
+     */
+    public boolean requiresRescore() {
+        return requiresRescore;
+    }
+}
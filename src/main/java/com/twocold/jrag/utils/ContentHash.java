@@ -0,0 +1,23 @@
+package com.twocold.jrag.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+public class ContentHash {
+
+    /**
+     * 计算片段文本的内容哈希 (UTF-8 编码后的 SHA-256)。
+     * 用作内容寻址的键：相同文本在任何文档、任何用户上传中都得到相同的哈希。
+     *
+     * @param text 片段文本 (清洗后，即实际送入向量模型的文本)。
+     * @return 32 字节哈希。
+     */
+    public static byte[] sha256(String text) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 不可用", e);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.twocold.jrag.utils;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.UUID;
+
+public class DocumentSetFingerprint {
+
+    /**
+     * 计算文档集合的指纹：对去重排序后的 UUID 做 SHA-256，与输入顺序无关。
+     * 可作为「同一文档集合」的稳定缓存键。
+     *
+     * @param documentIds 文档 ID 集合。
+     * @return 十六进制指纹字符串。
+     */
+    public static String of(Collection<UUID> documentIds) {
+        UUID[] sorted = documentIds.stream().distinct().sorted().toArray(UUID[]::new);
+        return of(sorted);
+    }
+
+    /**
+     * 计算已排序且去重的文档 ID 数组的指纹。
+     */
+    public static String of(UUID[] sortedDocumentIds) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            ByteBuffer buffer = ByteBuffer.allocate(16);
+            for (UUID id : sortedDocumentIds) {
+                buffer.clear();
+                buffer.putLong(id.getMostSignificantBits()).putLong(id.getLeastSignificantBits());
+                digest.update(buffer.array());
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 不可用", e);
+        }
+    }
+}
@@ -23,80 +23,139 @@ public class MmrUtils {
             return Collections.emptyList();
         }
 
-        // 限制 k 的数量不超过候选片段的总数
-        int limit = Math.min(k, candidates.size());
+        // 每个候选向量只取一次并归一化，之后的相似度计算都是纯点积
+        float[][] rows = new float[candidates.size()][];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = normalize(candidates.get(i).getContentVector().toArray());
+        }
 
-        List<Chunk> selected = new ArrayList<>(limit);
-        List<Chunk> remaining = new ArrayList<>(candidates);
+        int[] selectedIndexes = select(rows, normalize(queryVector), k, lambda);
 
-        // 预先计算查询与所有候选片段之间的相似度，以避免重复计算
-        Map<Chunk, Double> querySimilarities = new HashMap<>();
-        for (Chunk chunk : candidates) {
-            float[] docVector = chunk.getContentVector().toArray();
-            double sim = cosineSimilarity(queryVector, docVector);
-            querySimilarities.put(chunk, sim);
+        List<Chunk> selected = new ArrayList<>(selectedIndexes.length);
+        for (int index : selectedIndexes) {
+            selected.add(candidates.get(index));
         }
+        return selected;
+    }
 
-        while (selected.size() < limit) {
-            Chunk bestChunk = null;
-            double bestMmrScore = Double.NEGATIVE_INFINITY;
+    /**
+     * 在预归一化的行向量上执行 MMR 选择。
+     * 为每个候选维护「与已选集合的最大相似度」数组，每选出一个片段只需用它更新一遍该数组，
+     * 因此每轮的代价为 O(n·d)，而不是 O(n·k·d)。
+     *
+     * @param rows            已做 L2 归一化的候选向量。
+     * @param normalizedQuery 已做 L2 归一化的查询向量。
+     * @param k               要选择的数量。
+     * @param lambda          多样性参数 (0.0 - 1.0)。
+     * @return 按选择顺序排列的候选下标。
+     */
+    public static int[] select(float[][] rows, float[] normalizedQuery, int k, double lambda) {
+        int n = rows.length;
+        // 限制 k 的数量不超过候选片段的总数
+        int limit = Math.min(k, n);
+        if (limit <= 0) {
+            return new int[0];
+        }
 
-            for (Chunk candidate : remaining) {
-                double relevance = querySimilarities.get(candidate);
-                double redundancy = 0.0;
+        double[] relevance = new double[n];
+        double[] maxSimToSelected = new double[n];
+        boolean[] picked = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            relevance[i] = dot(normalizedQuery, rows[i]);
+        }
 
-                if (!selected.isEmpty()) {
-                    double maxSimToSelected = Double.NEGATIVE_INFINITY;
-                    float[] candidateVector = candidate.getContentVector().toArray();
+        int[] selected = new int[limit];
+        int count = 0;
+        while (count < limit) {
+            int best = -1;
+            double bestMmrScore = Double.NEGATIVE_INFINITY;
 
-                    for (Chunk s : selected) {
-                        float[] selectedVector = s.getContentVector().toArray();
-                        double sim = cosineSimilarity(candidateVector, selectedVector);
-                        if (sim > maxSimToSelected) {
-                            maxSimToSelected = sim;
-                        }
-                    }
-                    redundancy = maxSimToSelected;
+            for (int i = 0; i < n; i++) {
+                if (picked[i]) {
+                    continue;
                 }
-
+                // 尚未选择任何片段时冗余度为 0
+                double redundancy = count == 0 ? 0.0 : maxSimToSelected[i];
                 // MMR 公式: Lambda * 相关性 - (1 - Lambda) * 冗余度
-                double mmrScore = (lambda * relevance) - ((1.0 - lambda) * redundancy);
-
+                double mmrScore = (lambda * relevance[i]) - ((1.0 - lambda) * redundancy);
                 if (mmrScore > bestMmrScore) {
                     bestMmrScore = mmrScore;
-                    bestChunk = candidate;
+                    best = i;
                 }
             }
 
-            if (bestChunk != null) {
-                selected.add(bestChunk);
-                remaining.remove(bestChunk);
-            } else {
+            if (best < 0) {
                 break;
             }
+
+            picked[best] = true;
+            selected[count++] = best;
+
+            // 用新选中的片段更新其余候选的最大相似度 (最后一轮无需更新)
+            if (count < limit) {
+                float[] bestRow = rows[best];
+                for (int i = 0; i < n; i++) {
+                    if (picked[i]) {
+                        continue;
+                    }
+                    double sim = dot(rows[i], bestRow);
+                    if (count == 1 || sim > maxSimToSelected[i]) {
+                        maxSimToSelected[i] = sim;
+                    }
+                }
+            }
         }
 
-        return selected;
+        return count == limit ? selected : Arrays.copyOf(selected, count);
     }
 
     /**
-     * 计算两个向量之间的余弦相似度。
-     * 范围：-1 到 1（1 表示方向完全相同）。
+     * 返回向量的 L2 归一化副本；零向量返回全零副本（与任何向量的相似度均为 0）。
      */
-    public static double cosineSimilarity(float[] v1, float[] v2) {
-        if (v1.length != v2.length) {
-            throw new IllegalArgumentException("向量长度必须相同");
+    public static float[] normalize(float[] v) {
+        double norm = Math.sqrt(dot(v, v));
+        float[] normalized = new float[v.length];
+        if (norm == 0) {
+            return normalized;
+        }
+        float scale = (float) (1.0 / norm);
+        for (int i = 0; i < v.length; i++) {
+            normalized[i] = v[i] * scale;
         }
+        return normalized;
+    }
 
-        double dotProduct = 0.0;
-        double normA = 0.0;
-        double normB = 0.0;
+    /**
+     * 点积。使用四路独立累加器展开循环，打破浮点加法的依赖链，便于 JIT 流水线化。
+     */
+    public static double dot(float[] a, float[] b) {
+        if (a.length != b.length) {
+            throw new IllegalArgumentException("向量长度必须相同");
+        }
 
-        for (int i = 0; i < v1.length; i++) {
-            dotProduct += v1[i] * v2[i];
-            normA += v1[i] * v1[i];
-            normB += v2[i] * v2[i];
+        float s0 = 0f, s1 = 0f, s2 = 0f, s3 = 0f;
+        int i = 0;
+        int bound = a.length & ~3;
+        for (; i < bound; i += 4) {
+            s0 += a[i] * b[i];
+            s1 += a[i + 1] * b[i + 1];
+            s2 += a[i + 2] * b[i + 2];
+            s3 += a[i + 3] * b[i + 3];
+        }
+        for (; i < a.length; i++) {
+            s0 += a[i] * b[i];
         }
+        return (double) s0 + s1 + s2 + s3;
+    }
+
+    /**
+     * 计算两个向量之间的余弦相似度。
+     * 范围：-1 到 1（1 表示方向完全相同）。
+     */
+    public static double cosineSimilarity(float[] v1, float[] v2) {
+        double dotProduct = dot(v1, v2);
+        double normA = dot(v1, v1);
+        double normB = dot(v2, v2);
 
         if (normA == 0 || normB == 0) {
             return 0.0;
@@ -0,0 +1,56 @@
+package com.twocold.jrag.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * pgvector 二进制格式编解码。
+ * vector_send / vector_recv 的格式为：int16 维度 + int16 保留位 + 维度个 float4（均为网络字节序）；
+ * halfvec 相同，只是每个维度为 float2。
+ */
+public class PgVectorCodec {
+
+    private static final int HEADER_BYTES = 4;
+
+    /**
+     * 将 vector_send 输出的字节解码为 float[]。
+     *
+     * @param bytes vector_send(content_vector) 的结果，可为 null。
+     * @return 向量数组；输入为 null 时返回 null。
+     */
+    public static float[] decode(byte[] bytes) {
+        if (bytes == null) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int dimensions = Short.toUnsignedInt(buffer.getShort());
+        buffer.getShort(); // unused
+        if (bytes.length != HEADER_BYTES + dimensions * Float.BYTES) {
+            throw new IllegalArgumentException("向量二进制长度与维度不匹配: " + bytes.length + " / " + dimensions);
+        }
+        float[] vector = new float[dimensions];
+        buffer.asFloatBuffer().get(vector);
+        return vector;
+    }
+
+    /**
+     * 将 float[] 编码为 vector_recv 接受的字节 (用于 COPY BINARY)。
+     */
+    public static byte[] encode(float[] vector) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + vector.length * Float.BYTES);
+        buffer.putShort((short) vector.length).putShort((short) 0);
+        buffer.asFloatBuffer().put(vector);
+        return buffer.array();
+    }
+
+    /**
+     * 将 float[] 编码为 halfvec_recv 接受的字节。舍入方式 (就近偶数) 与 CAST(... AS halfvec) 一致。
+     */
+    public static byte[] encodeHalf(float[] vector) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + vector.length * Short.BYTES);
+        buffer.putShort((short) vector.length).putShort((short) 0);
+        for (float value : vector) {
+            buffer.putShort(Float.floatToFloat16(value));
+        }
+        return buffer.array();
+    }
+}
@@ -0,0 +1,60 @@
+package com.twocold.jrag.utils;
+
+import org.springframework.jdbc.support.SqlValue;
+
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.UUID;
+
+public class SqlArrayUtils {
+
+    /**
+     * 将 UUID 集合包装为可直接绑定到 {@code = ANY(?)} 的 PostgreSQL uuid[] 参数。
+     * 相比拼接 {@code IN ('...','...')}，SQL 文本保持不变，可复用服务端预编译语句与执行计划。
+     *
+     * @param ids UUID 集合。
+     * @return 可作为 JdbcClient / JdbcTemplate 参数传入的 SqlValue（有状态，每次执行需新建）。
+     */
+    public static SqlValue uuidArray(Collection<UUID> ids) {
+        return new ArrayValue("uuid", ids.toArray(new UUID[0]));
+    }
+
+    /**
+     * 将字节数组集合包装为 PostgreSQL bytea[] 参数 (如内容哈希)。
+     */
+    public static SqlValue byteaArray(Collection<byte[]> values) {
+        return new ArrayValue("bytea", values.toArray(new byte[0][]));
+    }
+
+    private static final class ArrayValue implements SqlValue {
+
+        private final String typeName;
+        private final Object[] elements;
+        private Array array;
+
+        private ArrayValue(String typeName, Object[] elements) {
+            this.typeName = typeName;
+            this.elements = elements;
+        }
+
+        @Override
+        public void setValue(PreparedStatement ps, int paramIndex) throws SQLException {
+            this.array = ps.getConnection().createArrayOf(typeName, elements);
+            ps.setArray(paramIndex, array);
+        }
+
+        @Override
+        public void cleanup() {
+            if (array != null) {
+                try {
+                    array.free();
+                } catch (SQLException ignored) {
+                    // pgjdbc 的 Array.free() 不会抛出异常
+                }
+                array = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+-- Operator-run conversion of an unpartitioned chunks table to the hash-partitioned layout of V19,
+-- for deployments where V19 left a populated table unpartitioned (chunks_partitioning=auto/skip).
+-- Not picked up by Flyway (outside db/migration); the schema below matches the migrations up to V23.
+--
+-- Run in a maintenance window:
+--   psql -v ON_ERROR_STOP=1 -f partition_chunks_by_document.sql "$DB_URL"
+-- chunks is locked in SHARE mode for the whole run: retrieval keeps working, but every chunk write
+-- (ingestion workers, re-ingestion, document deletes) blocks until COMMIT. Queued ingestion jobs simply
+-- wait; a job blocked longer than its lease is taken over and resumes from its checkpoint afterwards.
+-- Expect the run time to be dominated by the HNSW index builds (hours at tens of millions of chunks);
+-- raising maintenance_work_mem and max_parallel_maintenance_workers for this session shortens it.
+-- Chunks without a document_id are moved to chunks_orphaned instead of being dropped.
+
+\set ON_ERROR_STOP on
+
+BEGIN;
+
+LOCK TABLE chunks IN SHARE MODE;
+
+DO $$
+DECLARE
+    orphaned bigint;
+BEGIN
+    IF EXISTS (SELECT 1 FROM pg_partitioned_table WHERE partrelid = 'chunks'::regclass) THEN
+        RAISE EXCEPTION 'chunks is already partitioned';
+    END IF;
+    SELECT count(*) INTO orphaned FROM chunks WHERE document_id IS NULL;
+    IF orphaned > 0 THEN
+        CREATE TABLE IF NOT EXISTS chunks_orphaned AS SELECT * FROM chunks WITH NO DATA;
+        INSERT INTO chunks_orphaned SELECT * FROM chunks WHERE document_id IS NULL;
+        RAISE WARNING '% chunks without a document_id were moved to chunks_orphaned', orphaned;
+    END IF;
+END $$;
+
+CREATE TABLE chunks_partitioned (
+    id UUID NOT NULL,
+    document_id UUID NOT NULL,
+    content TEXT,
+    content_vector VECTOR(1024),
+    chunk_index INT,
+    source_meta JSONB,
+    created_at TIMESTAMPTZ DEFAULT now(),
+    chunker_name VARCHAR(255),
+    content_keywords TEXT,
+    content_search tsvector GENERATED ALWAYS AS (to_tsvector('simple', coalesce(content_keywords, ''))) STORED,
+    content_vector_half halfvec(1024),
+    content_vector_short vector(256),
+    content_hash BYTEA,
+    PRIMARY KEY (id, document_id)
+) PARTITION BY HASH (document_id);
+
+DO $$
+BEGIN
+    FOR i IN 0..15 LOOP
+        EXECUTE format('CREATE TABLE chunks_p%s PARTITION OF chunks_partitioned FOR VALUES WITH (MODULUS 16, REMAINDER %s)',
+                       lpad(i::text, 2, '0'), i);
+    END LOOP;
+END $$;
+
+INSERT INTO chunks_partitioned (id, document_id, content, content_vector, chunk_index, source_meta, created_at,
+                                chunker_name, content_keywords, content_vector_half, content_vector_short, content_hash)
+SELECT id, document_id, content, content_vector, chunk_index, source_meta, created_at,
+       chunker_name, content_keywords, content_vector_half, content_vector_short, content_hash
+FROM chunks
+WHERE document_id IS NOT NULL;
+
+-- Built after the copy and before the swap: retrieval uses the old table until COMMIT
+CREATE INDEX idx_chunks_p_document_id ON chunks_partitioned (document_id);
+CREATE INDEX idx_chunks_p_content_search ON chunks_partitioned USING GIN (content_search);
+CREATE INDEX idx_chunks_p_content_vector_hnsw ON chunks_partitioned
+    USING hnsw (content_vector vector_cosine_ops) WITH (m = 16, ef_construction = 64);
+CREATE INDEX idx_chunks_p_content_vector_half_hnsw ON chunks_partitioned
+    USING hnsw (content_vector_half halfvec_cosine_ops) WITH (m = 16, ef_construction = 64);
+CREATE INDEX idx_chunks_p_content_vector_binary_hnsw ON chunks_partitioned
+    USING hnsw ((binary_quantize(content_vector)::bit(1024)) bit_hamming_ops) WITH (m = 16, ef_construction = 64);
+CREATE INDEX idx_chunks_p_content_vector_short_hnsw ON chunks_partitioned
+    USING hnsw (content_vector_short vector_cosine_ops) WITH (m = 16, ef_construction = 64);
+
+DROP TABLE chunks;
+ALTER TABLE chunks_partitioned RENAME TO chunks;
+ALTER INDEX idx_chunks_p_document_id RENAME TO idx_chunks_document_id;
+ALTER INDEX idx_chunks_p_content_search RENAME TO idx_chunks_content_search;
+ALTER INDEX idx_chunks_p_content_vector_hnsw RENAME TO idx_chunks_content_vector_hnsw;
+ALTER INDEX idx_chunks_p_content_vector_half_hnsw RENAME TO idx_chunks_content_vector_half_hnsw;
+ALTER INDEX idx_chunks_p_content_vector_binary_hnsw RENAME TO idx_chunks_content_vector_binary_hnsw;
+ALTER INDEX idx_chunks_p_content_vector_short_hnsw RENAME TO idx_chunks_content_vector_short_hnsw;
+
+COMMENT ON TABLE chunks IS 'Stores document chunks, their embeddings, and metadata. Hash-partitioned by document_id.';
+COMMENT ON COLUMN chunks.document_id IS 'Parent document; also the partition key.';
+COMMENT ON COLUMN chunks.content IS 'The text content of the chunk.';
+COMMENT ON COLUMN chunks.content_vector IS 'The embedding vector for the content.';
+COMMENT ON COLUMN chunks.chunk_index IS 'The 0-based index of the chunk within the document.';
+COMMENT ON COLUMN chunks.source_meta IS 'Additional metadata, e.g., page number.';
+COMMENT ON COLUMN chunks.content_vector_half IS 'Half-precision copy of content_vector used for first-stage ANN search.';
+COMMENT ON COLUMN chunks.content_vector_short IS 'L2-normalized 256-dim prefix of content_vector used for coarse first-stage search.';
+COMMENT ON COLUMN chunks.content_hash IS 'SHA-256 of content, used for diff-based re-ingestion.';
+
+COMMIT;
@@ -0,0 +1,20 @@
+-- Replace the IVFFlat index created in V1 with HNSW.
+-- IVFFlat probes a fixed number of lists and applies the document filter afterwards, so small
+-- document sets often come back with fewer than LIMIT rows. HNSW supports per-query ef_search and,
+-- from pgvector 0.8, iterative index scans that keep scanning until enough filtered rows are found.
+--
+-- Every statement runs CONCURRENTLY, so Flyway executes this script outside a transaction and chunks stays
+-- writable while the indexes are built. The IVFFlat index is only dropped once the HNSW index exists, so
+-- vector search never runs without an ANN index. If a build fails, the INVALID index it leaves behind must be
+-- dropped by hand before the migration is retried (IF NOT EXISTS would otherwise skip it).
+
+-- 1. HNSW index for vector search.
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_chunks_content_vector_hnsw ON chunks
+    USING hnsw (content_vector vector_cosine_ops) WITH (m = 16, ef_construction = 64);
+
+-- 2. B-tree index on document_id so the planner can use an exact bitmap scan for very selective
+-- document filters instead of falling back to a sequential scan.
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_chunks_document_id ON chunks (document_id);
+
+-- 3. Drop the IVFFlat index now that HNSW has replaced it.
+DROP INDEX CONCURRENTLY IF EXISTS chunks_content_vector_idx;
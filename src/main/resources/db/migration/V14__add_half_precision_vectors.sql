@@ -0,0 +1,7 @@
+-- Optional half-precision copy of the embedding (app.rag.retrieval.vector-storage.mode=half).
+-- Adding a nullable column without a default is a metadata-only change; existing rows are converted
+-- online by the application in small batches (VectorStorageBackfill) instead of one long UPDATE.
+-- content_vector stays float32 and is used to rescore the half-precision candidates.
+ALTER TABLE chunks ADD COLUMN IF NOT EXISTS content_vector_half halfvec(1024);
+
+COMMENT ON COLUMN chunks.content_vector_half IS 'Half-precision copy of content_vector used for first-stage ANN search.';
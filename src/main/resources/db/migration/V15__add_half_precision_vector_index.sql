@@ -0,0 +1,6 @@
+-- HNSW index on the half-precision vectors, about half the size of the float32 index.
+-- CONCURRENTLY keeps the table writable while the index is built; Flyway runs this script outside
+-- a transaction. Deployments that switch to half mode permanently can drop idx_chunks_content_vector_hnsw
+-- so that only the smaller index competes for shared_buffers.
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_chunks_content_vector_half_hnsw ON chunks
+    USING hnsw (content_vector_half halfvec_cosine_ops) WITH (m = 16, ef_construction = 64);
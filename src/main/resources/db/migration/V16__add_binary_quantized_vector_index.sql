@@ -0,0 +1,7 @@
+-- Hamming-distance HNSW index over the binary-quantized embedding (app.rag.retrieval.vector-storage.mode=binary).
+-- An expression index needs no extra column: adding a stored generated bit(1024) column would rewrite the
+-- whole chunks table under an exclusive lock, while this index is built CONCURRENTLY (outside a transaction).
+-- Each dimension keeps only its sign bit, so the index is roughly 1/32 the size of the float32 index;
+-- candidates found by Hamming distance are always rescored with exact cosine distance on content_vector.
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_chunks_content_vector_binary_hnsw ON chunks
+    USING hnsw ((binary_quantize(content_vector)::bit(1024)) bit_hamming_ops) WITH (m = 16, ef_construction = 64);
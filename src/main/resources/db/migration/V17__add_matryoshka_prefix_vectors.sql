@@ -0,0 +1,7 @@
+-- Optional Matryoshka prefix of the embedding (app.rag.retrieval.vector-storage.mode=matryoshka):
+-- the first 256 dimensions, re-normalized to unit length. Only meaningful for embedding models trained
+-- with Matryoshka representation learning. Metadata-only column add; existing rows are filled online
+-- by VectorStorageBackfill, new rows are written by ingestion.
+ALTER TABLE chunks ADD COLUMN IF NOT EXISTS content_vector_short vector(256);
+
+COMMENT ON COLUMN chunks.content_vector_short IS 'L2-normalized 256-dim prefix of content_vector used for coarse first-stage search.';
@@ -0,0 +1,4 @@
+-- HNSW index on the 256-dim prefix vectors, about a quarter of the float32 index.
+-- Built CONCURRENTLY so the table stays writable; Flyway runs this script outside a transaction.
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_chunks_content_vector_short_hnsw ON chunks
+    USING hnsw (content_vector_short vector_cosine_ops) WITH (m = 16, ef_construction = 64);
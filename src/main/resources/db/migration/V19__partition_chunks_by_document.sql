@@ -0,0 +1,118 @@
+-- Rebuild chunks as a hash-partitioned table keyed by document_id.
+-- All chunks of a document live in one partition, so:
+--   * queries with a known document set (document_id = ANY(?)) are pruned to the partitions that hold it,
+--     and every partition has its own, smaller vector / GIN indexes;
+--   * deleting a document's chunks touches one partition and its document_id index instead of the
+--     whole heap and global indexes, and bloat from bulk ingest/delete stays partition-local.
+-- The primary key must include the partition key, so it becomes (id, document_id).
+--
+-- DOWNTIME: converting a populated table copies every row and builds every GIN / HNSW index from scratch
+-- inside this migration's transaction. chunks is locked in SHARE mode for the whole run, so retrieval keeps
+-- working but every chunk write (ingestion, re-ingestion, document deletes) blocks until the migration
+-- commits; the final swap briefly takes an ACCESS EXCLUSIVE lock. The run time grows with the table size
+-- (hours at tens of millions of chunks, dominated by the HNSW builds).
+-- The conversion is therefore only done on request, via the Flyway placeholder chunks_partitioning
+-- (spring.flyway.placeholders.chunks_partitioning, env CHUNKS_PARTITIONING):
+--   auto     (default) partition only when chunks is empty, i.e. new installs. A populated table is left
+--            unpartitioned with a WARNING; convert it later in a maintenance window with
+--            db/manual/partition_chunks_by_document.sql.
+--   migrate  convert now and accept the write outage described above.
+--   skip     never convert here.
+-- The application works with either layout.
+--
+-- Chunks without a document_id cannot be routed to a partition. They are unreachable from retrieval, but
+-- instead of being dropped they are moved to chunks_orphaned and reported with a WARNING.
+
+DO $$
+DECLARE
+    requested text := lower('${chunks_partitioning}');
+    populated boolean;
+    orphaned bigint;
+BEGIN
+    IF requested NOT IN ('auto', 'migrate', 'skip') THEN
+        RAISE EXCEPTION 'chunks_partitioning must be auto, migrate or skip, got %', requested;
+    END IF;
+
+    -- Block writers (readers continue) so that no row is written to the old table after it was copied
+    LOCK TABLE chunks IN SHARE MODE;
+    SELECT EXISTS (SELECT 1 FROM chunks) INTO populated;
+
+    IF requested = 'skip' OR (requested = 'auto' AND populated) THEN
+        RAISE WARNING 'chunks was not partitioned (chunks_partitioning=%, table populated: %)', requested, populated
+            USING HINT = 'Converting it blocks chunk writes for a time proportional to the table size. '
+                         || 'Run db/manual/partition_chunks_by_document.sql in a maintenance window.';
+        RETURN;
+    END IF;
+
+    SELECT count(*) INTO orphaned FROM chunks WHERE document_id IS NULL;
+    IF orphaned > 0 THEN
+        CREATE TABLE IF NOT EXISTS chunks_orphaned AS SELECT * FROM chunks WITH NO DATA;
+        INSERT INTO chunks_orphaned SELECT * FROM chunks WHERE document_id IS NULL;
+        RAISE WARNING '% chunks without a document_id were moved to chunks_orphaned', orphaned;
+    END IF;
+
+    CREATE TABLE chunks_partitioned (
+        id UUID NOT NULL,
+        document_id UUID NOT NULL,
+        content TEXT,
+        content_vector VECTOR(1024),
+        chunk_index INT,
+        source_meta JSONB,
+        created_at TIMESTAMPTZ DEFAULT now(),
+        chunker_name VARCHAR(255),
+        content_keywords TEXT,
+        content_search tsvector GENERATED ALWAYS AS (to_tsvector('simple', coalesce(content_keywords, ''))) STORED,
+        content_vector_half halfvec(1024),
+        content_vector_short vector(256),
+        PRIMARY KEY (id, document_id)
+    ) PARTITION BY HASH (document_id);
+
+    FOR i IN 0..15 LOOP
+        EXECUTE format('CREATE TABLE chunks_p%s PARTITION OF chunks_partitioned FOR VALUES WITH (MODULUS 16, REMAINDER %s)',
+                       lpad(i::text, 2, '0'), i);
+    END LOOP;
+
+    INSERT INTO chunks_partitioned (id, document_id, content, content_vector, chunk_index, source_meta, created_at,
+                                    chunker_name, content_keywords, content_vector_half, content_vector_short)
+    SELECT id, document_id, content, content_vector, chunk_index, source_meta, created_at,
+           chunker_name, content_keywords, content_vector_half, content_vector_short
+    FROM chunks
+    WHERE document_id IS NOT NULL;
+
+    -- Indexes declared on the parent are created on (and cascade to future) partitions.
+    -- Built after the copy, which is much faster than maintaining them row by row, and before the swap,
+    -- so that retrieval keeps using the old table and its indexes until the very end.
+    CREATE INDEX idx_chunks_p_document_id ON chunks_partitioned (document_id);
+
+    CREATE INDEX idx_chunks_p_content_search ON chunks_partitioned USING GIN (content_search);
+
+    CREATE INDEX idx_chunks_p_content_vector_hnsw ON chunks_partitioned
+        USING hnsw (content_vector vector_cosine_ops) WITH (m = 16, ef_construction = 64);
+
+    CREATE INDEX idx_chunks_p_content_vector_half_hnsw ON chunks_partitioned
+        USING hnsw (content_vector_half halfvec_cosine_ops) WITH (m = 16, ef_construction = 64);
+
+    CREATE INDEX idx_chunks_p_content_vector_binary_hnsw ON chunks_partitioned
+        USING hnsw ((binary_quantize(content_vector)::bit(1024)) bit_hamming_ops) WITH (m = 16, ef_construction = 64);
+
+    CREATE INDEX idx_chunks_p_content_vector_short_hnsw ON chunks_partitioned
+        USING hnsw (content_vector_short vector_cosine_ops) WITH (m = 16, ef_construction = 64);
+
+    DROP TABLE chunks;
+    ALTER TABLE chunks_partitioned RENAME TO chunks;
+    ALTER INDEX idx_chunks_p_document_id RENAME TO idx_chunks_document_id;
+    ALTER INDEX idx_chunks_p_content_search RENAME TO idx_chunks_content_search;
+    ALTER INDEX idx_chunks_p_content_vector_hnsw RENAME TO idx_chunks_content_vector_hnsw;
+    ALTER INDEX idx_chunks_p_content_vector_half_hnsw RENAME TO idx_chunks_content_vector_half_hnsw;
+    ALTER INDEX idx_chunks_p_content_vector_binary_hnsw RENAME TO idx_chunks_content_vector_binary_hnsw;
+    ALTER INDEX idx_chunks_p_content_vector_short_hnsw RENAME TO idx_chunks_content_vector_short_hnsw;
+
+    COMMENT ON TABLE chunks IS 'Stores document chunks, their embeddings, and metadata. Hash-partitioned by document_id.';
+    COMMENT ON COLUMN chunks.document_id IS 'Parent document; also the partition key.';
+    COMMENT ON COLUMN chunks.content IS 'The text content of the chunk.';
+    COMMENT ON COLUMN chunks.content_vector IS 'The embedding vector for the content.';
+    COMMENT ON COLUMN chunks.chunk_index IS 'The 0-based index of the chunk within the document.';
+    COMMENT ON COLUMN chunks.source_meta IS 'Additional metadata, e.g., page number.';
+    COMMENT ON COLUMN chunks.content_vector_half IS 'Half-precision copy of content_vector used for first-stage ANN search.';
+    COMMENT ON COLUMN chunks.content_vector_short IS 'L2-normalized 256-dim prefix of content_vector used for coarse first-stage search.';
+END $$;
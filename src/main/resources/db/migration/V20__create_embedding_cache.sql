@@ -0,0 +1,13 @@
+-- Content-addressed store of chunk embeddings: SHA-256 of the cleaned chunk text + embedding model name.
+-- Ingestion looks up every batch here first and only sends misses to the embedding endpoint,
+-- so duplicate uploads and lightly edited re-uploads reuse embeddings that were already paid for.
+-- The vector column is dimensionless so that several models can share the table.
+CREATE TABLE IF NOT EXISTS embedding_cache (
+    content_hash BYTEA NOT NULL,
+    model_name VARCHAR(255) NOT NULL,
+    embedding VECTOR NOT NULL,
+    created_at TIMESTAMPTZ NOT NULL DEFAULT now(),
+    PRIMARY KEY (content_hash, model_name)
+);
+
+COMMENT ON TABLE embedding_cache IS 'Chunk embeddings keyed by SHA-256 of the chunk text and the embedding model name.';
@@ -0,0 +1,6 @@
+-- SHA-256 of the stored chunk text, used to match chunks of an updated file against the existing rows
+-- so that re-ingestion only embeds, inserts and deletes what changed. Metadata-only column add;
+-- rows written before this migration have NULL and are hashed on the fly when their document is updated.
+ALTER TABLE chunks ADD COLUMN IF NOT EXISTS content_hash BYTEA;
+
+COMMENT ON COLUMN chunks.content_hash IS 'SHA-256 of content, used for diff-based re-ingestion.';
@@ -0,0 +1,40 @@
+-- Durable ingestion job queue. Uploads are enqueued here (with the uploaded file as payload) instead of
+-- being handed to an in-memory @Async executor, so a restart or crash no longer loses work.
+-- Workers on any instance claim jobs with FOR UPDATE SKIP LOCKED and hold a lease that they renew while
+-- running; a job whose lease expired is taken over by another worker. last_chunk_index is committed in the
+-- same transaction as each chunk batch, so a taken-over job resumes after the last committed batch.
+CREATE TABLE IF NOT EXISTS ingestion_jobs (
+    id UUID PRIMARY KEY,
+    document_id UUID NOT NULL REFERENCES documents(id) ON DELETE CASCADE,
+    job_type VARCHAR(20) NOT NULL,
+    user_id BIGINT NOT NULL,
+    file_name TEXT NOT NULL,
+    file_size BIGINT,
+    payload BYTEA,
+    status VARCHAR(20) NOT NULL DEFAULT 'QUEUED',
+    attempts INT NOT NULL DEFAULT 0,
+    last_chunk_index INT NOT NULL DEFAULT -1,
+    locked_by TEXT,
+    lease_expires_at TIMESTAMPTZ,
+    available_at TIMESTAMPTZ NOT NULL DEFAULT now(),
+    last_error TEXT,
+    created_at TIMESTAMPTZ NOT NULL DEFAULT now(),
+    updated_at TIMESTAMPTZ NOT NULL DEFAULT now()
+);
+
+COMMENT ON TABLE ingestion_jobs IS 'Durable queue of document ingestion and re-ingestion jobs.';
+COMMENT ON COLUMN ingestion_jobs.job_type IS 'INGEST (new document) or REINGEST (diff-based update of an existing document).';
+COMMENT ON COLUMN ingestion_jobs.payload IS 'Uploaded file content; cleared once the job completes or fails for good.';
+COMMENT ON COLUMN ingestion_jobs.status IS 'QUEUED, RUNNING, COMPLETED or FAILED.';
+COMMENT ON COLUMN ingestion_jobs.last_chunk_index IS 'Highest chunk_index committed by this job (checkpoint), -1 if none.';
+COMMENT ON COLUMN ingestion_jobs.locked_by IS 'Worker holding the lease while RUNNING.';
+
+-- Claim scan: only queued and running jobs are ever looked at
+CREATE INDEX IF NOT EXISTS idx_ingestion_jobs_active
+    ON ingestion_jobs (created_at)
+    WHERE status IN ('QUEUED', 'RUNNING');
+
+-- At most one active job per document
+CREATE UNIQUE INDEX IF NOT EXISTS uq_ingestion_jobs_active_document
+    ON ingestion_jobs (document_id)
+    WHERE status IN ('QUEUED', 'RUNNING');
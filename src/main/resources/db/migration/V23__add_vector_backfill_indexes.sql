@@ -0,0 +1,8 @@
+-- Intentionally empty.
+-- This version used to create partial indexes on chunks(id) WHERE <derived column> IS NULL AND
+-- content_vector IS NOT NULL for content_vector_half and content_vector_short. For a storage mode that is
+-- not in use the derived column is NULL on every row, so those indexes covered the whole table, were
+-- maintained on every chunk insert and were built without CONCURRENTLY.
+-- VectorStorageBackfill now creates the pending index of the active mode CONCURRENTLY when a backfill
+-- starts and drops it once nothing is pending. The version is kept so the migration history stays linear.
+SELECT 1;
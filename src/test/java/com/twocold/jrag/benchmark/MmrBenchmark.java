@@ -0,0 +1,125 @@
+package com.twocold.jrag.benchmark;
+
+import com.pgvector.PGvector;
+import com.twocold.jrag.domain.Chunk;
+import com.twocold.jrag.utils.MmrUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MMR 重排的 JMH 基准：fetchK = 60 个 1024 维候选，选出 topK 个。
+ * <ul>
+ *     <li>select：在预归一化的行向量上选择 (维护与已选集合的最大相似度，每轮 O(n·d))。</li>
+ *     <li>applyMmr：生产路径，含从 PGvector 取出并归一化候选向量。</li>
+ *     <li>naive：每轮重新计算与全部已选片段的相似度 (O(n·k·d))，作为对照。</li>
+ * </ul>
+ * 运行：{@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.twocold.jrag.benchmark.MmrBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MmrBenchmark {
+
+    private static final int DIMENSION = 1024;
+
+    @Param({"60"})
+    private int fetchK;
+
+    @Param({"5", "10"})
+    private int topK;
+
+    @Param({"0.5"})
+    private double lambda;
+
+    private List<Chunk> candidates;
+    private float[][] rows;
+    private float[] query;
+    private float[] normalizedQuery;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        candidates = new ArrayList<>(fetchK);
+        rows = new float[fetchK][];
+        for (int i = 0; i < fetchK; i++) {
+            float[] vector = randomVector(random);
+            Chunk chunk = new Chunk();
+            chunk.setId(UUID.randomUUID());
+            chunk.setContentVector(new PGvector(vector));
+            candidates.add(chunk);
+            rows[i] = MmrUtils.normalize(vector);
+        }
+        query = randomVector(random);
+        normalizedQuery = MmrUtils.normalize(query);
+    }
+
+    @Benchmark
+    public int[] select() {
+        return MmrUtils.select(rows, normalizedQuery, topK, lambda);
+    }
+
+    @Benchmark
+    public List<Chunk> applyMmr() {
+        return MmrUtils.applyMmr(candidates, query, topK, lambda);
+    }
+
+    @Benchmark
+    public int[] naive() {
+        int[] selected = new int[topK];
+        boolean[] picked = new boolean[fetchK];
+        for (int count = 0; count < topK; count++) {
+            int best = -1;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < fetchK; i++) {
+                if (picked[i]) {
+                    continue;
+                }
+                double redundancy = 0;
+                for (int j = 0; j < count; j++) {
+                    redundancy = Math.max(redundancy, MmrUtils.cosineSimilarity(rows[i], rows[selected[j]]));
+                }
+                double score = lambda * MmrUtils.cosineSimilarity(query, rows[i]) - (1 - lambda) * redundancy;
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = i;
+                }
+            }
+            picked[best] = true;
+            selected[count] = best;
+        }
+        return selected;
+    }
+
+    private static float[] randomVector(Random random) {
+        float[] vector = new float[DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(MmrBenchmark.class.getSimpleName()).build()).run();
+    }
+}
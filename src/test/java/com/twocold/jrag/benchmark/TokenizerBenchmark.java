@@ -0,0 +1,89 @@
+package com.twocold.jrag.benchmark;
+
+import com.twocold.jrag.config.RagProperties;
+import com.twocold.jrag.service.tokenizer.JiebaSegmenterAdapter;
+import com.twocold.jrag.service.tokenizer.Tokenizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 共享分词器的 JMH 基准 (jieba 搜索引擎模式 + 停用词过滤)。
+ * <ul>
+ *     <li>ingestChunk：入库大小的片段 (约 1000 字，中英混排) 生成 content_keywords。</li>
+ *     <li>queryUncached：查询大小的输入逐次分词 (不经过缓存)。</li>
+ *     <li>queryCached：重复查询命中查询分词缓存。</li>
+ * </ul>
+ * 运行：{@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.twocold.jrag.benchmark.TokenizerBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenizerBenchmark {
+
+    private static final String PARAGRAPH = """
+            检索增强生成 (RAG) 系统先把文档切分为片段，为每个片段生成向量并写入 PostgreSQL 的 pgvector 列，\
+            同时对正文分词后写入 content_keywords，用于 BM25 关键字检索。查询时向量检索与关键字检索并行执行，\
+            结果经 RRF 融合后交给重排序模型，最终选出的片段作为上下文提交给大语言模型生成回答。\
+            Hybrid search combines dense vectors with sparse keyword matching to improve recall on rare terms. \
+            """;
+
+    private static final List<String> QUERIES = List.of(
+            "如何配置 HNSW 索引的 ef_search 参数？",
+            "重排序超时后会回退到什么结果",
+            "What is the default chunk size?",
+            "文档更新时哪些片段需要重新生成向量");
+
+    private Tokenizer tokenizer;
+    private String chunk;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        tokenizer = new Tokenizer(List.of(new JiebaSegmenterAdapter()),
+                new RagProperties(null, null, null, null, null, null));
+        chunk = PARAGRAPH.repeat(4);
+        QUERIES.forEach(tokenizer::queryTerms);
+    }
+
+    @Benchmark
+    public String ingestChunk() {
+        return tokenizer.keywords(chunk);
+    }
+
+    @Benchmark
+    public void queryUncached(Blackhole blackhole) {
+        tokenizer.tokenize(nextQuery(), blackhole::consume);
+    }
+
+    @Benchmark
+    public List<String> queryCached() {
+        return tokenizer.queryTerms(nextQuery());
+    }
+
+    private String nextQuery() {
+        next = (next + 1) % QUERIES.size();
+        return QUERIES.get(next);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(TokenizerBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,118 @@
+package com.twocold.jrag.ingestion;
+
+import com.twocold.jrag.ingestion.ChunkDiff.ExistingChunk;
+import com.twocold.jrag.utils.ContentHash;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+class ChunkDiffTest {
+
+    @Test
+    void unchangedDocumentReusesEveryChunkInPlace() {
+        List<ExistingChunk> existing = existing("a", "b", "c");
+
+        ChunkDiff diff = ChunkDiff.plan(existing, hashes("a", "b", "c"));
+
+        assertThat(diff.reused())
+                .extracting(ChunkDiff.Reuse::position, ChunkDiff.Reuse::existing)
+                .containsExactly(tuple(0, existing.get(0)), tuple(1, existing.get(1)), tuple(2, existing.get(2)));
+        assertThat(diff.deleted()).isEmpty();
+        assertThat(diff.inserted()).isEmpty();
+    }
+
+    @Test
+    void chunksAfterAnInsertionAreMoved() {
+        List<ExistingChunk> existing = existing("a", "b", "c");
+
+        ChunkDiff diff = ChunkDiff.plan(existing, hashes("a", "new", "b", "c"));
+
+        assertThat(diff.reused())
+                .extracting(ChunkDiff.Reuse::position, ChunkDiff.Reuse::existing)
+                .containsExactly(tuple(0, existing.get(0)), tuple(2, existing.get(1)), tuple(3, existing.get(2)));
+        assertThat(diff.deleted()).isEmpty();
+        assertThat(diff.inserted()).containsExactly(1);
+    }
+
+    @Test
+    void removedAndEditedChunksAreDeleted() {
+        List<ExistingChunk> existing = existing("a", "b", "c", "d");
+
+        ChunkDiff diff = ChunkDiff.plan(existing, hashes("a", "c", "d-edited"));
+
+        assertThat(diff.reused())
+                .extracting(ChunkDiff.Reuse::position, ChunkDiff.Reuse::existing)
+                .containsExactly(tuple(0, existing.get(0)), tuple(1, existing.get(2)));
+        assertThat(diff.deleted()).containsExactlyInAnyOrder(existing.get(1).id(), existing.get(3).id());
+        assertThat(diff.inserted()).containsExactly(2);
+    }
+
+    @Test
+    void duplicatedHashesPreferSamePositionThenOldOrder() {
+        // 0:x 1:y 2:x 3:x
+        List<ExistingChunk> existing = existing("x", "y", "x", "x");
+
+        // 0:y 1:x 2:x —— 位置 2 的 x 原地保留，位置 1 复用最早的剩余 x (旧位置 0)，旧位置 3 的 x 删除
+        ChunkDiff diff = ChunkDiff.plan(existing, hashes("y", "x", "x"));
+
+        assertThat(diff.reused())
+                .extracting(ChunkDiff.Reuse::position, ChunkDiff.Reuse::existing)
+                .containsExactly(tuple(0, existing.get(1)), tuple(1, existing.get(0)), tuple(2, existing.get(2)));
+        assertThat(diff.deleted()).containsExactly(existing.get(3).id());
+        assertThat(diff.inserted()).isEmpty();
+    }
+
+    @Test
+    void moreDuplicatesThanBeforeInsertsTheExtraCopies() {
+        List<ExistingChunk> existing = existing("x");
+
+        ChunkDiff diff = ChunkDiff.plan(existing, hashes("x", "x", "x"));
+
+        assertThat(diff.reused())
+                .extracting(ChunkDiff.Reuse::position, ChunkDiff.Reuse::existing)
+                .containsExactly(tuple(0, existing.get(0)));
+        assertThat(diff.deleted()).isEmpty();
+        assertThat(diff.inserted()).containsExactly(1, 2);
+    }
+
+    @Test
+    void emptyDocumentInsertsEverything() {
+        ChunkDiff diff = ChunkDiff.plan(List.of(), hashes("a", "b"));
+
+        assertThat(diff.reused()).isEmpty();
+        assertThat(diff.deleted()).isEmpty();
+        assertThat(diff.inserted()).containsExactly(0, 1);
+    }
+
+    @Test
+    void emptyUpdateDeletesEverything() {
+        List<ExistingChunk> existing = existing("a", "b");
+
+        ChunkDiff diff = ChunkDiff.plan(existing, List.of());
+
+        assertThat(diff.reused()).isEmpty();
+        assertThat(diff.deleted()).containsExactlyInAnyOrder(existing.get(0).id(), existing.get(1).id());
+        assertThat(diff.inserted()).isEmpty();
+    }
+
+    private static List<ExistingChunk> existing(String... texts) {
+        List<ExistingChunk> chunks = new ArrayList<>();
+        for (int i = 0; i < texts.length; i++) {
+            chunks.add(new ExistingChunk(UUID.randomUUID(), i, ContentHash.sha256(texts[i]), "{}", true));
+        }
+        return chunks;
+    }
+
+    private static List<byte[]> hashes(String... texts) {
+        List<byte[]> hashes = new ArrayList<>();
+        for (String text : texts) {
+            hashes.add(ContentHash.sha256(text));
+        }
+        return hashes;
+    }
+}
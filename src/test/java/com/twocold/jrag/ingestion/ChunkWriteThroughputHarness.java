@@ -0,0 +1,149 @@
+package com.twocold.jrag.ingestion;
+
+import com.twocold.jrag.config.RagProperties;
+import com.twocold.jrag.support.PgVectorTestDatabase;
+import com.twocold.jrag.utils.ContentHash;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * chunks 写入吞吐量：同一批合成片段分别以 batchUpdate 与 COPY BINARY ({@link ChunkWriter}) 写入，输出每秒行数。
+ * 覆盖 full 与 half 存储模式 (half 模式额外写入派生的 halfvec 列)，并确认 COPY 路径没有回退为 batchUpdate、两种写法落库结果一致。
+ * <p>
+ * 需要 Docker；类名不匹配 surefire 的默认规则，不随 mvn test 运行，需显式指定：
+ * {@code mvn test -Dtest=ChunkWriteThroughputHarness}
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class ChunkWriteThroughputHarness {
+
+    private static final int DOCUMENTS = 20;
+    private static final int CHUNKS_PER_DOCUMENT = 250;
+    // 与 app.rag.ingestion.batch-size 的量级一致：每个事务写入一批
+    private static final int BATCH_SIZE = 50;
+
+    @Container
+    private static final PostgreSQLContainer<?> POSTGRES = PgVectorTestDatabase.container();
+
+    private static HikariDataSource dataSource;
+    private static JdbcTemplate jdbcTemplate;
+    private static TransactionTemplate transactionTemplate;
+    private static List<UUID> documentIds;
+    private static float[][] vectors;
+
+    @BeforeAll
+    static void setUp() {
+        dataSource = PgVectorTestDatabase.migrate(POSTGRES);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        documentIds = PgVectorTestDatabase.insertDocuments(jdbcTemplate, DOCUMENTS);
+        vectors = PgVectorTestDatabase.clusteredVectors(new Random(7), DOCUMENTS * CHUNKS_PER_DOCUMENT, 32);
+    }
+
+    @AfterAll
+    static void close() {
+        if (dataSource != null) {
+            dataSource.close();
+        }
+    }
+
+    @Test
+    void copyVersusBatchRowsPerSecond() {
+        System.out.printf("%-8s %-6s %10s %12s%n", "storage", "path", "rows", "rows/sec");
+        for (String storage : List.of("full", "half")) {
+            // 先跑一轮预热 (JIT、预编译语句、表与索引页)，再按 batch → copy 的顺序各测一次
+            write(storage, "batch");
+            write(storage, "copy");
+            for (String path : List.of("batch", "copy")) {
+                SimpleMeterRegistry registry = new SimpleMeterRegistry();
+                double rowsPerSecond = write(storage, path, registry);
+                System.out.printf("%-8s %-6s %10d %12.0f%n", storage, path, DOCUMENTS * CHUNKS_PER_DOCUMENT, rowsPerSecond);
+
+                // 确认测到的是目标路径 (COPY 失败会静默回退为 batchUpdate)
+                assertThat(registry.timer("rag.ingestion.chunk_write", "path", path).count())
+                        .isEqualTo((long) DOCUMENTS * (CHUNKS_PER_DOCUMENT / BATCH_SIZE));
+                assertStored(storage);
+            }
+        }
+    }
+
+    private double write(String storage, String path) {
+        return write(storage, path, new SimpleMeterRegistry());
+    }
+
+    /**
+     * 清空 chunks 后写入全部合成片段，返回每秒行数。
+     */
+    private double write(String storage, String path, SimpleMeterRegistry registry) {
+        jdbcTemplate.execute("TRUNCATE chunks");
+        ChunkWriter writer = new ChunkWriter(jdbcTemplate, dataSource, properties(storage, path), registry);
+        List<List<ChunkRow>> batches = batches();
+
+        long start = System.nanoTime();
+        for (List<ChunkRow> batch : batches) {
+            transactionTemplate.executeWithoutResult(status -> writer.write(batch));
+        }
+        long elapsed = System.nanoTime() - start;
+        return DOCUMENTS * CHUNKS_PER_DOCUMENT / (elapsed / 1e9);
+    }
+
+    private void assertStored(String storage) {
+        assertThat(jdbcTemplate.queryForObject("SELECT count(*) FROM chunks", Long.class))
+                .isEqualTo((long) DOCUMENTS * CHUNKS_PER_DOCUMENT);
+        // 向量、jsonb 与派生列按值校验：COPY 的二进制编码必须与 INSERT 的文本解析结果一致
+        assertThat(jdbcTemplate.queryForObject("""
+                SELECT count(*) FROM chunks
+                WHERE content_vector IS NULL
+                   OR vector_dims(content_vector) <> ?
+                   OR source_meta ->> 'page' IS NULL
+                   OR content_hash <> sha256(convert_to(content, 'UTF8'))
+                """, Long.class, PgVectorTestDatabase.DIMENSION)).isZero();
+        if ("half".equals(storage)) {
+            assertThat(jdbcTemplate.queryForObject(
+                    "SELECT count(*) FROM chunks WHERE content_vector_half IS DISTINCT FROM CAST(content_vector AS halfvec)",
+                    Long.class)).isZero();
+        }
+    }
+
+    private static List<List<ChunkRow>> batches() {
+        OffsetDateTime now = OffsetDateTime.now();
+        List<List<ChunkRow>> batches = new ArrayList<>();
+        for (int d = 0; d < DOCUMENTS; d++) {
+            UUID documentId = documentIds.get(d);
+            for (int from = 0; from < CHUNKS_PER_DOCUMENT; from += BATCH_SIZE) {
+                List<ChunkRow> batch = new ArrayList<>(BATCH_SIZE);
+                for (int c = from; c < from + BATCH_SIZE; c++) {
+                    String content = "文档 " + d + " 的第 " + c + " 个片段：" + "检索增强生成的示例正文。".repeat(20);
+                    batch.add(new ChunkRow(UUID.randomUUID(), documentId, content, vectors[d * CHUNKS_PER_DOCUMENT + c],
+                            c, "{\"page\": " + (c / 5 + 1) + ", \"file_name\": \"doc-" + d + ".pdf\"}", "harness",
+                            "检索 增强 生成 示例 正文", now, ContentHash.sha256(content)));
+                }
+                batches.add(batch);
+            }
+        }
+        return batches;
+    }
+
+    private static RagProperties properties(String storage, String writeMode) {
+        RagProperties.Retrieval retrieval = new RagProperties.Retrieval(10, null, null, null, null, true, null, null,
+                new RagProperties.Retrieval.VectorStorage(storage, false, 0, 0), null, null, null);
+        return new RagProperties(retrieval, null, null, null, null,
+                new RagProperties.Ingestion(BATCH_SIZE, 0, writeMode, false, null));
+    }
+}
@@ -0,0 +1,25 @@
+package com.twocold.jrag.ingestion;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IngestionJobWorkerTest {
+
+    @Test
+    void temporaryFileKeepsOnlyTheExtension() {
+        assertThat(IngestionJobWorker.extension("季度报告.PDF")).isEqualTo(".PDF");
+        assertThat(IngestionJobWorker.extension("archive.tar.docx")).isEqualTo(".docx");
+        assertThat(IngestionJobWorker.extension("../../etc/notes.md")).isEqualTo(".md");
+        assertThat(IngestionJobWorker.extension("C:\\Users\\a\\slides.pptx")).isEqualTo(".pptx");
+    }
+
+    @Test
+    void missingOrUnsafeExtensionFallsBackToDefaultSuffix() {
+        assertThat(IngestionJobWorker.extension(null)).isNull();
+        assertThat(IngestionJobWorker.extension("README")).isNull();
+        assertThat(IngestionJobWorker.extension("dir.d/README")).isNull();
+        assertThat(IngestionJobWorker.extension("name.")).isNull();
+        assertThat(IngestionJobWorker.extension("x." + "a".repeat(100))).isNull();
+    }
+}
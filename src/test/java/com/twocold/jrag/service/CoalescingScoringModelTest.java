@@ -0,0 +1,178 @@
+package com.twocold.jrag.service;
+
+import com.twocold.jrag.config.RagProperties;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.output.Response;
+import dev.langchain4j.model.scoring.ScoringModel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CoalescingScoringModelTest {
+
+    private final RecordingScoringModel delegate = new RecordingScoringModel();
+    private final ExecutorService callers = Executors.newVirtualThreadPerTaskExecutor();
+    private CoalescingScoringModel model;
+
+    @AfterEach
+    void tearDown() {
+        if (model != null) {
+            model.close();
+        }
+        callers.shutdownNow();
+    }
+
+    @Test
+    void concurrentRequestsForSameQueryShareOneCallAndDeduplicateTexts() {
+        model = new CoalescingScoringModel(delegate, new RagProperties.Retrieval.Rerank.Batching(true, 500, 64));
+
+        List<CompletableFuture<List<Double>>> results = submitTogether(
+                () -> score("q", "aa", "bbb"),
+                () -> score("q", "bbb", "c"),
+                () -> score("q", "dddd"));
+
+        assertThat(results.get(0).join()).containsExactly(2.0, 3.0);
+        assertThat(results.get(1).join()).containsExactly(3.0, 1.0);
+        assertThat(results.get(2).join()).containsExactly(4.0);
+        assertThat(delegate.calls).hasSize(1);
+        assertThat(delegate.calls.get(0).texts()).containsExactlyInAnyOrder("aa", "bbb", "c", "dddd");
+    }
+
+    @Test
+    void differentQueriesAreScoredSeparately() {
+        model = new CoalescingScoringModel(delegate, new RagProperties.Retrieval.Rerank.Batching(true, 500, 64));
+
+        List<CompletableFuture<List<Double>>> results = submitTogether(
+                () -> score("q1", "aa"),
+                () -> score("q2", "aa", "b"));
+
+        assertThat(results.get(0).join()).containsExactly(2.0);
+        assertThat(results.get(1).join()).containsExactly(2.0, 1.0);
+        assertThat(delegate.calls).extracting(Call::query).containsExactlyInAnyOrder("q1", "q2");
+    }
+
+    @Test
+    void largeRequestIsSplitByMaxBatchSize() {
+        model = new CoalescingScoringModel(delegate, new RagProperties.Retrieval.Rerank.Batching(true, 5, 2));
+
+        assertThat(score("q", "a", "bb", "ccc", "dddd", "eeeee")).containsExactly(1.0, 2.0, 3.0, 4.0, 5.0);
+        assertThat(delegate.calls).hasSize(3).allMatch(call -> call.texts().size() <= 2);
+    }
+
+    @Test
+    void delegateFailureReachesEveryCaller() {
+        delegate.failure = new RuntimeException("rerank api down");
+        model = new CoalescingScoringModel(delegate, new RagProperties.Retrieval.Rerank.Batching(true, 5, 64));
+
+        assertThatThrownBy(() -> score("q", "a"))
+                .isInstanceOf(IllegalStateException.class)
+                .hasRootCauseMessage("rerank api down");
+    }
+
+    @Test
+    void emptyRequestAndClosedModelBypassTheWindow() {
+        model = new CoalescingScoringModel(delegate, new RagProperties.Retrieval.Rerank.Batching(true, 5, 64));
+
+        assertThat(model.scoreAll(List.of(), "q").content()).isEmpty();
+        assertThat(delegate.calls).isEmpty();
+
+        model.close();
+        assertThat(score("q", "abc")).containsExactly(3.0);
+        assertThat(delegate.calls).hasSize(1);
+    }
+
+    @Test
+    void closeCompletesRequestsStillWaitingInTheWindow() throws Exception {
+        // 窗口足够长，关闭时请求还在队列或收集线程的窗口中
+        model = new CoalescingScoringModel(delegate, new RagProperties.Retrieval.Rerank.Batching(true, 10_000, 64));
+
+        CompletableFuture<List<Double>> result = CompletableFuture.supplyAsync(() -> score("q", "ab", "c"), callers);
+        Thread.sleep(100);
+        model.close();
+
+        assertThat(result.get(5, TimeUnit.SECONDS)).containsExactly(2.0, 1.0);
+    }
+
+    @Test
+    void waitingForTheResultIsBounded() {
+        CountDownLatch release = new CountDownLatch(1);
+        ScoringModel stuck = (segments, query) -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return delegate.scoreAll(segments, query);
+        };
+        model = new CoalescingScoringModel(stuck, new RagProperties.Retrieval.Rerank.Batching(true, 5, 64),
+                Duration.ofMillis(200));
+
+        try {
+            assertThatThrownBy(() -> score("q", "a"))
+                    .isInstanceOf(IllegalStateException.class)
+                    .hasCauseInstanceOf(TimeoutException.class);
+        } finally {
+            release.countDown();
+        }
+    }
+
+    private List<Double> score(String query, String... texts) {
+        List<TextSegment> segments = new ArrayList<>();
+        for (String text : texts) {
+            segments.add(TextSegment.from(text));
+        }
+        return model.scoreAll(segments, query).content();
+    }
+
+    @SafeVarargs
+    private List<CompletableFuture<List<Double>>> submitTogether(
+            Supplier<List<Double>>... requests) {
+        CountDownLatch start = new CountDownLatch(1);
+        List<CompletableFuture<List<Double>>> results = new ArrayList<>();
+        for (Supplier<List<Double>> request : requests) {
+            results.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return request.get();
+            }, callers));
+        }
+        start.countDown();
+        return results;
+    }
+
+    private record Call(String query, List<String> texts) {}
+
+    /**
+     * 以文本长度作为分数，并记录每次调用。
+     */
+    private static final class RecordingScoringModel implements ScoringModel {
+        private final List<Call> calls = Collections.synchronizedList(new ArrayList<>());
+        private volatile RuntimeException failure;
+
+        @Override
+        public Response<List<Double>> scoreAll(List<TextSegment> segments, String query) {
+            calls.add(new Call(query, segments.stream().map(TextSegment::text).toList()));
+            if (failure != null) {
+                throw failure;
+            }
+            return Response.from(segments.stream().map(segment -> (double) segment.text().length()).toList());
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.twocold.jrag.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pgvector.PGvector;
+import com.twocold.jrag.config.RagProperties;
+import com.twocold.jrag.ingestion.ChunkRow;
+import com.twocold.jrag.ingestion.ChunkWriter;
+import com.twocold.jrag.support.PgVectorTestDatabase;
+import com.twocold.jrag.utils.SqlArrayUtils;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 文档过滤条件的两种写法对比：拼接字面量的 {@code document_id IN ('...', ...)} 与绑定单个 uuid[] 参数的
+ * {@code document_id = ANY(?)} (当前的向量与关键词检索 SQL)。对几百到上千个文档 ID 分别输出
+ * EXPLAIN (ANALYZE, FORMAT JSON) 的 Planning Time / Execution Time 中位数，以及经 JDBC 重复执行时的端到端中位延迟
+ * (后者包含 SQL 解析，以及 pgjdbc 在 prepareThreshold 次执行后改用服务端预编译语句的收益)。
+ * <p>
+ * 需要 Docker；类名不匹配 surefire 的默认规则，不随 mvn test 运行，需显式指定：
+ * {@code mvn test -Dtest=DocumentFilterPlanningHarness}
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class DocumentFilterPlanningHarness {
+
+    private static final int DOCUMENTS = 1000;
+    private static final int CHUNKS_PER_DOCUMENT = 10;
+    private static final int[] FILTER_SIZES = {50, 200, 500, 1000};
+    private static final int RUNS = 30;
+    private static final int LIMIT = 40;
+    private static final String[] WORDS = {"检索", "向量", "索引", "文档", "分区", "缓存", "模型", "查询", "排序", "语料"};
+
+    // 与 PgVectorSearchBackend / PgKeywordSearchBackend 的查询形状一致，%s 处为文档过滤条件
+    private static final String VECTOR_SQL = """
+            SELECT id, document_id, vector_send(content_vector) AS content_vector
+            FROM chunks
+            WHERE %s
+            ORDER BY content_vector <=> ?
+            LIMIT ?
+            """;
+
+    private static final String KEYWORD_SQL = """
+            SELECT id, document_id, NULL::bytea AS content_vector
+            FROM chunks
+            WHERE %s
+            AND content_search @@ to_tsquery('simple', ?)
+            ORDER BY ts_rank(content_search, to_tsquery('simple', ?)) DESC
+            LIMIT ?
+            """;
+
+    @Container
+    private static final PostgreSQLContainer<?> POSTGRES = PgVectorTestDatabase.container();
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private static HikariDataSource dataSource;
+    private static JdbcClient jdbcClient;
+    private static List<UUID> documentIds;
+    private static float[] queryVector;
+
+    @BeforeAll
+    static void loadCorpus() {
+        dataSource = PgVectorTestDatabase.migrate(POSTGRES);
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcClient = JdbcClient.create(dataSource);
+        TransactionTemplate transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+
+        Random random = new Random(3);
+        documentIds = PgVectorTestDatabase.insertDocuments(jdbcTemplate, DOCUMENTS);
+        float[][] vectors = PgVectorTestDatabase.clusteredVectors(random, DOCUMENTS * CHUNKS_PER_DOCUMENT, 32);
+        RagProperties.Retrieval retrieval = new RagProperties.Retrieval(10, null, null, null, null, true, null, null,
+                null, null, null, null);
+        RagProperties properties = new RagProperties(retrieval, null, null, null, null,
+                new RagProperties.Ingestion(0, 0, "copy", false, null));
+        ChunkWriter writer = new ChunkWriter(jdbcTemplate, dataSource, properties, new SimpleMeterRegistry());
+        OffsetDateTime now = OffsetDateTime.now();
+        List<ChunkRow> rows = new ArrayList<>();
+        for (int d = 0; d < DOCUMENTS; d++) {
+            for (int c = 0; c < CHUNKS_PER_DOCUMENT; c++) {
+                String keywords = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)];
+                rows.add(new ChunkRow(UUID.randomUUID(), documentIds.get(d), keywords,
+                        vectors[d * CHUNKS_PER_DOCUMENT + c], c, "{}", "harness", keywords, now, new byte[32]));
+            }
+            if (rows.size() >= 1000) {
+                List<ChunkRow> batch = List.copyOf(rows);
+                transactionTemplate.executeWithoutResult(status -> writer.write(batch));
+                rows.clear();
+            }
+        }
+        if (!rows.isEmpty()) {
+            transactionTemplate.executeWithoutResult(status -> writer.write(rows));
+        }
+        jdbcTemplate.execute("ANALYZE chunks");
+        queryVector = vectors[random.nextInt(vectors.length)];
+    }
+
+    @AfterAll
+    static void close() {
+        if (dataSource != null) {
+            dataSource.close();
+        }
+    }
+
+    @Test
+    void literalInListVersusBoundArray() {
+        System.out.printf("%-8s %6s %-10s %14s %14s %14s%n",
+                "query", "ids", "filter", "planning (ms)", "execution (ms)", "jdbc p50 (ms)");
+        for (String shape : List.of("vector", "keyword")) {
+            for (int size : FILTER_SIZES) {
+                List<UUID> filter = documentIds.subList(0, size);
+                for (boolean bound : new boolean[] {false, true}) {
+                    Timing timing = measure(shape, filter, bound);
+                    System.out.printf("%-8s %6d %-10s %14.3f %14.3f %14.3f%n", shape, size,
+                            bound ? "ANY(?)" : "IN (...)", timing.planningMillis(), timing.executionMillis(),
+                            timing.jdbcMillis());
+                }
+            }
+        }
+    }
+
+    private Timing measure(String shape, List<UUID> filter, boolean bound) {
+        String condition = bound
+                ? "document_id = ANY(?)"
+                : "document_id IN (" + filter.stream().map(id -> "'" + id + "'").collect(Collectors.joining(", ")) + ")";
+        String sql = ("vector".equals(shape) ? VECTOR_SQL : KEYWORD_SQL).formatted(condition);
+
+        double[] planning = new double[RUNS];
+        double[] execution = new double[RUNS];
+        for (int i = 0; i < RUNS; i++) {
+            String plan = jdbcClient.sql("EXPLAIN (ANALYZE, FORMAT JSON) " + sql)
+                    .params(params(shape, filter, bound))
+                    .query(String.class)
+                    .single();
+            JsonNode root = readPlan(plan);
+            planning[i] = root.path("Planning Time").asDouble();
+            execution[i] = root.path("Execution Time").asDouble();
+            assertThat(root.path("Plan").isMissingNode()).isFalse();
+        }
+
+        // 前几次为预热：pgjdbc 在 prepareThreshold (默认 5) 次执行后才使用服务端预编译语句
+        double[] jdbc = new double[RUNS];
+        for (int i = -5; i < RUNS; i++) {
+            long start = System.nanoTime();
+            List<UUID> ids = jdbcClient.sql(sql)
+                    .params(params(shape, filter, bound))
+                    .query((rs, rowNum) -> rs.getObject("id", UUID.class))
+                    .list();
+            if (i >= 0) {
+                jdbc[i] = (System.nanoTime() - start) / 1e6;
+            }
+            assertThat(ids).isNotEmpty();
+        }
+        return new Timing(median(planning), median(execution), median(jdbc));
+    }
+
+    private static List<Object> params(String shape, List<UUID> filter, boolean bound) {
+        List<Object> params = new ArrayList<>();
+        if (bound) {
+            // SqlValue 有状态，每次执行新建
+            params.add(SqlArrayUtils.uuidArray(filter));
+        }
+        if ("vector".equals(shape)) {
+            params.add(new PGvector(queryVector));
+        } else {
+            params.add(WORDS[0]);
+            params.add(WORDS[0]);
+        }
+        params.add(LIMIT);
+        return params;
+    }
+
+    private static JsonNode readPlan(String json) {
+        try {
+            return objectMapper.readTree(json).get(0);
+        } catch (Exception e) {
+            throw new IllegalStateException("无法解析执行计划: " + json, e);
+        }
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private record Timing(double planningMillis, double executionMillis, double jdbcMillis) {}
+}
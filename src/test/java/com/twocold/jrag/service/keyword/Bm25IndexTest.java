@@ -0,0 +1,202 @@
+package com.twocold.jrag.service.keyword;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.data.Offset.offset;
+
+class Bm25IndexTest {
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final int VOCABULARY = 40;
+
+    private final Random random = new Random(11);
+    // 文档 → (片段 ID → content_keywords)，按写入顺序
+    private final Map<UUID, Map<UUID, String>> corpus = new LinkedHashMap<>();
+
+    @Test
+    void scoresMatchNaiveBm25() {
+        // 词表较小，倒排表长度超过一个跳表块 (64 条)
+        Bm25Index index = buildIndex(30, 20);
+        List<UUID> all = new ArrayList<>(corpus.keySet());
+
+        for (int q = 0; q < 30; q++) {
+            List<String> terms = randomQuery();
+            assertMatchesNaive(index.search(terms, all, 15), terms, new HashSet<>(all), 15);
+        }
+    }
+
+    @Test
+    void documentFilterOnlyScoresAllowedDocuments() {
+        Bm25Index index = buildIndex(30, 20);
+        List<UUID> documents = new ArrayList<>(corpus.keySet());
+        // 不相邻的文档覆盖多个编号区间与跳表定位
+        List<UUID> allowed = List.of(documents.get(2), documents.get(17), documents.get(29));
+
+        for (int q = 0; q < 30; q++) {
+            List<String> terms = randomQuery();
+            List<Bm25Index.Hit> hits = index.search(terms, allowed, 10);
+
+            assertThat(hits).allMatch(hit -> allowed.contains(hit.documentId()));
+            assertMatchesNaive(hits, terms, new HashSet<>(allowed), 10);
+        }
+        assertThat(index.search(randomQuery(), List.of(UUID.randomUUID()), 10)).isEmpty();
+    }
+
+    @Test
+    void termsAreMatchedCaseInsensitively() {
+        Bm25Index index = new Bm25Index(K1, B);
+        UUID documentId = UUID.randomUUID();
+        UUID chunkId = UUID.randomUUID();
+        index.replaceDocument(documentId, List.of(new AbstractMap.SimpleEntry<>(chunkId, "PostgreSQL 向量 检索")));
+
+        assertThat(index.search(List.of("postgresql"), List.of(documentId), 5))
+                .singleElement()
+                .extracting(Bm25Index.Hit::chunkId)
+                .isEqualTo(chunkId);
+        assertThat(index.search(List.of("mysql"), List.of(documentId), 5)).isEmpty();
+    }
+
+    @Test
+    void removedDocumentIsNotReturnedAndCanBeReadded() {
+        Bm25Index index = buildIndex(10, 20);
+        List<UUID> documents = new ArrayList<>(corpus.keySet());
+        UUID documentId = documents.get(4);
+
+        assertThat(index.removeDocument(documentId)).isEqualTo(20);
+        assertThat(index.removeDocument(documentId)).isZero();
+        assertThat(index.liveCount()).isEqualTo(9 * 20);
+        assertThat(index.deletedCount()).isEqualTo(20);
+        for (int q = 0; q < 10; q++) {
+            assertThat(index.search(randomQuery(), documents, 50))
+                    .noneMatch(hit -> hit.documentId().equals(documentId));
+        }
+
+        Map<UUID, String> readded = randomChunks(15);
+        index.replaceDocument(documentId, entries(readded));
+
+        assertThat(index.liveCount()).isEqualTo(9 * 20 + 15);
+        List<Bm25Index.Hit> hits = index.search(allTerms(), List.of(documentId), 100);
+        assertThat(hits).extracting(Bm25Index.Hit::chunkId).containsExactlyInAnyOrderElementsOf(readded.keySet());
+    }
+
+    @Test
+    void replacingDocumentTombstonesPreviousChunks() {
+        Bm25Index index = buildIndex(5, 10);
+        UUID documentId = corpus.keySet().iterator().next();
+        Set<UUID> previous = new HashSet<>(corpus.get(documentId).keySet());
+
+        Map<UUID, String> replacement = randomChunks(8);
+        index.replaceDocument(documentId, entries(replacement));
+
+        assertThat(index.deletedCount()).isEqualTo(10);
+        assertThat(index.search(allTerms(), List.of(documentId), 100))
+                .extracting(Bm25Index.Hit::chunkId)
+                .doesNotContainAnyElementsOf(previous)
+                .containsExactlyInAnyOrderElementsOf(replacement.keySet());
+    }
+
+    private Bm25Index buildIndex(int documents, int chunksPerDocument) {
+        Bm25Index index = new Bm25Index(K1, B);
+        for (int d = 0; d < documents; d++) {
+            UUID documentId = UUID.randomUUID();
+            Map<UUID, String> chunks = randomChunks(chunksPerDocument);
+            corpus.put(documentId, chunks);
+            index.replaceDocument(documentId, entries(chunks));
+        }
+        return index;
+    }
+
+    private void assertMatchesNaive(List<Bm25Index.Hit> hits, List<String> terms, Set<UUID> allowed, int k) {
+        Map<UUID, Double> expected = naiveScores(terms, allowed);
+        List<Double> expectedTop = expected.values().stream()
+                .sorted(Comparator.reverseOrder())
+                .limit(k)
+                .toList();
+
+        assertThat(hits).hasSize(expectedTop.size());
+        for (int i = 0; i < hits.size(); i++) {
+            Bm25Index.Hit hit = hits.get(i);
+            // 同分时顺序不确定，按位置比较分数，按片段比较自身的分数
+            assertThat((double) hit.score()).isCloseTo(expectedTop.get(i), offset(1e-4));
+            assertThat((double) hit.score()).isCloseTo(expected.get(hit.chunkId()), offset(1e-4));
+        }
+    }
+
+    /**
+     * 逐片段计算的 BM25 (无删除时与索引的统计口径一致)。
+     */
+    private Map<UUID, Double> naiveScores(List<String> terms, Set<UUID> allowed) {
+        Map<UUID, List<String>> tokens = new HashMap<>();
+        corpus.values().forEach(chunks -> chunks.forEach((id, text) -> tokens.put(id, List.of(text.split(" ")))));
+        int n = tokens.size();
+        double avgLength = tokens.values().stream().mapToInt(List::size).average().orElse(1);
+
+        Map<UUID, Double> scores = new HashMap<>();
+        for (String term : new HashSet<>(terms)) {
+            long df = tokens.values().stream().filter(t -> t.contains(term)).count();
+            double idf = Math.log(1.0 + (n - df + 0.5) / (df + 0.5));
+            corpus.forEach((documentId, chunks) -> {
+                if (!allowed.contains(documentId)) {
+                    return;
+                }
+                for (UUID chunkId : chunks.keySet()) {
+                    List<String> t = tokens.get(chunkId);
+                    long tf = t.stream().filter(term::equals).count();
+                    if (tf > 0) {
+                        double norm = K1 * (1 - B + B * t.size() / avgLength);
+                        scores.merge(chunkId, idf * tf * (K1 + 1) / (tf + norm), Double::sum);
+                    }
+                }
+            });
+        }
+        return scores;
+    }
+
+    private Map<UUID, String> randomChunks(int count) {
+        Map<UUID, String> chunks = new LinkedHashMap<>();
+        for (int c = 0; c < count; c++) {
+            int length = 5 + random.nextInt(30);
+            List<String> words = new ArrayList<>(length);
+            for (int i = 0; i < length; i++) {
+                // 偏斜分布：低编号的词更常见，df 差异更大
+                words.add("w" + (int) (VOCABULARY * Math.pow(random.nextDouble(), 2)));
+            }
+            chunks.put(UUID.randomUUID(), String.join(" ", words));
+        }
+        return chunks;
+    }
+
+    private List<String> randomQuery() {
+        List<String> terms = new ArrayList<>();
+        for (int i = 0; i < 1 + random.nextInt(4); i++) {
+            terms.add("w" + random.nextInt(VOCABULARY));
+        }
+        return terms;
+    }
+
+    private static List<String> allTerms() {
+        List<String> terms = new ArrayList<>();
+        for (int i = 0; i < VOCABULARY; i++) {
+            terms.add("w" + i);
+        }
+        return terms;
+    }
+
+    private static List<Map.Entry<UUID, String>> entries(Map<UUID, String> chunks) {
+        return new ArrayList<>(chunks.entrySet());
+    }
+}
@@ -0,0 +1,91 @@
+package com.twocold.jrag.service.tokenizer;
+
+import com.twocold.jrag.config.RagProperties;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TokenizerTest {
+
+    private static final RagProperties PROPERTIES = new RagProperties(null, null, null, null, null, null);
+
+    @Test
+    void tokenizeDropsStopWordsAndBlanks() {
+        Tokenizer tokenizer = new Tokenizer(List.of(new WhitespaceSegmenter()), PROPERTIES);
+        List<String> words = new ArrayList<>();
+
+        tokenizer.tokenize("向量 的  检索 是 数据库", words::add);
+
+        assertThat(words).containsExactly("向量", "检索", "数据库");
+        assertThat(tokenizer.keywords("向量 的  检索 是 数据库")).isEqualTo("向量 检索 数据库");
+        assertThat(tokenizer.keywords(null)).isEmpty();
+        assertThat(tokenizer.keywords("的 是")).isEmpty();
+    }
+
+    @Test
+    void queryTermsAreDistinctInOrderAndCached() {
+        WhitespaceSegmenter segmenter = new WhitespaceSegmenter();
+        Tokenizer tokenizer = new Tokenizer(List.of(segmenter), PROPERTIES);
+
+        List<String> terms = tokenizer.queryTerms("检索 向量 的 检索");
+
+        assertThat(terms).containsExactly("检索", "向量");
+        assertThat(tokenizer.queryTerms("检索 向量 的 检索")).isSameAs(terms);
+        assertThat(segmenter.calls.get()).isEqualTo(1);
+        assertThatThrownBy(() -> terms.add("x")).isInstanceOf(UnsupportedOperationException.class);
+        assertThat(tokenizer.queryTerms(" ")).isEmpty();
+        assertThat(tokenizer.queryTerms(null)).isEmpty();
+    }
+
+    @Test
+    void queryOfOnlyStopWordsFallsBackToUnfilteredTerms() {
+        Tokenizer tokenizer = new Tokenizer(List.of(new WhitespaceSegmenter()), PROPERTIES);
+
+        assertThat(tokenizer.queryTerms("的 是 的")).containsExactly("的", "是");
+    }
+
+    @Test
+    void unknownSegmenterFailsFast() {
+        RagProperties properties = new RagProperties(null, null, null, null,
+                new RagProperties.Tokenizer("ik", 0), null);
+
+        assertThatThrownBy(() -> new Tokenizer(List.of(new WhitespaceSegmenter()), properties))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void jiebaKeywordsAndQueryTermsAgree() {
+        Tokenizer tokenizer = new Tokenizer(List.of(new JiebaSegmenterAdapter()), PROPERTIES);
+        String text = "基于向量数据库的混合检索系统";
+
+        String keywords = tokenizer.keywords(text);
+
+        // 入库与检索使用同一切分，查询词都能在 content_keywords 中找到
+        assertThat(keywords).isNotBlank().doesNotContain(" 的 ");
+        assertThat(List.of(keywords.split(" "))).containsAll(tokenizer.queryTerms(text));
+        assertThat(tokenizer.queryTerms(text)).contains("向量", "数据库");
+    }
+
+    private static final class WhitespaceSegmenter implements Segmenter {
+        private final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public void segment(CharSequence text, Consumer<String> sink) {
+            calls.incrementAndGet();
+            for (String word : text.toString().split(" ")) {
+                sink.accept(word);
+            }
+        }
+
+        @Override
+        public String name() {
+            return "jieba";
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package com.twocold.jrag.service.vector;
+
+import com.twocold.jrag.utils.MmrUtils;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.data.Offset.offset;
+
+class HnswIndexTest {
+
+    private static final int DIMENSION = 32;
+    private static final int DOCUMENTS = 20;
+    private static final int CHUNKS_PER_DOCUMENT = 100;
+    private static final int K = 10;
+
+    private final Random random = new Random(42);
+    private final List<UUID> documentIds = new ArrayList<>();
+    private final List<Entry> corpus = new ArrayList<>();
+
+    @Test
+    void graphSearchRecallMatchesBruteForce() {
+        HnswIndex index = buildIndex();
+
+        double recall = averageRecall(index, documentIds, 50);
+
+        assertThat(recall).isGreaterThanOrEqualTo(0.9);
+    }
+
+    @Test
+    void filteredSearchOnlyReturnsAllowedDocuments() {
+        HnswIndex index = buildIndex();
+        List<UUID> allowed = documentIds.subList(0, 2);
+
+        for (int q = 0; q < 20; q++) {
+            List<HnswIndex.Hit> hits = index.search(randomVector(), allowed, K, 40, 400, 0);
+
+            assertThat(hits).hasSize(K);
+            assertThat(hits).allMatch(hit -> allowed.contains(hit.documentId()));
+        }
+        assertThat(averageRecall(index, allowed, 20)).isGreaterThanOrEqualTo(0.9);
+    }
+
+    @Test
+    void exactSearchBelowThresholdMatchesBruteForce() {
+        HnswIndex index = buildIndex();
+        List<UUID> allowed = List.of(documentIds.get(3));
+        float[] query = randomVector();
+
+        List<HnswIndex.Hit> hits = index.search(query, allowed, K, 40, 400, CHUNKS_PER_DOCUMENT);
+
+        assertThat(hits.stream().map(HnswIndex.Hit::chunkId).toList())
+                .isEqualTo(bruteForce(query, new HashSet<>(allowed), K));
+    }
+
+    @Test
+    void filterMatchingNoDocumentsReturnsNothing() {
+        HnswIndex index = buildIndex();
+
+        assertThat(index.search(randomVector(), List.of(UUID.randomUUID()), K, 40, 400, 0)).isEmpty();
+        assertThat(index.search(randomVector(), List.of(), K, 40, 400, 0)).isEmpty();
+    }
+
+    @Test
+    void removedDocumentDisappearsAndCanBeReadded() {
+        HnswIndex index = buildIndex();
+        UUID removedDocument = documentIds.get(0);
+
+        assertThat(index.removeDocument(removedDocument)).isEqualTo(CHUNKS_PER_DOCUMENT);
+        assertThat(index.removeDocument(removedDocument)).isZero();
+        assertThat(index.liveCount()).isEqualTo((DOCUMENTS - 1) * CHUNKS_PER_DOCUMENT);
+        assertThat(index.deletedCount()).isEqualTo(CHUNKS_PER_DOCUMENT);
+        assertThat(index.search(randomVector(), List.of(removedDocument), K, 40, 400, 0)).isEmpty();
+        for (int q = 0; q < 20; q++) {
+            assertThat(index.search(randomVector(), documentIds, K, 40, 400, 0))
+                    .noneMatch(hit -> hit.documentId().equals(removedDocument));
+        }
+
+        // 墓碑节点仍参与遍历，重新加入后应与未删除前一样可检索
+        corpus.removeIf(entry -> entry.documentId().equals(removedDocument));
+        for (int i = 0; i < CHUNKS_PER_DOCUMENT; i++) {
+            Entry entry = new Entry(UUID.randomUUID(), removedDocument, randomVector());
+            corpus.add(entry);
+            index.add(entry.chunkId(), entry.documentId(), entry.vector());
+        }
+
+        assertThat(index.liveCount()).isEqualTo(DOCUMENTS * CHUNKS_PER_DOCUMENT);
+        assertThat(index.search(randomVector(), List.of(removedDocument), K, 40, 400, 0)).hasSize(K);
+        assertThat(averageRecall(index, documentIds, 50)).isGreaterThanOrEqualTo(0.9);
+    }
+
+    @Test
+    void addingExistingChunkReplacesItsVector() {
+        HnswIndex index = buildIndex();
+        Entry original = corpus.get(0);
+        float[] replacement = randomVector();
+
+        index.add(original.chunkId(), original.documentId(), replacement);
+
+        List<HnswIndex.Hit> hits = index.search(replacement, List.of(original.documentId()), 1, 40, 400, 0);
+        assertThat(hits).singleElement().satisfies(hit -> {
+            assertThat(hit.chunkId()).isEqualTo(original.chunkId());
+            assertThat(hit.similarity()).isCloseTo(1f, offset(1e-4f));
+        });
+        assertThat(index.liveCount()).isEqualTo(DOCUMENTS * CHUNKS_PER_DOCUMENT);
+        assertThat(index.deletedCount()).isEqualTo(1);
+    }
+
+    @Test
+    void replaceDocumentSwapsAllChunks() {
+        HnswIndex index = buildIndex();
+        UUID document = documentIds.get(0);
+        Set<UUID> oldChunks = corpus.stream().filter(entry -> entry.documentId().equals(document))
+                .map(Entry::chunkId).collect(Collectors.toSet());
+        List<Map.Entry<UUID, float[]>> replacement = new ArrayList<>();
+        for (int i = 0; i < CHUNKS_PER_DOCUMENT / 2; i++) {
+            replacement.add(Map.entry(UUID.randomUUID(), randomVector()));
+        }
+
+        index.replaceDocument(document, replacement);
+
+        Set<UUID> newChunks = replacement.stream().map(Map.Entry::getKey).collect(Collectors.toSet());
+        assertThat(index.liveCount()).isEqualTo((DOCUMENTS - 1) * CHUNKS_PER_DOCUMENT + CHUNKS_PER_DOCUMENT / 2);
+        assertThat(index.deletedCount()).isEqualTo(CHUNKS_PER_DOCUMENT);
+        assertThat(index.search(randomVector(), List.of(document), CHUNKS_PER_DOCUMENT, 40, 400, CHUNKS_PER_DOCUMENT))
+                .hasSize(CHUNKS_PER_DOCUMENT / 2)
+                .allMatch(hit -> newChunks.contains(hit.chunkId()))
+                .noneMatch(hit -> oldChunks.contains(hit.chunkId()));
+
+        index.replaceDocument(document, List.of());
+        assertThat(index.search(randomVector(), List.of(document), K, 40, 400, 0)).isEmpty();
+    }
+
+    @Test
+    void concurrentSearchNeverSeesADocumentMidReplacement() throws Exception {
+        HnswIndex index = buildIndex();
+        UUID document = documentIds.get(0);
+        List<List<Map.Entry<UUID, float[]>>> versions = new ArrayList<>();
+        for (int v = 0; v < 20; v++) {
+            List<Map.Entry<UUID, float[]>> chunks = new ArrayList<>();
+            for (int i = 0; i < CHUNKS_PER_DOCUMENT; i++) {
+                chunks.add(Map.entry(UUID.randomUUID(), randomVector()));
+            }
+            versions.add(chunks);
+        }
+        float[] query = randomVector();
+
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicInteger incomplete = new AtomicInteger();
+        Thread reader = Thread.ofVirtual().start(() -> {
+            while (!done.get()) {
+                if (index.search(query, List.of(document), CHUNKS_PER_DOCUMENT, 40, 400, CHUNKS_PER_DOCUMENT).size()
+                        != CHUNKS_PER_DOCUMENT) {
+                    incomplete.incrementAndGet();
+                }
+            }
+        });
+        for (List<Map.Entry<UUID, float[]>> version : versions) {
+            index.replaceDocument(document, version);
+        }
+        done.set(true);
+        reader.join();
+
+        assertThat(incomplete).hasValue(0);
+    }
+
+    private HnswIndex buildIndex() {
+        HnswIndex index = new HnswIndex(DIMENSION, 16, 100);
+        for (int d = 0; d < DOCUMENTS; d++) {
+            UUID documentId = UUID.randomUUID();
+            documentIds.add(documentId);
+            for (int c = 0; c < CHUNKS_PER_DOCUMENT; c++) {
+                Entry entry = new Entry(UUID.randomUUID(), documentId, randomVector());
+                corpus.add(entry);
+                index.add(entry.chunkId(), entry.documentId(), entry.vector());
+            }
+        }
+        return index;
+    }
+
+    /**
+     * 图遍历 (exactSearchThreshold = 0) 的 top-k 与暴力搜索结果的平均重合率。
+     */
+    private double averageRecall(HnswIndex index, List<UUID> allowed, int queries) {
+        Set<UUID> allowedSet = new HashSet<>(allowed);
+        double total = 0;
+        for (int q = 0; q < queries; q++) {
+            float[] query = randomVector();
+            Set<UUID> expected = new HashSet<>(bruteForce(query, allowedSet, K));
+            Set<UUID> actual = index.search(query, allowed, K, 40, 400, 0).stream()
+                    .map(HnswIndex.Hit::chunkId)
+                    .collect(Collectors.toSet());
+            actual.retainAll(expected);
+            total += (double) actual.size() / K;
+        }
+        return total / queries;
+    }
+
+    private List<UUID> bruteForce(float[] query, Set<UUID> allowed, int k) {
+        float[] normalized = MmrUtils.normalize(query);
+        return corpus.stream()
+                .filter(entry -> allowed.contains(entry.documentId()))
+                .sorted(Comparator.comparingDouble((Entry entry) -> dot(normalized, MmrUtils.normalize(entry.vector())))
+                        .reversed())
+                .limit(k)
+                .map(Entry::chunkId)
+                .toList();
+    }
+
+    private float[] randomVector() {
+        float[] vector = new float[DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+
+    private static double dot(float[] a, float[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    private record Entry(UUID chunkId, UUID documentId, float[] vector) {}
+}
@@ -0,0 +1,75 @@
+package com.twocold.jrag.service.vector;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.data.Offset.offset;
+
+class OffHeapVectorStoreTest {
+
+    private final Random random = new Random(7);
+
+    @Test
+    void vectorsRoundTripAcrossPages() {
+        // 奇数维度覆盖点积的尾部循环；超过一页 (4096 个向量) 覆盖跨页寻址
+        OffHeapVectorStore store = new OffHeapVectorStore(7);
+        List<float[]> vectors = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            float[] vector = randomVector(7);
+            vectors.add(vector);
+            assertThat(store.add(vector)).isEqualTo(i);
+        }
+
+        assertThat(store.size()).isEqualTo(5000);
+        assertThat(store.offHeapBytes()).isEqualTo(2L * 4096 * 7 * Float.BYTES);
+        for (int slot : new int[] {0, 4095, 4096, 4999}) {
+            assertThat(store.get(slot)).containsExactly(vectors.get(slot));
+        }
+    }
+
+    @Test
+    void dotProductsMatchPlainLoop() {
+        OffHeapVectorStore store = new OffHeapVectorStore(7);
+        List<float[]> vectors = new ArrayList<>();
+        for (int i = 0; i < 4100; i++) {
+            float[] vector = randomVector(7);
+            vectors.add(vector);
+            store.add(vector);
+        }
+        float[] query = randomVector(7);
+
+        for (int slot : new int[] {1, 4095, 4099}) {
+            assertThat(store.dot(slot, query)).isCloseTo(dot(vectors.get(slot), query), offset(1e-4f));
+            assertThat(store.dot(slot, 4096)).isCloseTo(dot(vectors.get(slot), vectors.get(4096)), offset(1e-4f));
+        }
+    }
+
+    @Test
+    void rejectsVectorsOfWrongDimension() {
+        OffHeapVectorStore store = new OffHeapVectorStore(4);
+
+        assertThatThrownBy(() -> store.add(new float[3])).isInstanceOf(IllegalArgumentException.class);
+        assertThat(store.size()).isZero();
+    }
+
+    private float[] randomVector(int dimension) {
+        float[] vector = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+
+    private static float dot(float[] a, float[] b) {
+        float sum = 0f;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+}
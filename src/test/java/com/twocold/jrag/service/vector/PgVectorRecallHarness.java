@@ -0,0 +1,239 @@
+package com.twocold.jrag.service.vector;
+
+import com.twocold.jrag.config.RagProperties;
+import com.twocold.jrag.domain.Chunk;
+import com.twocold.jrag.ingestion.ChunkRow;
+import com.twocold.jrag.ingestion.ChunkWriter;
+import com.twocold.jrag.support.PgVectorTestDatabase;
+import com.twocold.jrag.utils.MmrUtils;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * pgvector HNSW 检索的召回率与延迟：在合成语料上把 {@link PgVectorSearchBackend} 的结果与精确 (暴力) 检索对比，
+ * 分别测量全库、多文档与单文档过滤，以及按查询设置 ef_search / 迭代扫描 (app.rag.retrieval.hnsw) 开启与关闭时的表现；
+ * 再对 half / binary / matryoshka 存储模式 (app.rag.retrieval.vector-storage) 在不同过采样倍数下测量精确重排后的召回率。
+ * 派生列由 {@link VectorStorageBackfill} 回填，与切换存储模式后的线上流程一致。
+ * 合成向量不是 Matryoshka 方式训练的，matryoshka 模式的召回率只反映截断前缀在该语料上的效果，不代表真实模型。
+ * <p>
+ * 需要 Docker；类名不匹配 surefire 的默认规则，不随 mvn test 运行，需显式指定：
+ * {@code mvn test -Dtest=PgVectorRecallHarness}
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class PgVectorRecallHarness {
+
+    private static final int DOCUMENTS = 100;
+    private static final int CHUNKS_PER_DOCUMENT = 100;
+    // 足够多的查询才能给出有意义的 p99
+    private static final int QUERIES = 200;
+    private static final int[] OVERSAMPLING = {1, 2, 4, 8};
+    private static final int FETCH_K = 40;
+
+    @Container
+    private static final PostgreSQLContainer<?> POSTGRES = PgVectorTestDatabase.container();
+
+    private static HikariDataSource dataSource;
+    private static JdbcClient jdbcClient;
+    private static TransactionTemplate transactionTemplate;
+    private static List<UUID> documentIds;
+    private static final Map<UUID, float[]> normalizedById = new HashMap<>();
+    private static final Map<UUID, UUID> documentById = new HashMap<>();
+    private static final List<float[]> queries = new ArrayList<>();
+    private static final Map<String, VectorStorageBackfill> backfills = new HashMap<>();
+
+    @BeforeAll
+    static void loadCorpus() {
+        dataSource = PgVectorTestDatabase.migrate(POSTGRES);
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcClient = JdbcClient.create(dataSource);
+        transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+
+        Random random = new Random(2024);
+        documentIds = PgVectorTestDatabase.insertDocuments(jdbcTemplate, DOCUMENTS);
+        float[][] vectors = PgVectorTestDatabase.clusteredVectors(random, DOCUMENTS * CHUNKS_PER_DOCUMENT, 64);
+        ChunkWriter writer = new ChunkWriter(jdbcTemplate, dataSource, properties(false, "copy", null),
+                new SimpleMeterRegistry());
+        OffsetDateTime now = OffsetDateTime.now();
+        for (int d = 0; d < DOCUMENTS; d++) {
+            UUID documentId = documentIds.get(d);
+            List<ChunkRow> rows = new ArrayList<>(CHUNKS_PER_DOCUMENT);
+            for (int c = 0; c < CHUNKS_PER_DOCUMENT; c++) {
+                float[] vector = vectors[d * CHUNKS_PER_DOCUMENT + c];
+                UUID chunkId = UUID.randomUUID();
+                normalizedById.put(chunkId, MmrUtils.normalize(vector));
+                documentById.put(chunkId, documentId);
+                rows.add(new ChunkRow(chunkId, documentId, "chunk " + c, vector, c, "{}", "harness", "", now,
+                        new byte[32]));
+            }
+            transactionTemplate.executeWithoutResult(status -> writer.write(rows));
+        }
+        // full 模式写入的片段没有派生列：与线上切换存储模式一样由回填填充
+        for (String mode : List.of("full", "half", "binary", "matryoshka")) {
+            backfills.put(mode, backfill(mode));
+        }
+        jdbcTemplate.execute("ANALYZE chunks");
+
+        // 查询取语料中的向量加噪声，保证每个查询在各个簇附近都有真实的近邻
+        for (int q = 0; q < QUERIES; q++) {
+            float[] query = vectors[random.nextInt(vectors.length)].clone();
+            for (int i = 0; i < query.length; i++) {
+                query[i] += (float) random.nextGaussian() * 0.2f;
+            }
+            queries.add(query);
+        }
+    }
+
+    @AfterAll
+    static void close() {
+        if (dataSource != null) {
+            dataSource.close();
+        }
+    }
+
+    @Test
+    void recallAndLatencyAgainstExactSearch() {
+        Map<String, List<UUID>> filters = new LinkedHashMap<>();
+        filters.put("all " + DOCUMENTS + " documents", documentIds);
+        filters.put("10 documents", documentIds.subList(0, 10));
+        filters.put("1 document", documentIds.subList(0, 1));
+
+        System.out.printf("%-16s %-12s %8s %10s %10s%n", "filter", "hnsw config", "recall", "p50 (ms)", "p99 (ms)");
+        for (Map.Entry<String, List<UUID>> filter : filters.entrySet()) {
+            for (boolean tuned : new boolean[] {false, true}) {
+                PgVectorSearchBackend backend = backend(properties(tuned, "batch", null));
+                Result result = measure(backend, filter.getValue());
+                System.out.printf("%-16s %-12s %8.3f %10.2f %10.2f%n", filter.getKey(), tuned ? "per-query" : "defaults",
+                        result.recall(), result.p50Millis(), result.p99Millis());
+                if (tuned) {
+                    assertThat(result.recall()).as("recall@%d for %s", FETCH_K, filter.getKey())
+                            .isGreaterThanOrEqualTo(0.9);
+                }
+            }
+        }
+    }
+
+    @Test
+    void storageModesAgainstExactSearch() {
+        Map<String, List<UUID>> filters = new LinkedHashMap<>();
+        filters.put("all " + DOCUMENTS + " documents", documentIds);
+        filters.put("10 documents", documentIds.subList(0, 10));
+
+        System.out.printf("%-16s %-12s %12s %8s %10s %10s%n",
+                "filter", "storage", "oversampling", "recall", "p50 (ms)", "p99 (ms)");
+        for (Map.Entry<String, List<UUID>> filter : filters.entrySet()) {
+            Result full = measure(backend(properties(true, "batch", null)), filter.getValue());
+            System.out.printf("%-16s %-12s %12s %8.3f %10.2f %10.2f%n", filter.getKey(), "full", "-",
+                    full.recall(), full.p50Millis(), full.p99Millis());
+            for (String mode : List.of("half", "binary", "matryoshka")) {
+                for (int oversampling : OVERSAMPLING) {
+                    RagProperties properties = properties(true, "batch",
+                            new RagProperties.Retrieval.VectorStorage(mode, true, oversampling, 0));
+                    Result result = measure(backend(properties), filter.getValue());
+                    System.out.printf("%-16s %-12s %12d %8.3f %10.2f %10.2f%n", filter.getKey(), mode, oversampling,
+                            result.recall(), result.p50Millis(), result.p99Millis());
+                    if ("half".equals(mode) && oversampling >= 4) {
+                        assertThat(result.recall()).as("recall@%d for half x%d on %s", FETCH_K, oversampling,
+                                filter.getKey()).isGreaterThanOrEqualTo(0.9);
+                    }
+                }
+            }
+        }
+    }
+
+    private Result measure(PgVectorSearchBackend backend, List<UUID> filter) {
+        // 预热：建立连接、预编译语句并把索引页读入缓存
+        for (int i = 0; i < 5; i++) {
+            backend.searchNearest(queries.get(i), filter, FETCH_K, false);
+        }
+        Set<UUID> allowed = new HashSet<>(filter);
+        double recallSum = 0;
+        long[] latencies = new long[queries.size()];
+        for (int q = 0; q < queries.size(); q++) {
+            float[] query = queries.get(q);
+            long start = System.nanoTime();
+            List<Chunk> hits = backend.searchNearest(query, filter, FETCH_K, false);
+            latencies[q] = System.nanoTime() - start;
+
+            Set<UUID> expected = exact(query, allowed);
+            long found = hits.stream().map(Chunk::getId).filter(expected::contains).count();
+            recallSum += (double) found / expected.size();
+        }
+        Arrays.sort(latencies);
+        return new Result(recallSum / queries.size(), latencies[latencies.length / 2] / 1e6,
+                latencies[(int) (latencies.length * 0.99)] / 1e6);
+    }
+
+    private Set<UUID> exact(float[] query, Set<UUID> allowed) {
+        float[] normalized = MmrUtils.normalize(query);
+        return normalizedById.entrySet().stream()
+                .filter(entry -> allowed.contains(documentById.get(entry.getKey())))
+                .sorted((a, b) -> Double.compare(MmrUtils.dot(normalized, b.getValue()),
+                        MmrUtils.dot(normalized, a.getValue())))
+                .limit(FETCH_K)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toSet());
+    }
+
+    private static PgVectorSearchBackend backend(RagProperties properties) {
+        String mode = properties.retrieval().vectorStorage().mode();
+        return new PgVectorSearchBackend(properties, jdbcClient, transactionTemplate, backfills.get(mode),
+                new SimpleMeterRegistry());
+    }
+
+    /**
+     * 运行该存储模式的在线回填并等待完成 (没有派生列的模式立即完成)。
+     */
+    private static VectorStorageBackfill backfill(String mode) {
+        VectorStorageBackfill backfill = new VectorStorageBackfill(jdbcClient,
+                properties(false, "batch", new RagProperties.Retrieval.VectorStorage(mode, true, 0, 0)));
+        backfill.onApplicationReady();
+        long deadline = System.currentTimeMillis() + 300_000;
+        while (!backfill.isComplete()) {
+            assertThat(System.currentTimeMillis()).as("backfill of %s", mode).isLessThan(deadline);
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+        return backfill;
+    }
+
+    private static RagProperties properties(boolean hnswEnabled, String writeMode,
+                                            RagProperties.Retrieval.VectorStorage vectorStorage) {
+        RagProperties.Retrieval.Hnsw hnsw = new RagProperties.Retrieval.Hnsw(hnswEnabled, 2, 40, 400,
+                "relaxed_order", 50, 20000);
+        RagProperties.Retrieval retrieval = new RagProperties.Retrieval(10, null, null, null, hnsw, true,
+                null, null, vectorStorage, null, null, null);
+        return new RagProperties(retrieval, null, null, null, null,
+                new RagProperties.Ingestion(0, 0, writeMode, false, null));
+    }
+
+    private record Result(double recall, double p50Millis, double p99Millis) {}
+}
@@ -0,0 +1,24 @@
+package com.twocold.jrag.service.vector;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PgVectorSearchBackendTest {
+
+    @Test
+    void iterativeScanRequiresPgvector08() {
+        assertThat(PgVectorSearchBackend.atLeast("0.8.0", 0, 8)).isTrue();
+        assertThat(PgVectorSearchBackend.atLeast("0.8.1", 0, 8)).isTrue();
+        assertThat(PgVectorSearchBackend.atLeast("1.0", 0, 8)).isTrue();
+        assertThat(PgVectorSearchBackend.atLeast("0.7.4", 0, 8)).isFalse();
+        assertThat(PgVectorSearchBackend.atLeast("0.5.1", 0, 8)).isFalse();
+    }
+
+    @Test
+    void unknownVersionDisablesIterativeScan() {
+        assertThat(PgVectorSearchBackend.atLeast(null, 0, 8)).isFalse();
+        assertThat(PgVectorSearchBackend.atLeast("dev", 0, 8)).isFalse();
+        assertThat(PgVectorSearchBackend.atLeast("0.10-beta", 0, 8)).isTrue();
+    }
+}
@@ -0,0 +1,96 @@
+package com.twocold.jrag.support;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.flywaydb.core.Flyway;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.utility.DockerImageName;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Testcontainers 上的 pgvector 数据库与合成语料，供需要真实 Postgres 的性能测试 (harness) 使用。
+ * 表结构由应用自身的 Flyway 迁移创建，与生产一致。
+ */
+public final class PgVectorTestDatabase {
+
+    public static final DockerImageName IMAGE =
+            DockerImageName.parse("pgvector/pgvector:pg16").asCompatibleSubstituteFor("postgres");
+
+    public static final int DIMENSION = 1024;
+
+    private PgVectorTestDatabase() {
+    }
+
+    public static PostgreSQLContainer<?> container() {
+        return new PostgreSQLContainer<>(IMAGE);
+    }
+
+    /**
+     * 创建连接池并执行全部迁移。与 application.properties 一致使用会话级的 advisory lock，
+     * 否则 CREATE INDEX CONCURRENTLY 会一直等待 Flyway 自身持有锁的事务。
+     */
+    public static HikariDataSource migrate(PostgreSQLContainer<?> container) {
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl(container.getJdbcUrl());
+        config.setUsername(container.getUsername());
+        config.setPassword(container.getPassword());
+        config.setMaximumPoolSize(4);
+        HikariDataSource dataSource = new HikariDataSource(config);
+        Flyway.configure()
+                .dataSource(dataSource)
+                .locations("classpath:db/migration")
+                .placeholders(Map.of("chunks_partitioning", "auto"))
+                .configuration(Map.of("flyway.postgresql.transactional.lock", "false"))
+                .load()
+                .migrate();
+        return dataSource;
+    }
+
+    public static List<UUID> insertDocuments(JdbcTemplate jdbcTemplate, int count) {
+        List<UUID> documentIds = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            documentIds.add(UUID.randomUUID());
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO documents (id, name, user_id, status, progress) VALUES (?, ?, 1, 'COMPLETED', 100)",
+                documentIds, 500, (ps, id) -> {
+                    ps.setObject(1, id);
+                    ps.setString(2, "doc-" + id + ".pdf");
+                });
+        return documentIds;
+    }
+
+    /**
+     * 聚簇分布的合成向量：每个向量为某个随机簇中心加高斯噪声，比均匀随机向量更接近真实嵌入的近邻结构
+     * (均匀随机的高维向量两两距离几乎相同，近似索引的召回率没有参考意义)。
+     */
+    public static float[][] clusteredVectors(Random random, int count, int clusters) {
+        float[][] centers = new float[clusters][];
+        for (int c = 0; c < clusters; c++) {
+            centers[c] = gaussian(random, 1.0f);
+        }
+        float[][] vectors = new float[count][];
+        for (int i = 0; i < count; i++) {
+            float[] center = centers[random.nextInt(clusters)];
+            float[] noise = gaussian(random, 0.35f);
+            for (int d = 0; d < DIMENSION; d++) {
+                noise[d] += center[d];
+            }
+            vectors[i] = noise;
+        }
+        return vectors;
+    }
+
+    private static float[] gaussian(Random random, float scale) {
+        float[] vector = new float[DIMENSION];
+        for (int d = 0; d < DIMENSION; d++) {
+            vector[d] = (float) random.nextGaussian() * scale;
+        }
+        return vector;
+    }
+}
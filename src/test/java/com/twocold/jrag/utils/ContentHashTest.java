@@ -0,0 +1,31 @@
+package com.twocold.jrag.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HexFormat;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ContentHashTest {
+
+    @Test
+    void matchesKnownSha256Digests() {
+        assertThat(HexFormat.of().formatHex(ContentHash.sha256("")))
+                .isEqualTo("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855");
+        assertThat(HexFormat.of().formatHex(ContentHash.sha256("abc")))
+                .isEqualTo("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad");
+    }
+
+    @Test
+    void hashesUtf8Bytes() {
+        // 与数据库端 sha256(convert_to(content, 'UTF8')) 一致
+        assertThat(HexFormat.of().formatHex(ContentHash.sha256("中文")))
+                .isEqualTo("72726d8818f693066ceb69afa364218b692e62ea92b385782363780f47529c21");
+    }
+
+    @Test
+    void sameTextGivesSameHashAndDifferentTextDiffers() {
+        assertThat(ContentHash.sha256("片段")).hasSize(32).isEqualTo(ContentHash.sha256("片段"));
+        assertThat(ContentHash.sha256("片段")).isNotEqualTo(ContentHash.sha256("片段 "));
+    }
+}
@@ -0,0 +1,43 @@
+package com.twocold.jrag.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DocumentSetFingerprintTest {
+
+    private static final UUID A = UUID.fromString("00000000-0000-0000-0000-000000000001");
+    private static final UUID B = UUID.fromString("00000000-0000-0000-0000-000000000002");
+    private static final UUID C = UUID.fromString("ffffffff-0000-0000-0000-000000000003");
+
+    @Test
+    void independentOfOrderAndDuplicates() {
+        String fingerprint = DocumentSetFingerprint.of(List.of(A, B, C));
+
+        assertThat(DocumentSetFingerprint.of(List.of(C, A, B))).isEqualTo(fingerprint);
+        assertThat(DocumentSetFingerprint.of(List.of(B, A, C, A))).isEqualTo(fingerprint);
+        assertThat(DocumentSetFingerprint.of(Set.of(A, B, C))).isEqualTo(fingerprint);
+    }
+
+    @Test
+    void collectionAndSortedArrayFormsAgree() {
+        assertThat(DocumentSetFingerprint.of(List.of(C, B, A)))
+                .isEqualTo(DocumentSetFingerprint.of(List.of(A, B, C).stream().sorted().toArray(UUID[]::new)));
+    }
+
+    @Test
+    void differentSetsGiveDifferentFingerprints() {
+        assertThat(DocumentSetFingerprint.of(List.of(A, B))).isNotEqualTo(DocumentSetFingerprint.of(List.of(A, C)));
+        assertThat(DocumentSetFingerprint.of(List.of(A))).isNotEqualTo(DocumentSetFingerprint.of(List.of(A, B)));
+    }
+
+    @Test
+    void emptySetHashesNothing() {
+        assertThat(DocumentSetFingerprint.of(List.of()))
+                .isEqualTo("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855");
+    }
+}
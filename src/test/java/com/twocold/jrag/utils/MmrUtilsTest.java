@@ -0,0 +1,131 @@
+package com.twocold.jrag.utils;
+
+import com.pgvector.PGvector;
+import com.twocold.jrag.domain.Chunk;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.data.Offset.offset;
+
+class MmrUtilsTest {
+
+    private final Random random = new Random(5);
+
+    @Test
+    void selectMatchesNaiveMmr() {
+        for (double lambda : new double[] {0.0, 0.3, 0.5, 0.7, 1.0}) {
+            float[][] rows = new float[60][];
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = MmrUtils.normalize(randomVector(64));
+            }
+            float[] query = MmrUtils.normalize(randomVector(64));
+
+            assertThat(MmrUtils.select(rows, query, 10, lambda)).containsExactly(naiveMmr(rows, query, 10, lambda));
+        }
+    }
+
+    @Test
+    void pureRelevanceOrdersBySimilarity() {
+        float[][] rows = {
+                MmrUtils.normalize(new float[] {0f, 1f}),
+                MmrUtils.normalize(new float[] {1f, 0f}),
+                MmrUtils.normalize(new float[] {1f, 1f}),
+        };
+
+        assertThat(MmrUtils.select(rows, new float[] {1f, 0f}, 3, 1.0)).containsExactly(1, 2, 0);
+    }
+
+    @Test
+    void nearDuplicateIsPenalised() {
+        float[][] rows = {
+                MmrUtils.normalize(new float[] {1f, 0f, 0f}),
+                MmrUtils.normalize(new float[] {1f, 0.01f, 0f}),
+                MmrUtils.normalize(new float[] {0.6f, 0f, 0.8f}),
+        };
+        float[] query = {1f, 0f, 0f};
+
+        assertThat(MmrUtils.select(rows, query, 2, 1.0)).containsExactly(0, 1);
+        assertThat(MmrUtils.select(rows, query, 2, 0.3)).containsExactly(0, 2);
+    }
+
+    @Test
+    void selectionIsCappedByCandidateCount() {
+        float[][] rows = {MmrUtils.normalize(randomVector(8)), MmrUtils.normalize(randomVector(8))};
+
+        assertThat(MmrUtils.select(rows, MmrUtils.normalize(randomVector(8)), 5, 0.5)).hasSize(2);
+        assertThat(MmrUtils.select(rows, MmrUtils.normalize(randomVector(8)), 0, 0.5)).isEmpty();
+        assertThat(MmrUtils.select(new float[0][], new float[8], 5, 0.5)).isEmpty();
+    }
+
+    @Test
+    void applyMmrReturnsSelectedChunks() {
+        List<Chunk> candidates = new ArrayList<>();
+        for (float[] vector : new float[][] {{1f, 0f}, {0.99f, 0.01f}, {0f, 1f}}) {
+            Chunk chunk = new Chunk();
+            chunk.setId(UUID.randomUUID());
+            chunk.setContentVector(new PGvector(vector));
+            candidates.add(chunk);
+        }
+
+        assertThat(MmrUtils.applyMmr(candidates, new float[] {1f, 0f}, 2, 0.3))
+                .containsExactly(candidates.get(0), candidates.get(2));
+        assertThat(MmrUtils.applyMmr(List.of(), new float[] {1f, 0f}, 2, 0.5)).isEmpty();
+    }
+
+    @Test
+    void normalizeAndDot() {
+        float[] normalized = MmrUtils.normalize(new float[] {3f, 4f, 0f, 0f, 0f});
+
+        assertThat(normalized).containsExactly(0.6f, 0.8f, 0f, 0f, 0f);
+        assertThat(MmrUtils.normalize(new float[3])).containsExactly(0f, 0f, 0f);
+        assertThat(MmrUtils.dot(new float[] {1f, 2f, 3f, 4f, 5f}, new float[] {5f, 4f, 3f, 2f, 1f})).isEqualTo(35.0);
+        assertThat(MmrUtils.cosineSimilarity(new float[] {1f, 0f}, new float[] {2f, 2f}))
+                .isCloseTo(Math.sqrt(0.5), offset(1e-6));
+        assertThat(MmrUtils.cosineSimilarity(new float[] {1f, 0f}, new float[2])).isZero();
+        assertThatThrownBy(() -> MmrUtils.dot(new float[2], new float[3])).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    /**
+     * 教科书式 MMR：每轮对每个候选重新计算与全部已选片段的最大相似度。
+     */
+    private static int[] naiveMmr(float[][] rows, float[] query, int k, double lambda) {
+        List<Integer> selected = new ArrayList<>();
+        while (selected.size() < Math.min(k, rows.length)) {
+            int best = -1;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < rows.length; i++) {
+                if (selected.contains(i)) {
+                    continue;
+                }
+                double redundancy = 0;
+                if (!selected.isEmpty()) {
+                    redundancy = Double.NEGATIVE_INFINITY;
+                    for (int j : selected) {
+                        redundancy = Math.max(redundancy, MmrUtils.dot(rows[i], rows[j]));
+                    }
+                }
+                double score = lambda * MmrUtils.dot(query, rows[i]) - (1 - lambda) * redundancy;
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = i;
+                }
+            }
+            selected.add(best);
+        }
+        return selected.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private float[] randomVector(int dimension) {
+        float[] vector = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+}
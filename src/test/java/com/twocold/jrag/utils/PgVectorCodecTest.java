@@ -0,0 +1,62 @@
+package com.twocold.jrag.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PgVectorCodecTest {
+
+    @Test
+    void encodeWritesHeaderAndBigEndianFloats() {
+        byte[] bytes = PgVectorCodec.encode(new float[] {1.0f, -2.5f, 0f});
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        assertThat(bytes).hasSize(4 + 3 * Float.BYTES);
+        assertThat(buffer.getShort()).isEqualTo((short) 3);
+        assertThat(buffer.getShort()).isZero();
+        assertThat(buffer.getFloat()).isEqualTo(1.0f);
+        assertThat(buffer.getFloat()).isEqualTo(-2.5f);
+        assertThat(buffer.getFloat()).isEqualTo(0f);
+    }
+
+    @Test
+    void decodeReversesEncode() {
+        float[] vector = new float[1024];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = (float) Math.sin(i) * 3;
+        }
+
+        assertThat(PgVectorCodec.decode(PgVectorCodec.encode(vector))).containsExactly(vector);
+        assertThat(PgVectorCodec.decode(PgVectorCodec.encode(new float[0]))).isEmpty();
+    }
+
+    @Test
+    void decodeHandlesNullAndRejectsTruncatedInput() {
+        assertThat(PgVectorCodec.decode(null)).isNull();
+
+        byte[] truncated = Arrays.copyOf(PgVectorCodec.encode(new float[] {1f, 2f}), 8);
+        assertThatThrownBy(() -> PgVectorCodec.decode(truncated)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void encodeHalfWritesFloat16WithRoundHalfToEven() {
+        float halfUlp = (float) Math.pow(2, -11);
+        byte[] bytes = PgVectorCodec.encodeHalf(new float[] {1.0f, -2.0f, 1 + halfUlp, 1 + 3 * halfUlp, 70000f});
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        assertThat(bytes).hasSize(4 + 5 * Short.BYTES);
+        assertThat(buffer.getShort()).isEqualTo((short) 5);
+        assertThat(buffer.getShort()).isZero();
+        assertThat(buffer.getShort()).isEqualTo((short) 0x3C00);
+        assertThat(buffer.getShort()).isEqualTo((short) 0xC000);
+        // 恰好位于两个 float16 中间时舍入到尾数为偶数的一侧
+        assertThat(buffer.getShort()).isEqualTo((short) 0x3C00);
+        assertThat(buffer.getShort()).isEqualTo((short) 0x3C02);
+        // 超出 float16 范围
+        assertThat(Float.float16ToFloat(buffer.getShort())).isInfinite();
+    }
+}